@@ -0,0 +1,74 @@
+package com.jay.jconnect;
+
+import com.sun.net.httpserver.Headers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// Shared inputs for the benchmarks
+final class BenchData {
+    private BenchData() {}
+
+    // Shell-like output: prompts, ls/ps style lines, some escape sequences
+    static byte[] terminalOutput(int size) {
+        StringBuilder sb = new StringBuilder(size + 128);
+        Random r = new Random(42);
+        String[] words = {"drwxr-xr-x", "root", "4096", "Oct", "src", "target", "pom.xml", "java", "\u001b[01;34m", "\u001b[0m", "42", "bash"};
+        while (sb.length() < size) {
+            for (int i = 0; i < 8; i++) sb.append(words[r.nextInt(words.length)]).append(' ');
+            sb.append("\r\n");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    // A typical browser GET
+    static Headers browserHeaders() {
+        Headers h = new Headers();
+        h.add("Host", "localhost:55080");
+        h.add("User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0");
+        h.add("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        h.add("Accept-Language", "en-US,en;q=0.5");
+        h.add("Accept-Encoding", "gzip, deflate, br");
+        h.add("Connection", "keep-alive");
+        h.add("Cookie", "session=8c1f0e2b7d; theme=dark");
+        h.add("Cookie", "_ga=GA1.1.1234567890.1700000000");
+        h.add("Upgrade-Insecure-Requests", "1");
+        h.add("Sec-Fetch-Dest", "document");
+        h.add("Sec-Fetch-Mode", "navigate");
+        h.add("Sec-Fetch-Site", "none");
+        h.add("If-None-Match", "\"5f3a-1c2b\"");
+        return h;
+    }
+
+    // Response headers as HttpHeaders.map() hands them to JServ
+    static Map<String, List<String>> responseHeaders(int bodyBytes) {
+        Map<String, List<String>> h = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        h.put("content-type", List.of("text/html; charset=utf-8"));
+        h.put("content-length", List.of(String.valueOf(bodyBytes)));
+        h.put("date", List.of("Fri, 16 Oct 2026 20:00:00 GMT"));
+        h.put("cache-control", List.of("max-age=60"));
+        h.put("etag", List.of("\"5f3a-1c2b\""));
+        h.put("last-modified", List.of("Thu, 15 Oct 2026 10:00:00 GMT"));
+        h.put("set-cookie", List.of("a=1; Path=/", "b=2; Path=/; HttpOnly"));
+        h.put("vary", List.of("Accept-Encoding"));
+        return h;
+    }
+
+    // Channel that drops everything, for measuring the producer side alone
+    static class NullChannel implements Transport.Channel {
+        static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+        @Override public String prefix() { return "sessions/bench/null"; }
+        @Override public CompletableFuture<Void> publish(String stream, Map<String, Object> frame) { return DONE; }
+        @Override public CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames) { return DONE; }
+        @Override public Transport.Subscription subscribe(String stream, Transport.FrameListener listener) { return () -> {}; }
+        @Override public CompletableFuture<Void> setState(Map<String, Object> state) { return DONE; }
+        @Override public CompletableFuture<Void> updateState(Map<String, Object> fields) { return DONE; }
+        @Override public Transport.Subscription watchState(Consumer<Map<String, Object>> listener) { return () -> {}; }
+        @Override public CompletableFuture<Boolean> compareAndSetState(String field, Object expected, Object value) {
+            return CompletableFuture.completedFuture(true);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.jay.jconnect;
+
+import java.util.*;
+
+/*
+ * Entry point of benchmarks.jar: the JMH command line, writing JSON results to
+ * jmh-result.json unless -rf / -rff say otherwise, so runs can be kept per commit:
+ *
+ *   java -jar target/benchmarks.jar -rff jmh-$(git rev-parse --short HEAD).json
+ *   java -jar target/benchmarks.jar SessionBench -p path=loopback
+ */
+public class BenchMain {
+    public static void main(String[] args) throws Exception {
+        List<String> a = new ArrayList<>(Arrays.asList(args));
+        if (!a.contains("-rf")) a.addAll(List.of("-rf", "json"));
+        if (!a.contains("-rff")) a.addAll(List.of("-rff", "jmh-result.json"));
+        org.openjdk.jmh.Main.main(a.toArray(new String[0]));
+    }
+}
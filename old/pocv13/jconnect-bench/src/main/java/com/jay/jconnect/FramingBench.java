@@ -0,0 +1,85 @@
+package com.jay.jconnect;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * PTY output framing, per chunk read from the shell:
+ *   legacy       what runSSHServer did before FrameCoalescer/FrameCodec (copyOf + Base64 + map)
+ *   codecRaw     FrameCodec.put without compression (peer accepts identity only)
+ *   codecDeflate FrameCodec.put with deflate negotiated
+ *   coalesced    FrameCoalescer.write with default batching, frames dropped by a null channel
+ *   toJson       what the loopback wire / RTDB client serialises for one legacy frame
+ *   decode       client side FrameCodec.get of a deflated frame
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FramingBench {
+    @Param({"64", "4096", "16384"})
+    int size;
+
+    byte[] buf;
+    FrameCodec raw;
+    FrameCodec deflate;
+    FrameCoalescer coalescer;
+    Map<String, Object> legacyFrame;
+    Map<String, Object> deflatedFrame;
+
+    @Setup
+    public void setup() {
+        buf = BenchData.terminalOutput(size);
+        raw = new FrameCodec("server", List.of(), 256);
+        deflate = new FrameCodec("server", List.of("deflate"), 256);
+        deflate.outbound = FrameCodec.CODECS.get("deflate");
+        coalescer = FrameCoalescer.fromOptions(new BenchData.NullChannel(), Transport.OUTPUT, raw, Options.parse(new String[0]));
+        legacyFrame = legacy();
+        deflatedFrame = codecDeflate();
+    }
+
+    @TearDown
+    public void tearDown() {
+        coalescer.flush();
+    }
+
+    @Benchmark
+    public Map<String, Object> legacy() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("data", Base64.getEncoder().encodeToString(Arrays.copyOf(buf, size)));
+        return m;
+    }
+
+    @Benchmark
+    public Map<String, Object> codecRaw() {
+        Map<String, Object> m = new HashMap<>();
+        raw.put(m, "data", buf, 0, size, true);
+        return m;
+    }
+
+    @Benchmark
+    public Map<String, Object> codecDeflate() {
+        Map<String, Object> m = new HashMap<>();
+        deflate.put(m, "data", buf, 0, size, true);
+        return m;
+    }
+
+    @Benchmark
+    public void coalesced() {
+        coalescer.write(buf, 0, size);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return LoopbackTransport.gson.toJson(legacyFrame);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return deflate.get(deflatedFrame, "data");
+    }
+}
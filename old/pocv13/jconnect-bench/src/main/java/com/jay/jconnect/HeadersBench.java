@@ -0,0 +1,58 @@
+package com.jay.jconnect;
+
+import com.sun.net.httpserver.Headers;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.http.HttpRequest;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Header conversion alone:
+ *   toTunnelMap      exchange Headers -> frame map (JCli, single values unwrapped)
+ *   copyHeaders      frame map -> exchange Headers (JCli.copyHeaders, response side)
+ *   upstreamRequest  frame map -> java.net.http request (UpstreamClients.request, restricted names dropped)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HeadersBench {
+    Headers requestHeaders;
+    Map<String, Object> tunnelRequestHeaders;
+    Map<String, Object> tunnelResponseHeaders;
+    UpstreamClients upstream;
+
+    @Setup
+    public void setup() {
+        requestHeaders = BenchData.browserHeaders();
+        tunnelRequestHeaders = toTunnelMap();
+        tunnelResponseHeaders = new HashMap<>(BenchData.responseHeaders(1024));
+        upstream = UpstreamClients.fromOptions(Options.parse(new String[0]));
+    }
+
+    @Benchmark
+    public Map<String, Object> toTunnelMap() {
+        Map<String, Object> headersMap = new HashMap<>();
+        for (String h : requestHeaders.keySet()) {
+            List<String> v = requestHeaders.get(h);
+            headersMap.put(h, (v.size() == 1) ? v.get(0) : v);
+        }
+        return headersMap;
+    }
+
+    @Benchmark
+    public Headers copyHeaders() {
+        Headers out = new Headers();
+        JCli.copyHeaders(tunnelResponseHeaders, out, true);
+        return out;
+    }
+
+    @Benchmark
+    public HttpRequest upstreamRequest() {
+        return upstream.request(8080, "GET", "/index.html", tunnelRequestHeaders,
+                HttpRequest.BodyPublishers.noBody()).build();
+    }
+}
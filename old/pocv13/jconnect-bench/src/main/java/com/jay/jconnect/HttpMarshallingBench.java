@@ -0,0 +1,107 @@
+package com.jay.jconnect;
+
+import com.sun.net.httpserver.Headers;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.http.HttpRequest;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One proxied HTTP exchange as frames, each step the way JCli.HttpProxy.forward and
+ * JServ.HttpWorker.proxy do it, including the JSON a frame becomes on the wire:
+ *   clientRequest   exchange headers + body -> request frame -> JSON
+ *   serverRequest   JSON -> frame -> body + upstream HttpRequest
+ *   serverResponse  upstream status/headers/body -> response frame -> JSON
+ *   clientResponse  JSON -> frame -> body + exchange headers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HttpMarshallingBench {
+    @Param({"0", "2048", "65536"})
+    int bodyBytes;
+
+    @Param({"deflate", "none"})
+    String compress;
+
+    Headers requestHeaders;
+    Map<String, List<String>> responseHeaders;
+    byte[] body;
+    FrameCodec clientCodec;
+    FrameCodec serverCodec;
+    UpstreamClients upstream;
+    String requestJson;
+    String responseJson;
+
+    @Setup
+    public void setup() {
+        requestHeaders = BenchData.browserHeaders();
+        responseHeaders = BenchData.responseHeaders(bodyBytes);
+        body = BenchData.terminalOutput(bodyBytes);
+        Options opts = Options.parse(new String[]{"-compress=" + compress});
+        clientCodec = FrameCodec.fromOptions("client", opts);
+        serverCodec = FrameCodec.fromOptions("server", opts);
+        clientCodec.outbound = FrameCodec.CODECS.get(compress);
+        serverCodec.outbound = FrameCodec.CODECS.get(compress);
+        upstream = UpstreamClients.fromOptions(opts);
+        requestJson = clientRequest();
+        responseJson = serverResponse();
+    }
+
+    @Benchmark
+    public String clientRequest() {
+        Map<String, Object> reqData = new HashMap<>();
+        reqData.put("reqId", "k2x9q1lmzv3b8");
+        reqData.put("port", 8080);
+        reqData.put("method", "POST");
+        reqData.put("uri", "/api/items?page=2");
+        Map<String, Object> headersMap = new HashMap<>();
+        for (String h : requestHeaders.keySet()) {
+            List<String> v = requestHeaders.get(h);
+            headersMap.put(h, (v.size() == 1) ? v.get(0) : v);
+        }
+        reqData.put("headers", headersMap);
+        clientCodec.put(reqData, "body", body, true);
+        reqData.put("stream", true);
+        reqData.put("window", 8);
+        reqData.put("timeoutMs", 30000L);
+        return LoopbackTransport.gson.toJson(reqData);
+    }
+
+    @Benchmark
+    public HttpRequest serverRequest() {
+        Map<String, Object> val = (Map<String, Object>) MemoryTransport.normalize(
+                LoopbackTransport.gson.fromJson(requestJson, LoopbackTransport.MAP_TYPE));
+        Map<String, Object> headers = (Map<String, Object>) val.get("headers");
+        byte[] b = val.get("body") != null ? serverCodec.get(val, "body") : new byte[0];
+        HttpRequest.BodyPublisher publisher = b.length > 0
+                ? HttpRequest.BodyPublishers.ofByteArray(b) : HttpRequest.BodyPublishers.noBody();
+        return upstream.request(((Number) val.get("port")).intValue(), (String) val.get("method"),
+                (String) val.get("uri"), headers, publisher).build();
+    }
+
+    @Benchmark
+    public String serverResponse() {
+        Map<String, Object> outVal = new HashMap<>();
+        outVal.put("reqId", "k2x9q1lmzv3b8");
+        outVal.put("status", 200);
+        outVal.put("headers", responseHeaders);
+        serverCodec.put(outVal, "body", body, true);
+        return LoopbackTransport.gson.toJson(outVal);
+    }
+
+    @Benchmark
+    public Headers clientResponse() {
+        Map<String, Object> resp = (Map<String, Object>) MemoryTransport.normalize(
+                LoopbackTransport.gson.fromJson(responseJson, LoopbackTransport.MAP_TYPE));
+        byte[] b = clientCodec.get(resp, "body");
+        Headers out = new Headers();
+        JCli.copyHeaders((Map<String, Object>) resp.get("headers"), out, true);
+        out.set("X-Body-Length", String.valueOf(b.length));
+        return out;
+    }
+}
@@ -0,0 +1,70 @@
+package com.jay.jconnect;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * FeatureManager.getStatus() and the /api/status body with many sessions per feature,
+ * each with a few history entries (start/stop churn). statusSnapshot is what /api/status
+ * serves between changes, sessionEvent what one change costs with the event stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ManagerStatusBench {
+    @Param({"10", "100", "1000"})
+    int sessionsPerFeature;
+
+    JServ.FeatureManager mgr;
+    JServ.FeatureManager.SessionInfo changing;
+    boolean flip;
+
+    @Setup
+    public void setup() {
+        mgr = new JServ.FeatureManager();
+        String now = Instant.now().toString();
+        for (String feature : JServ.FeatureManager.FEATURES) {
+            for (int i = 0; i < sessionsPerFeature; i++) {
+                JServ.FeatureManager.SessionInfo info = new JServ.FeatureManager.SessionInfo();
+                info.status = "running";
+                info.startedAt = now;
+                info.startMs = 40L + i % 50;
+                if (feature.equals("http")) info.port = 8000 + i;
+                mgr.sessions.get(feature).put("s" + i, info);
+                for (int h = 0; h < 4; h++)
+                    mgr.history.get(feature).add(new JServ.FeatureManager.HistoryEntry(h % 2 == 0 ? "start" : "stop", now, "s" + i, info.port));
+            }
+        }
+        changing = mgr.sessions.get("ssh").get("s0");
+    }
+
+    @Benchmark
+    public Map<String, Object> getStatus() {
+        return mgr.getStatus();
+    }
+
+    @Benchmark
+    public byte[] statusJson() {
+        return JServ.gson.toJson(mgr.getStatus()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] statusSnapshot() {
+        return mgr.statusSnapshot().json();
+    }
+
+    @Benchmark
+    public long sessionEvent() {
+        flip = !flip;
+        changing.status = flip ? "exited" : "running";
+        mgr.sessionChanged("ssh", "s0");
+        return mgr.version;
+    }
+}
@@ -0,0 +1,101 @@
+package com.jay.jconnect;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Allocation per PTY frame, server put to client get. Run with the GC profiler and read
+ * gc.alloc.rate.norm (bytes per op):
+ *
+ *   java -jar target/benchmarks.jar PtyPipelineBench -prof gc
+ *
+ *   legacyPut      copyOfRange + Base64.encodeToString, as FrameCodec.put did before pooling
+ *   pooledPut      FrameCodec.put through FrameBuffers (the payload String and the map remain)
+ *   pooledPutDeflate  same with deflate negotiated
+ *   legacyGet      FrameCodec.get of a deflated frame, returning a fresh array
+ *   pooledGet      FrameCodec.get into a sink, as JCli and JServ read PTY / key frames now
+ *   pipeline       FrameCoalescer write + flush then get into a sink, one frame per op
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PtyPipelineBench {
+    @Param({"64", "4096", "16384"})
+    int size;
+
+    byte[] buf;
+    FrameCodec raw;
+    FrameCodec deflate;
+    Map<String, Object> frame;
+    Map<String, Object> deflatedFrame;
+    FrameCoalescer coalescer;
+    Capture capture;
+    long sunk;
+    final FrameCodec.Sink sink = (b, off, n) -> sunk += n + b[off];
+
+    // Keeps the last frame published, so the pipeline op can decode it
+    static class Capture extends BenchData.NullChannel {
+        Map<String, Object> last;
+
+        @Override
+        public CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames) {
+            last = frames.get(frames.size() - 1);
+            return DONE;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        buf = BenchData.terminalOutput(size);
+        raw = new FrameCodec("server", List.of(), 256);
+        deflate = new FrameCodec("server", List.of("deflate"), 256);
+        deflate.outbound = FrameCodec.CODECS.get("deflate");
+        frame = new HashMap<>(4);
+        deflatedFrame = new HashMap<>(4);
+        deflate.put(deflatedFrame, "data", buf, 0, size, true);
+        capture = new Capture();
+        coalescer = new FrameCoalescer(capture, Transport.OUTPUT, deflate, 0, size, Math.max(size, 16 * 1024), 64);
+    }
+
+    @Benchmark
+    public Map<String, Object> legacyPut() {
+        frame.put("data", Base64.getEncoder().encodeToString(Arrays.copyOfRange(buf, 0, size)));
+        return frame;
+    }
+
+    @Benchmark
+    public Map<String, Object> pooledPut() {
+        raw.put(frame, "data", buf, 0, size, true);
+        return frame;
+    }
+
+    @Benchmark
+    public Map<String, Object> pooledPutDeflate() {
+        deflate.put(frame, "data", buf, 0, size, true);
+        return frame;
+    }
+
+    @Benchmark
+    public byte[] legacyGet() {
+        return deflate.get(deflatedFrame, "data");
+    }
+
+    @Benchmark
+    public long pooledGet() throws Exception {
+        deflate.get(deflatedFrame, "data", sink);
+        return sunk;
+    }
+
+    @Benchmark
+    public long pipeline() throws Exception {
+        coalescer.write(buf, 0, size);
+        deflate.get(capture.last, "data", sink);
+        return sunk;
+    }
+}
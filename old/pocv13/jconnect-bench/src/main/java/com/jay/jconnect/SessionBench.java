@@ -0,0 +1,160 @@
+package com.jay.jconnect;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * End to end through a "tcp" session: local socket -> TcpForwarder -> transport -> JServ TCP
+ * relay -> echo server and back, both sides in this JVM.
+ *
+ * path:
+ *   memory             MemoryTransport, the in-process stand-in for RTDB (no serialisation)
+ *   loopback           LoopbackTransport hub, frames as JSON over local TCP like a separate store
+ *   loopback+fastpath  same, with FastPathChannel moving frames onto a direct socket
+ *
+ *   roundTrip  64 bytes out and echoed back (sample time, so the JSON has percentiles)
+ *   bulk       1 MiB out and back on one connection (ops/s x 1 MiB = throughput)
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SessionBench {
+    static final int BULK_BYTES = 1 << 20;
+
+    @Param({"memory", "loopback", "loopback+fastpath"})
+    String path;
+
+    final List<Transport> transports = new ArrayList<>();
+    SessionHandle server;
+    Transport.Channel clientCh;
+    ServerSocket echo;
+    Socket socket;
+    InputStream in;
+    OutputStream out;
+    byte[] small = new byte[64];
+    byte[] bulk = new byte[BULK_BYTES];
+    byte[] readBuf = new byte[BULK_BYTES];
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Options opts = Options.parse(path.endsWith("fastpath") ? new String[]{"-fastpath"} : new String[0]);
+        Transport serverSide, clientSide;
+        if (path.equals("memory")) {
+            serverSide = clientSide = MemoryTransport.shared();
+        } else {
+            int hubPort = freePort();
+            Thread hub = new Thread(() -> {
+                try {
+                    LoopbackTransport.serve(hubPort);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "bench-hub");
+            hub.setDaemon(true);
+            hub.start();
+            serverSide = connect(hubPort);
+            clientSide = connect(hubPort);
+        }
+        transports.add(serverSide);
+        transports.add(clientSide);
+
+        echo = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().start(this::echoLoop);
+
+        String sessionId = "bench-" + Long.toString(System.nanoTime(), 36);
+        server = JServ.runTCPServer(serverSide, sessionId, opts);
+
+        // what JCli.runTCPClient sets up
+        clientCh = FastPathChannel.wrap(clientSide.channel("sessions/" + sessionId + "/tcp"), "client", opts);
+        TcpForwarder fwd = TcpForwarder.fromOptions(clientCh, opts);
+        fwd.codec.negotiate(clientCh);
+        clientCh.subscribe(Transport.OUTPUT, frame -> {
+            Map<String, Object> val = frame.data;
+            if (val != null && val.containsKey("sid")) fwd.onFrame(val);
+            frame.ack();
+        });
+        int local = freePort();
+        fwd.listen(local, echo.getLocalPort());
+
+        if (clientCh instanceof FastPathChannel fp) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (fp.link == null && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            if (fp.link == null) throw new IllegalStateException("Fast path did not come up");
+        }
+        socket = new Socket(InetAddress.getLoopbackAddress(), local);
+        socket.setTcpNoDelay(true);
+        in = socket.getInputStream();
+        out = socket.getOutputStream();
+        new Random(1).nextBytes(bulk);
+        roundTrip(); // stream open
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        socket.close();
+        echo.close();
+        server.close();
+        clientCh.close();
+        for (Transport t : transports) t.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int roundTrip() throws IOException {
+        out.write(small);
+        out.flush();
+        return in.readNBytes(readBuf, 0, small.length);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int bulk() throws Exception {
+        Thread writer = Thread.ofVirtual().start(() -> {
+            try {
+                out.write(bulk);
+                out.flush();
+            } catch (IOException ignored) {}
+        });
+        int n = in.readNBytes(readBuf, 0, BULK_BYTES);
+        writer.join();
+        if (n != BULK_BYTES) throw new EOFException("Tunnel closed after " + n + " bytes");
+        return n;
+    }
+
+    void echoLoop() {
+        try {
+            while (true) {
+                Socket s = echo.accept();
+                Thread.ofVirtual().start(() -> {
+                    try (s) {
+                        s.getInputStream().transferTo(s.getOutputStream());
+                    } catch (IOException ignored) {}
+                });
+            }
+        } catch (IOException ignored) {}
+    }
+
+    static Transport connect(int port) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return LoopbackTransport.connect("127.0.0.1", port);
+            } catch (IOException e) {
+                if (i >= 50) throw e;
+                Thread.sleep(100); // hub still binding
+            }
+        }
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.jay.jconnect;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Cluster mode ("java JServ node"): several JServ nodes share the sessions listed in a registry,
+ * each hosting its share in-process.
+ *
+ * Store layout, state nodes under cluster/<name>:
+ *   sessions : {<feature>_<sessionId>: {feature, sessionId}}   what should run
+ *   nodes    : {<nodeId>: {beat, serving}}                     heartbeats
+ *   claims   : {<sessionKey>: {node, epoch}}                   who runs what; node "" = released
+ *
+ * Every node heartbeats each beatMs. A node is live while its beat keeps changing within leaseMs,
+ * timed on the observer's own clock so hosts need not agree on the time. Sessions go to live
+ * nodes by consistent hashing (VNODES points per node), so a node joining or dying moves only
+ * its share.
+ *
+ * Claims are fenced. A node takes a session only by compareAndSetState from the claim it saw to
+ * {itself, epoch + 1}, and only when that claim is released, its own, or held by a node silent
+ * for leaseMs. A node that sees another claim on a session it runs stops it at once, and a node
+ * whose own heartbeat has not reached the store for leaseMs / 2 stops all of its sessions, before
+ * anyone may take them over. Handing a session to a new owner stops it first, then releases the
+ * claim. A session that ends on its own (shell exit) is taken out of the registry.
+ *
+ * Node ids include the PID by default, so a crashed node never comes back under its name. A live
+ * node removes an entry from nodes once it has been silent for PRUNE_LEASES leases, by
+ * compareAndSetState against the last value it saw: a node that beats again in between keeps it.
+ *
+ * On one machine: java JServ hub, then java JServ node -nodeId=a -transport=tcp://localhost:55900
+ * (and b, c, ...), then java JServ cluster add http 1 -transport=tcp://localhost:55900.
+ *
+ * Options: -cluster=default -nodeId=HOST-PID -beatMs=1000 -leaseMs=5000
+ */
+class ClusterNode {
+    static final int VNODES = 64;
+    static final int PRUNE_LEASES = 10;
+
+    static class Served {
+        final SessionHandle session;
+        final long epoch;
+
+        Served(SessionHandle session, long epoch) {
+            this.session = session;
+            this.epoch = epoch;
+        }
+    }
+
+    final Transport transport;
+    final Options opts;
+    final String nodeId;
+    final long beatNanos;
+    final long leaseNanos;
+    final Transport.Channel sessionsCh;
+    final Transport.Channel nodesCh;
+    final Transport.Channel claimsCh;
+    final ScheduledExecutorService loop = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cluster-node");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Loop thread only
+    Map<String, Object> registry = Map.of();
+    Map<String, Object> claims = Map.of();
+    final Map<String, long[]> beats = new HashMap<>(); // node -> {beat, nanoTime it last changed}
+    final Map<String, Object> lastSeen = new HashMap<>(); // node -> its value in nodes
+    final Set<String> pruning = new HashSet<>();
+    final Map<String, Served> served = new HashMap<>();
+    final Set<String> claiming = new HashSet<>();
+    final long startedAt = System.nanoTime();
+    long beat;
+    long lastBeatStored = startedAt;
+    boolean fenced; // our heartbeat is not getting through; serve nothing
+    boolean seenNodes; // claim nothing before we know who else is up
+
+    ClusterNode(Transport transport, Options opts, String cluster, String nodeId, long beatMs, long leaseMs) {
+        this.transport = transport;
+        this.opts = opts;
+        this.nodeId = nodeId;
+        this.beatNanos = TimeUnit.MILLISECONDS.toNanos(beatMs);
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMs);
+        this.sessionsCh = transport.channel("cluster/" + cluster + "/sessions");
+        this.nodesCh = transport.channel("cluster/" + cluster + "/nodes");
+        this.claimsCh = transport.channel("cluster/" + cluster + "/claims");
+    }
+
+    static ClusterNode fromOptions(Transport transport, Options opts) {
+        String host;
+        try {
+            host = java.net.InetAddress.getLocalHost().getHostName();
+        } catch (java.net.UnknownHostException e) {
+            host = "node";
+        }
+        String defaultId = (host + "-" + ProcessHandle.current().pid()).replaceAll("[.#$\\[\\]/]", "_");
+        return new ClusterNode(transport, opts, opts.get("cluster", "default"), opts.get("nodeId", defaultId),
+                opts.getLong("beatMs", 1000), opts.getLong("leaseMs", 5000));
+    }
+
+    static String key(String feature, String sessionId) {
+        return feature + "_" + sessionId;
+    }
+
+    // Runs until the process is stopped
+    void run() throws InterruptedException {
+        sessionsCh.watchState(st -> loop.execute(() -> {
+            registry = st;
+            reconcile();
+        }));
+        claimsCh.watchState(st -> loop.execute(() -> {
+            claims = st;
+            reconcile();
+        }));
+        nodesCh.watchState(st -> loop.execute(() -> onNodes(st)));
+        loop.scheduleAtFixedRate(() -> {
+            try {
+                heartbeat();
+                prune();
+                reconcile();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 0, beatNanos, TimeUnit.NANOSECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::leave));
+        System.out.println("Cluster node " + nodeId + " running.");
+        new CountDownLatch(1).await();
+    }
+
+    void heartbeat() {
+        long sent = System.nanoTime();
+        nodesCh.updateState(Map.of(nodeId, Map.of("beat", ++beat, "serving", served.size())))
+                .thenRun(() -> loop.execute(() -> lastBeatStored = Math.max(lastBeatStored, sent)));
+        boolean cut = sent - lastBeatStored > leaseNanos / 2;
+        if (cut && !fenced) {
+            System.err.println("[node " + nodeId + "] Heartbeat not stored for " + (sent - lastBeatStored) / 1_000_000
+                    + " ms; stopping " + served.size() + " sessions");
+            for (String key : new ArrayList<>(served.keySet())) stop(key);
+        } else if (!cut && fenced) {
+            System.err.println("[node " + nodeId + "] Heartbeat back");
+        }
+        fenced = cut;
+    }
+
+    void onNodes(Map<String, Object> st) {
+        long now = System.nanoTime();
+        seenNodes = true;
+        st.forEach((node, v) -> {
+            if (!(v instanceof Map<?, ?> m) || !(m.get("beat") instanceof Number b)) return;
+            long[] seen = beats.get(node);
+            if (seen == null || seen[0] != b.longValue()) beats.put(node, new long[]{b.longValue(), now});
+            lastSeen.put(node, v);
+        });
+        beats.keySet().retainAll(st.keySet());
+        lastSeen.keySet().retainAll(st.keySet());
+    }
+
+    // Drops nodes long dead; the CAS fails if one beats again meanwhile
+    void prune() {
+        if (fenced) return;
+        for (String node : new ArrayList<>(beats.keySet())) {
+            if (node.equals(nodeId) || pruning.contains(node) || silentFor(node) < PRUNE_LEASES * leaseNanos) continue;
+            pruning.add(node);
+            nodesCh.compareAndSetState(node, lastSeen.get(node), null).whenComplete((ok, e) -> loop.execute(() -> {
+                pruning.remove(node);
+                if (Boolean.TRUE.equals(ok)) System.out.println("[node " + nodeId + "] Removed silent node " + node);
+            }));
+        }
+    }
+
+    long silentFor(String node) {
+        long[] seen = beats.get(node);
+        return System.nanoTime() - Math.max(seen != null ? seen[1] : 0, startedAt);
+    }
+
+    boolean live(String node) {
+        return node.equals(nodeId) ? !fenced : silentFor(node) < leaseNanos;
+    }
+
+    void reconcile() {
+        TreeMap<Long, String> ring = new TreeMap<>();
+        Set<String> nodes = new TreeSet<>(beats.keySet());
+        nodes.add(nodeId);
+        for (String n : nodes) {
+            if (!live(n)) continue;
+            for (int i = 0; i < VNODES; i++) ring.put(hash(n + "#" + i), n);
+        }
+
+        // Ours no longer: taken over (fenced), unregistered, or moved to another node
+        for (String key : new ArrayList<>(served.keySet())) {
+            Served s = served.get(key);
+            Map<String, Object> claim = claim(key);
+            // an older claim is only our view lagging behind our own write
+            if (claim != null && (epoch(claim) > s.epoch || (epoch(claim) == s.epoch && !nodeId.equals(claim.get("node"))))) {
+                System.err.println("[node " + nodeId + "] " + key + " claimed by " + claim.get("node") + ", stopping");
+                stop(key);
+            } else if (!registry.containsKey(key) || !nodeId.equals(owner(ring, key))) {
+                stop(key);
+                release(key, s.epoch, registry.containsKey(key));
+            }
+        }
+        if (fenced || !seenNodes) return;
+
+        for (String key : registry.keySet()) {
+            if (served.containsKey(key) || claiming.contains(key) || !nodeId.equals(owner(ring, key))) continue;
+            Map<String, Object> claim = claim(key);
+            String holder = claim != null && claim.get("node") instanceof String h ? h : "";
+            // a live holder hands it over itself
+            if (!holder.isEmpty() && !holder.equals(nodeId) && silentFor(holder) < leaseNanos) continue;
+            long epoch = claim != null ? epoch(claim) + 1 : 1;
+            claiming.add(key);
+            claimsCh.compareAndSetState(key, claim, Map.of("node", nodeId, "epoch", epoch)).whenComplete((ok, e) ->
+                    loop.execute(() -> {
+                        claiming.remove(key);
+                        if (Boolean.TRUE.equals(ok)) start(key, epoch);
+                    }));
+        }
+    }
+
+    Map<String, Object> claim(String key) {
+        return claims.get(key) instanceof Map<?, ?> m ? (Map<String, Object>) m : null;
+    }
+
+    static long epoch(Map<String, Object> claim) {
+        return claim.get("epoch") instanceof Number n ? n.longValue() : 0;
+    }
+
+    static String owner(TreeMap<Long, String> ring, String key) {
+        if (ring.isEmpty()) return null;
+        Map.Entry<Long, String> e = ring.ceilingEntry(hash(key));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    static long hash(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) h = (h << 8) | (d[i] & 0xff);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void start(String key, long epoch) {
+        if (!(registry.get(key) instanceof Map<?, ?> entry)) {
+            release(key, epoch, false);
+            return;
+        }
+        String feature = String.valueOf(entry.get("feature"));
+        String sessionId = String.valueOf(entry.get("sessionId"));
+        SessionHandle session;
+        try {
+            session = JServ.runSession(transport, feature, sessionId, opts);
+        } catch (Exception e) {
+            System.err.println("[node " + nodeId + "] Could not start " + key + ": " + e.getMessage());
+            release(key, epoch, true);
+            return;
+        }
+        served.put(key, new Served(session, epoch));
+        System.out.println("[node " + nodeId + "] Serving " + key + " (epoch " + epoch + ")");
+        session.exit.thenRun(() -> loop.execute(() -> {
+            Served s = served.get(key);
+            if (s == null || s.session != session) return; // we stopped it
+            served.remove(key);
+            Map<String, Object> gone = new HashMap<>();
+            gone.put(key, null);
+            sessionsCh.updateState(gone);
+            release(key, epoch, false);
+        }));
+    }
+
+    void stop(String key) {
+        Served s = served.remove(key);
+        if (s != null) s.session.close();
+    }
+
+    // keep: leave a released claim (epoch carries on) rather than none
+    void release(String key, long epoch, boolean keep) {
+        claimsCh.compareAndSetState(key, Map.of("node", nodeId, "epoch", epoch),
+                keep ? Map.of("node", "", "epoch", epoch) : null);
+    }
+
+    // Shutdown: hand everything back at once instead of after leaseMs
+    void leave() {
+        try {
+            loop.submit(() -> {
+                List<CompletableFuture<Boolean>> released = new ArrayList<>();
+                for (Map.Entry<String, Served> e : new ArrayList<>(served.entrySet())) {
+                    stop(e.getKey());
+                    released.add(claimsCh.compareAndSetState(e.getKey(), Map.of("node", nodeId, "epoch", e.getValue().epoch),
+                            Map.of("node", "", "epoch", e.getValue().epoch)));
+                }
+                Map<String, Object> gone = new HashMap<>();
+                gone.put(nodeId, null);
+                released.add(nodesCh.updateState(gone).thenApply(v -> true));
+                return CompletableFuture.allOf(released.toArray(CompletableFuture<?>[]::new));
+            }).get(2, TimeUnit.SECONDS).get(2, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException ignored) {
+            // others take over after leaseMs
+        }
+    }
+
+    // ---- "java JServ cluster add|remove FEATURE SESSION_ID" and "cluster list" ----
+    static void admin(Transport transport, Options opts) throws Exception {
+        String cluster = opts.get("cluster", "default");
+        Transport.Channel sessions = transport.channel("cluster/" + cluster + "/sessions");
+        String cmd = opts.arg(1, "list");
+        if (cmd.equals("add") || cmd.equals("remove")) {
+            String feature = opts.arg(2, "http");
+            String sessionId = opts.arg(3, "");
+            if (!JServ.FeatureManager.FEATURES.contains(feature) || sessionId.isEmpty() || sessionId.matches(".*[.#$\\[\\]/].*")) {
+                System.err.println("Usage: java JServ cluster add|remove ssh|http|tcp SESSION_ID");
+                System.exit(1);
+            }
+            Map<String, Object> change = new HashMap<>();
+            change.put(key(feature, sessionId), cmd.equals("add") ? Map.of("feature", feature, "sessionId", sessionId) : null);
+            sessions.updateState(change).get(10, TimeUnit.SECONDS);
+            return;
+        }
+        Map<String, Object> reg = first(sessions);
+        Map<String, Object> nodes = first(transport.channel("cluster/" + cluster + "/nodes"));
+        Map<String, Object> claims = first(transport.channel("cluster/" + cluster + "/claims"));
+        System.out.println("Nodes:");
+        nodes.forEach((n, v) -> System.out.println("  " + n + " " + v));
+        System.out.println("Sessions:");
+        new TreeMap<>(reg).forEach((k, v) -> System.out.println("  " + k + " -> " + (claims.get(k) != null ? claims.get(k) : "unclaimed")));
+    }
+
+    static Map<String, Object> first(Transport.Channel ch) throws Exception {
+        CompletableFuture<Map<String, Object>> st = new CompletableFuture<>();
+        Transport.Subscription sub = ch.watchState(st::complete);
+        try {
+            return st.get(10, TimeUnit.SECONDS);
+        } finally {
+            sub.cancel();
+        }
+    }
+}
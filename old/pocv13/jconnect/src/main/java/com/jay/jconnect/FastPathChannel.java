@@ -0,0 +1,720 @@
+package com.jay.jconnect;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * Channel decorator that moves a session's frame streams onto a direct TCP socket when
+ * JServ and JCli can reach each other (same host, same LAN), and falls back to the wrapped
+ * channel (RTDB) when they cannot or the socket drops. State always stays on the wrapped channel.
+ *
+ * Handshake: the server side listens on -fastPathPort (0 = ephemeral) and advertises
+ * {candidates: "host:port,...", token} in the state field "fastPath". The client side dials
+ * the candidates in order and sends {hello: {token, epoch, from, recv}}; the server answers
+ * with its own hello. recv is, per stream, the receiver's position {e: peer epoch, n: next
+ * sequence it needs}; from is the sender's lowest sequence the peer may still be missing,
+ * where a receiver that has no position for our epoch yet starts.
+ *
+ * Every published frame is stamped with the sender's epoch and a per-stream sequence number
+ * (fpe, fps), whichever path it takes. Receivers deliver in sequence order and drop duplicates,
+ * so frames still in flight on RTDB and frames on the socket interleave correctly. Frames sent
+ * on the socket stay in a replay buffer until the peer acks them; if the socket drops they are
+ * republished on the wrapped channel and the client dials again later. Frames sent on the
+ * relay are kept too (the last RETAIN_FRAMES per stream): when a link comes up, everything
+ * kept from the peer's position on goes out again on the socket, so the peer need not wait
+ * for a slow relay, and what it already has is dropped as a duplicate.
+ *
+ * Wire format (one JSON object per line): {hello} | {s: stream, f: [frames]} | {a: {stream: seq}}
+ *
+ * Off unless both sides are started with -fastpath: the socket carries session traffic
+ * (keystrokes, HTTP bodies) unencrypted, where RTDB had TLS, so it is only for networks you
+ * trust. The server listens on the advertised addresses only, and a hello line longer than
+ * MAX_HELLO_CHARS ends the connection before the token is checked.
+ *
+ * Options: -fastpath -fastPathPort=0
+ *          -fastPathHost=HOST[:PORT][,...] (advertise these instead of the local addresses)
+ *          -fastPathBind=ADDR[,...] (listen here; default: the advertised addresses that are local)
+ */
+class FastPathChannel implements Transport.Channel {
+    static final long GAP_TIMEOUT_MS = 3000;
+    static final long REDIAL_MS = 5000;
+    static final int CONNECT_TIMEOUT_MS = 1000;
+    static final int HELLO_TIMEOUT_MS = 5000;
+    static final long ACK_DELAY_MS = 20;
+    static final int RETAIN_FRAMES = 1024;
+    static final int MAX_HELLO_CHARS = 16 * 1024;
+
+    final Transport.Channel relay;
+    final String role;  // "server" listens, "client" dials
+    final String epoch = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+    final Map<String, Inbound> inbound = new ConcurrentHashMap<>();
+
+    // guarded by sendLock: sequence numbers, path choice and the replay buffer change together
+    final Object sendLock = new Object();
+    final Map<String, Long> sendSeq = new HashMap<>();
+    final Map<String, TreeMap<Long, Map<String, Object>>> unacked = new HashMap<>();
+    final Map<String, TreeMap<Long, Map<String, Object>>> retained = new HashMap<>(); // sent on the relay
+    final Map<String, Long> floor = new HashMap<>(); // below it the peer has everything
+    volatile Link link;
+    volatile boolean closed;
+    // timers, state watches and the listening socket, released by close()
+    final List<Runnable> closers = new CopyOnWriteArrayList<>();
+
+    // server side
+    String token;
+    String candidates;
+    // client side
+    volatile boolean dialing;
+    String lastAdvert;
+    long lastDialAt;
+
+    final LongAdder framesDirect = new LongAdder();
+    final LongAdder framesRelayed = new LongAdder();
+    final LongAdder framesReplayed = new LongAdder();
+    final LongAdder framesResent = new LongAdder();
+    final LongAdder duplicates = new LongAdder();
+    final LongAdder lateStarts = new LongAdder();
+    final LongAdder resyncs = new LongAdder();
+    final LongAdder links = new LongAdder();
+    final LongAdder drops = new LongAdder();
+
+    FastPathChannel(Transport.Channel relay, String role) {
+        this.relay = relay;
+        this.role = role;
+    }
+
+    // A fast-path channel over the given one with -fastpath, the channel itself otherwise
+    static Transport.Channel wrap(Transport.Channel relay, String role, Options opts) throws IOException {
+        if (!opts.has("fastpath")) return relay;
+        FastPathChannel ch = new FastPathChannel(relay, role);
+        if (role.equals("server")) {
+            ch.listen(opts.getInt("fastPathPort", 0), opts.get("fastPathHost", ""), opts.get("fastPathBind", ""));
+        } else {
+            ch.watchAdvert();
+        }
+        ch.onClose(Workers.every(1000, ch::checkGaps));
+        ch.onClose(Workers.every(5000, () -> relay.updateState(Map.of(role + "FastPath", ch.stats()))));
+        return ch;
+    }
+
+    void onClose(ScheduledFuture<?> timer) {
+        closers.add(() -> timer.cancel(false));
+    }
+
+    void onClose(Transport.Subscription sub) {
+        closers.add(sub::cancel);
+    }
+
+    // ---- Transport.Channel ----
+    @Override public String prefix() { return relay.prefix(); }
+
+    @Override
+    public CompletableFuture<Void> publish(String stream, Map<String, Object> frame) {
+        return publishAll(stream, List.of(frame));
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames) {
+        synchronized (sendLock) {
+            long seq = sendSeq.getOrDefault(stream, 0L);
+            List<Map<String, Object>> stamped = new ArrayList<>(frames.size());
+            for (Map<String, Object> f : frames) {
+                Map<String, Object> s = new HashMap<>(f);
+                s.put("fpe", epoch);
+                s.put("fps", seq++);
+                stamped.add(s);
+            }
+            sendSeq.put(stream, seq);
+            Link l = link;
+            if (l != null) {
+                TreeMap<Long, Map<String, Object>> buf = unacked.computeIfAbsent(stream, k -> new TreeMap<>());
+                for (Map<String, Object> s : stamped) buf.put(((Number) s.get("fps")).longValue(), s);
+                framesDirect.add(stamped.size());
+                return l.send(Map.of("s", stream, "f", stamped));
+            }
+            framesRelayed.add(stamped.size());
+            retainLocked(stream, stamped);
+            return relay.publishAll(stream, stamped);
+        }
+    }
+
+    void retainLocked(String stream, Collection<Map<String, Object>> frames) {
+        TreeMap<Long, Map<String, Object>> buf = retained.computeIfAbsent(stream, k -> new TreeMap<>());
+        for (Map<String, Object> f : frames) buf.put(((Number) f.get("fps")).longValue(), f);
+        while (buf.size() > RETAIN_FRAMES) buf.pollFirstEntry();
+    }
+
+    @Override
+    public Transport.Subscription subscribe(String stream, Transport.FrameListener listener) {
+        Inbound in = inbound(stream);
+        in.listeners.add(listener);
+        Transport.Subscription sub = relay.subscribe(stream, in::accept);
+        return () -> {
+            in.listeners.remove(listener);
+            sub.cancel();
+        };
+    }
+
+    @Override
+    public CompletableFuture<Void> setState(Map<String, Object> state) {
+        return relay.setState(state);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateState(Map<String, Object> fields) {
+        return relay.updateState(fields);
+    }
+
+    @Override
+    public Transport.Subscription watchState(Consumer<Map<String, Object>> listener) {
+        return relay.watchState(listener);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> compareAndSetState(String field, Object expected, Object value) {
+        return relay.compareAndSetState(field, expected, value);
+    }
+
+    // Stops listening/dialing and drops the link; frames it had not delivered go out on the relay
+    @Override
+    public void close() {
+        closed = true;
+        closers.forEach(Runnable::run);
+        closers.clear();
+        Link l;
+        synchronized (sendLock) {
+            l = link;
+            link = null;
+            if (l != null) replayLocked();
+        }
+        if (l != null) l.close();
+    }
+
+    Inbound inbound(String stream) {
+        return inbound.computeIfAbsent(stream, Inbound::new);
+    }
+
+    // ---- server side: listen and advertise ----
+    void listen(int port, String hosts, String binds) throws IOException {
+        List<InetAddress> addrs = new ArrayList<>();
+        if (!binds.isBlank()) {
+            for (String b : binds.split(",")) addrs.add(InetAddress.getByName(b.trim()));
+        } else if (!hosts.isBlank()) {
+            for (String h : hosts.split(",")) {
+                InetAddress a = InetAddress.getByName(h.trim().split(":")[0]);
+                if (isLocal(a) && !addrs.contains(a)) addrs.add(a);
+            }
+            if (addrs.isEmpty()) addrs.add(InetAddress.getLoopbackAddress()); // only forwarded ports advertised
+        } else {
+            addrs.addAll(localAddresses());
+        }
+        // one socket per address, on the same port where it is free
+        Map<InetAddress, ServerSocket> sockets = new LinkedHashMap<>();
+        for (InetAddress a : addrs) {
+            ServerSocket ss = new ServerSocket();
+            try {
+                ss.bind(new InetSocketAddress(a, sockets.isEmpty() ? port : sockets.values().iterator().next().getLocalPort()));
+            } catch (BindException e) {
+                ss.bind(new InetSocketAddress(a, 0));
+            }
+            sockets.put(a, ss);
+            closers.add(() -> {
+                try {
+                    ss.close();
+                } catch (IOException ignored) {}
+            });
+        }
+        int firstPort = sockets.values().iterator().next().getLocalPort();
+        byte[] t = new byte[16];
+        new SecureRandom().nextBytes(t);
+        token = HexFormat.of().formatHex(t);
+        List<String> cands = new ArrayList<>();
+        if (!hosts.isBlank()) {
+            // HOST or HOST:PORT, the latter for a forwarded port in front of this one
+            for (String h : hosts.split(",")) {
+                h = h.trim();
+                if (h.contains(":")) {
+                    cands.add(h);
+                } else {
+                    ServerSocket ss = sockets.get(InetAddress.getByName(h));
+                    cands.add(h + ":" + (ss != null ? ss.getLocalPort() : firstPort));
+                }
+            }
+        } else {
+            sockets.forEach((a, ss) -> cands.add(a.getHostAddress() + ":" + ss.getLocalPort()));
+        }
+        candidates = String.join(",", cands);
+        Map<String, Object> advert = Map.of("candidates", candidates, "token", token);
+        relay.updateState(Map.of("fastPath", advert));
+        // the state node may be reset when either side (re)starts; put the advert back
+        onClose(relay.watchState(st -> {
+            if (!(st.get("fastPath") instanceof Map<?, ?> m) || !token.equals(m.get("token")))
+                relay.updateState(Map.of("fastPath", advert));
+        }));
+
+        for (ServerSocket ss : sockets.values()) {
+            Thread acceptor = new Thread(() -> {
+                while (true) {
+                    try {
+                        Socket s = ss.accept();
+                        Thread.ofVirtual().start(() -> accept(s));
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }, "fastpath-accept-" + ss.getLocalSocketAddress());
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+    }
+
+    static boolean isLocal(InetAddress a) throws SocketException {
+        return a.isLoopbackAddress() || a.isAnyLocalAddress() || NetworkInterface.getByInetAddress(a) != null;
+    }
+
+    void accept(Socket s) {
+        try {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(HELLO_TIMEOUT_MS);
+            Link l = new Link(s);
+            Map<String, Object> hello = l.readHello();
+            Object offered = hello.get("token");
+            if (!(offered instanceof String o) || !MessageDigest.isEqual(
+                    o.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+                s.close();
+                return;
+            }
+            establish(l, hello);
+        } catch (IOException e) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // Non-loopback IPv4 addresses of interfaces that are up, loopback last
+    static List<InetAddress> localAddresses() throws SocketException {
+        List<InetAddress> out = new ArrayList<>();
+        for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!ni.isUp() || ni.isLoopback()) continue;
+            for (InetAddress a : Collections.list(ni.getInetAddresses())) {
+                if (a instanceof Inet4Address) out.add(a);
+            }
+        }
+        out.add(InetAddress.getLoopbackAddress());
+        return out;
+    }
+
+    // ---- client side: dial what the server advertises ----
+    void watchAdvert() {
+        onClose(relay.watchState(st -> {
+            if (st.get("fastPath") instanceof Map<?, ?> m
+                    && m.get("token") instanceof String tok && m.get("candidates") instanceof String c) {
+                synchronized (this) {
+                    lastAdvert = tok + " " + c;
+                }
+                maybeDial();
+            }
+        }));
+        onClose(Workers.every(REDIAL_MS, this::maybeDial));
+    }
+
+    void maybeDial() {
+        String advert;
+        synchronized (this) {
+            if (closed || link != null || dialing || lastAdvert == null) return;
+            if (System.currentTimeMillis() - lastDialAt < REDIAL_MS) return;
+            dialing = true;
+            lastDialAt = System.currentTimeMillis();
+            advert = lastAdvert;
+        }
+        Thread.ofVirtual().start(() -> {
+            try {
+                String[] tc = advert.split(" ", 2);
+                dial(tc[0], tc[1]);
+            } finally {
+                dialing = false;
+            }
+        });
+    }
+
+    void dial(String tok, String cands) {
+        for (String c : cands.split(",")) {
+            int colon = c.lastIndexOf(':');
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(c.substring(0, colon), Integer.parseInt(c.substring(colon + 1))),
+                        CONNECT_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                s.setSoTimeout(HELLO_TIMEOUT_MS);
+                Link l = new Link(s);
+                Map<String, Object> mine = hello();
+                mine.put("token", tok);
+                l.writeHello(mine);
+                Map<String, Object> hello = l.readHello();
+                if (!Boolean.TRUE.equals(hello.get("ok"))) throw new IOException("Fast path refused");
+                s.setSoTimeout(0);
+                establish(l, hello);
+                return;
+            } catch (IOException | RuntimeException e) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // Our epoch, where each stream we send starts for a new receiver, and where we are as one
+    Map<String, Object> hello() {
+        Map<String, Object> from = new HashMap<>();
+        synchronized (sendLock) {
+            for (String stream : sendSeq.keySet()) from.put(stream, floor.getOrDefault(stream, 0L));
+        }
+        Map<String, Object> recv = new HashMap<>();
+        inbound.forEach((stream, in) -> {
+            Map<String, Object> pos = in.position();
+            if (pos != null) recv.put(stream, pos);
+        });
+        Map<String, Object> h = new HashMap<>();
+        h.put("epoch", epoch);
+        h.put("from", from);
+        h.put("recv", recv);
+        return h;
+    }
+
+    // ---- both sides ----
+    void establish(Link l, Map<String, Object> peerHello) throws IOException {
+        String peerEpoch = String.valueOf(peerHello.get("epoch"));
+        if (peerHello.get("from") instanceof Map<?, ?> from) {
+            from.forEach((stream, n) -> inbound((String) stream).expect(peerEpoch, ((Number) n).longValue()));
+        }
+        Map<?, ?> recv = peerHello.get("recv") instanceof Map<?, ?> r ? r : Map.of();
+        Map<String, Object> mine = role.equals("server") ? hello() : null;
+        Link old;
+        synchronized (sendLock) {
+            if (closed) throw new IOException("Channel closed");
+            if (mine != null) {
+                mine.put("ok", true);
+                l.writeHello(mine);
+                l.socket.setSoTimeout(0);
+            }
+            old = link;
+            link = l;
+            if (old != null) replayLocked();
+            resendLocked(l, recv);
+        }
+        if (old != null) old.close();
+        links.increment();
+        l.start();
+        relay.updateState(Map.of(role + "FastPath", stats()));
+    }
+
+    void dropLink(Link l) {
+        synchronized (sendLock) {
+            if (link != l) return;
+            link = null;
+            drops.increment();
+            replayLocked();
+        }
+        l.close();
+        relay.updateState(Map.of(role + "FastPath", stats()));
+    }
+
+    // Frames the peer has not acked go out again on the relay; the peer drops what it already has
+    void replayLocked() {
+        unacked.forEach((stream, buf) -> {
+            if (buf.isEmpty()) return;
+            framesReplayed.add(buf.size());
+            List<Map<String, Object>> frames = new ArrayList<>(buf.values());
+            relay.publishAll(stream, frames);
+            retainLocked(stream, frames);
+            buf.clear();
+        });
+    }
+
+    // A new link: what we kept from the peer's position on (ours from its view if it has none)
+    // goes out on the socket first, ahead of anything published after this
+    void resendLocked(Link l, Map<?, ?> recv) {
+        Set<String> streams = new HashSet<>(retained.keySet());
+        streams.addAll(unacked.keySet());
+        for (String stream : streams) {
+            long from = floor.getOrDefault(stream, 0L);
+            if (recv.get(stream) instanceof Map<?, ?> pos && epoch.equals(pos.get("e")) && pos.get("n") instanceof Number n) {
+                from = Math.max(from, n.longValue());
+                floor.put(stream, from);
+            }
+            TreeMap<Long, Map<String, Object>> buf = unacked.computeIfAbsent(stream, k -> new TreeMap<>());
+            TreeMap<Long, Map<String, Object>> kept = retained.remove(stream);
+            if (kept != null) buf.putAll(kept);
+            buf.headMap(from, false).clear();
+            if (buf.isEmpty()) continue;
+            framesResent.add(buf.size());
+            l.send(Map.of("s", stream, "f", new ArrayList<>(buf.values())));
+        }
+    }
+
+    // A gap that outlasts GAP_TIMEOUT_MS is never skipped: the relay is reliable and what the
+    // link lost is replayed on it, so the frame will come. Dropping the link makes that happen
+    // now, and the next hello has the sender resend from our position.
+    void checkGaps() {
+        boolean resync = false;
+        for (Inbound in : inbound.values()) resync |= in.checkGap();
+        Link l = link;
+        if (resync && l != null) {
+            resyncs.increment();
+            dropLink(l);
+        }
+    }
+
+    void onAck(Map<String, Object> acks) {
+        synchronized (sendLock) {
+            acks.forEach((stream, seq) -> {
+                long upTo = ((Number) seq).longValue();
+                floor.merge(stream, upTo + 1, Math::max);
+                TreeMap<Long, Map<String, Object>> buf = unacked.get(stream);
+                if (buf != null) buf.headMap(upTo, true).clear();
+                TreeMap<Long, Map<String, Object>> kept = retained.get(stream);
+                if (kept != null) kept.headMap(upTo, true).clear();
+            });
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        Link l = link;
+        s.put("link", l != null ? "direct " + l.socket.getRemoteSocketAddress() : "relay");
+        s.put("framesDirect", framesDirect.sum());
+        s.put("framesRelayed", framesRelayed.sum());
+        s.put("framesReplayed", framesReplayed.sum());
+        s.put("framesResent", framesResent.sum());
+        s.put("duplicates", duplicates.sum());
+        s.put("lateStarts", lateStarts.sum());
+        s.put("resyncs", resyncs.sum());
+        s.put("links", links.sum());
+        s.put("drops", drops.sum());
+        int buffered = 0, kept = 0;
+        synchronized (sendLock) {
+            for (TreeMap<Long, Map<String, Object>> b : unacked.values()) buffered += b.size();
+            for (TreeMap<Long, Map<String, Object>> b : retained.values()) kept += b.size();
+        }
+        s.put("replayBuffer", buffered);
+        s.put("retained", kept);
+        return s;
+    }
+
+    // ---- Inbound: in-order, duplicate-free delivery of one stream from both paths ----
+    class Inbound {
+        final String stream;
+        final List<Transport.FrameListener> listeners = new CopyOnWriteArrayList<>();
+        final TreeMap<Long, Transport.Frame> early = new TreeMap<>();
+        String peerEpoch;
+        long next;
+        long gapSince;
+        boolean started;    // delivered a frame of peerEpoch
+
+        Inbound(String stream) {
+            this.stream = stream;
+        }
+
+        synchronized void accept(Transport.Frame f) {
+            Map<String, Object> d = f.data;
+            if (d == null || !(d.get("fpe") instanceof String e) || !(d.get("fps") instanceof Number n)) {
+                deliver(f); // peer without fast path
+                return;
+            }
+            long seq = n.longValue();
+            if (!e.equals(peerEpoch)) {
+                // first frame from this peer incarnation, and no hello from it: this came on the
+                // relay, which delivers in order, so anything before it was consumed earlier
+                peerEpoch = e;
+                next = seq;
+                started = false;
+                early.clear();
+            }
+            if (seq < next || early.containsKey(seq)) {
+                duplicates.increment();
+                f.ack();
+                return;
+            }
+            early.put(seq, f);
+            drain();
+        }
+
+        // The peer's hello for an incarnation we have no position in: it has nothing of ours
+        // acknowledged below `from`, so that is where we start. Our own position, if we have one,
+        // went to it in our hello and it resends from there.
+        synchronized void expect(String epoch, long from) {
+            if (epoch.equals(peerEpoch)) return;
+            peerEpoch = epoch;
+            next = from;
+            started = false;
+            early.clear();
+        }
+
+        synchronized Map<String, Object> position() {
+            return peerEpoch == null ? null : Map.of("e", peerEpoch, "n", next);
+        }
+
+        void drain() {
+            Transport.Frame f;
+            while ((f = early.remove(next)) != null) {
+                next++;
+                started = true;
+                deliver(f);
+            }
+            gapSince = early.isEmpty() ? 0 : gapSince != 0 ? gapSince : System.nanoTime();
+        }
+
+        // True if the stream has been stuck on a missing frame for GAP_TIMEOUT_MS. Before the
+        // first delivery the missing frames are ones an earlier receiver (a restarted JCli)
+        // consumed from the relay, so the stream starts at the first frame we have instead.
+        synchronized boolean checkGap() {
+            long now = System.nanoTime();
+            if (early.isEmpty() || gapSince == 0 || now - gapSince < TimeUnit.MILLISECONDS.toNanos(GAP_TIMEOUT_MS))
+                return false;
+            if (!started) {
+                lateStarts.increment();
+                next = early.firstKey();
+                drain();
+                return false;
+            }
+            gapSince = now;
+            return true;
+        }
+
+        void deliver(Transport.Frame f) {
+            for (Transport.FrameListener l : listeners) {
+                try {
+                    l.onFrame(f);
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // ---- Link: one direct socket, writes on their own thread so publishers never block on it ----
+    class Link {
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+        final LinkedBlockingQueue<Object[]> outbox = new LinkedBlockingQueue<>(); // {json, future}
+        final Map<String, Long> pendingAcks = new ConcurrentHashMap<>();
+        final AtomicBoolean ackScheduled = new AtomicBoolean();
+        volatile boolean closed;
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        void writeHello(Map<String, Object> hello) throws IOException {
+            out.write(LoopbackTransport.gson.toJson(Map.of("hello", hello)));
+            out.write('\n');
+            out.flush();
+        }
+
+        // Bounded: the peer is not authenticated yet
+        Map<String, Object> readHello() throws IOException {
+            StringBuilder sb = new StringBuilder(256);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) throw new EOFException("Fast path closed during handshake");
+                if (sb.length() == MAX_HELLO_CHARS) throw new IOException("Fast path hello too long");
+                sb.append((char) c);
+            }
+            String line = sb.toString();
+            Map<String, Object> m = LoopbackTransport.gson.fromJson(line, LoopbackTransport.MAP_TYPE);
+            if (!(m.get("hello") instanceof Map<?, ?> h)) throw new IOException("Fast path: expected hello");
+            return (Map<String, Object>) MemoryTransport.normalize(h);
+        }
+
+        void start() {
+            Thread.ofVirtual().name("fastpath-read").start(this::readLoop);
+            Thread.ofVirtual().name("fastpath-write").start(this::writeLoop);
+        }
+
+        CompletableFuture<Void> send(Map<String, Object> msg) {
+            CompletableFuture<Void> f = new CompletableFuture<>();
+            outbox.offer(new Object[]{LoopbackTransport.gson.toJson(msg), f});
+            return f;
+        }
+
+        void writeLoop() {
+            List<Object[]> batch = new ArrayList<>();
+            try {
+                while (!closed) {
+                    batch.add(outbox.take());
+                    outbox.drainTo(batch);
+                    for (Object[] m : batch) {
+                        if (((String) m[0]).isEmpty()) continue;
+                        out.write((String) m[0]);
+                        out.write('\n');
+                    }
+                    out.flush();
+                    for (Object[] m : batch) ((CompletableFuture<Void>) m[1]).complete(null);
+                    batch.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                // frames still queued are in the replay buffer; dropLink republishes them
+                for (Object[] m : batch) ((CompletableFuture<Void>) m[1]).complete(null);
+                dropLink(this);
+            }
+        }
+
+        void readLoop() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    Map<String, Object> m = (Map<String, Object>) MemoryTransport.normalize(
+                            LoopbackTransport.gson.fromJson(line, LoopbackTransport.MAP_TYPE));
+                    if (m.get("a") instanceof Map<?, ?> acks) {
+                        onAck((Map<String, Object>) acks);
+                    } else if (m.get("s") instanceof String stream && m.get("f") instanceof List<?> frames) {
+                        Inbound ib = inbound(stream);
+                        for (Object o : frames) {
+                            Map<String, Object> data = (Map<String, Object>) o;
+                            long seq = ((Number) data.get("fps")).longValue();
+                            ib.accept(new Transport.Frame(null, data, () -> ackLater(stream, seq)));
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException ignored) {
+            }
+            dropLink(this);
+        }
+
+        // Acks are cumulative per stream and go out at most every ACK_DELAY_MS
+        void ackLater(String stream, long seq) {
+            pendingAcks.merge(stream, seq, Math::max);
+            if (ackScheduled.compareAndSet(false, true)) {
+                Workers.scheduler.schedule(() -> {
+                    ackScheduled.set(false);
+                    Map<String, Object> acks = new HashMap<>();
+                    for (String s : pendingAcks.keySet()) {
+                        Long upTo = pendingAcks.remove(s);
+                        if (upTo != null) acks.put(s, upTo);
+                    }
+                    if (!acks.isEmpty() && !closed) send(Map.of("a", acks));
+                }, ACK_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void close() {
+            closed = true;
+            outbox.offer(new Object[]{"", new CompletableFuture<Void>()}); // wake the writer
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
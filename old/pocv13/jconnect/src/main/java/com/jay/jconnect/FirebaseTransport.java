@@ -0,0 +1,245 @@
+package com.jay.jconnect;
+
+import com.google.api.core.ApiFuture;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.database.*;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+/*
+ * Firebase RTDB transport: frames are push() children of "<prefix>/<stream>".
+ *
+ * Acking a frame writes nothing. Each subscription keeps its consumer's cursor, the push key of
+ * the last frame acked with all before it, and every CURSOR_FLUSH_MS drops the frames up to it
+ * and stores the cursor at "<prefix>/cursors/<stream>", in one multi-path update. A new
+ * subscription reads the cursor first and starts after it. Cancelling a subscription flushes, so
+ * a consumer restarted cleanly neither replays nor misses frames; one that died may see up to
+ * CURSOR_FLUSH_MS of frames again.
+ */
+public class FirebaseTransport implements Transport {
+    static final String FIREBASE_URL = "https://jconnectbytes-default-rtdb.asia-southeast1.firebasedatabase.app";
+    static final long CURSOR_FLUSH_MS = 1000;
+
+    final FirebaseDatabase db;
+
+    FirebaseTransport(FirebaseDatabase db) {
+        this.db = db;
+    }
+
+    static FirebaseTransport initialize() throws IOException {
+        File configFile = Paths.get(System.getProperty("user.dir"), "firebase_config.json").toFile();
+        if (!configFile.exists()) {
+            throw new FileNotFoundException("Missing firebase_config.json");
+        }
+        if (FirebaseApp.getApps().isEmpty()) {
+            try (FileInputStream serviceAccount = new FileInputStream(configFile)) {
+                FirebaseOptions options = FirebaseOptions.builder()
+                        .setCredentials(GoogleCredentials.fromStream(serviceAccount))
+                        .setDatabaseUrl(FIREBASE_URL)
+                        .build();
+                FirebaseApp.initializeApp(options);
+            }
+        }
+        return new FirebaseTransport(FirebaseDatabase.getInstance());
+    }
+
+    @Override
+    public Channel channel(String prefix) {
+        return new FirebaseChannel(prefix);
+    }
+
+    @Override
+    public void close() {
+        db.goOffline();
+    }
+
+    static CompletableFuture<Void> toCompletable(ApiFuture<Void> f) {
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        f.addListener(() -> {
+            try {
+                f.get();
+                cf.complete(null);
+            } catch (ExecutionException e) {
+                cf.completeExceptionally(e.getCause());
+            } catch (Exception e) {
+                cf.completeExceptionally(e);
+            }
+        }, Runnable::run);
+        return cf;
+    }
+
+    // Consumption of one stream by one subscriber
+    static class StreamCursor {
+        final DatabaseReference root; // channel prefix
+        final String stream;
+        final LinkedHashMap<String, Boolean> delivered = new LinkedHashMap<>(); // guarded by this; key -> acked
+        String after;                 // persisted cursor read at subscribe
+        Query query;                  // listening, once the cursor is known
+        boolean cancelled;
+
+        StreamCursor(DatabaseReference root, String stream) {
+            this.root = root;
+            this.stream = stream;
+        }
+
+        synchronized boolean deliver(String key) {
+            if (cancelled || (after != null && key.compareTo(after) <= 0)) return false;
+            delivered.put(key, false);
+            return true;
+        }
+
+        synchronized void ack(String key) {
+            delivered.replace(key, true);
+        }
+
+        // Deletes the acked frames at the head and moves the cursor past them, in one write
+        CompletableFuture<Void> flush() {
+            Map<String, Object> update = new HashMap<>();
+            String last = null;
+            synchronized (this) {
+                Iterator<Map.Entry<String, Boolean>> it = delivered.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Boolean> e = it.next();
+                    if (!e.getValue()) break;
+                    update.put(stream + "/" + e.getKey(), null);
+                    last = e.getKey();
+                    it.remove();
+                }
+            }
+            if (last == null) return CompletableFuture.completedFuture(null);
+            update.put("cursors/" + stream, last);
+            return toCompletable(root.updateChildrenAsync(update));
+        }
+    }
+
+    class FirebaseChannel implements Channel {
+        final String prefix;
+        final DatabaseReference root;
+        final DatabaseReference state;
+
+        FirebaseChannel(String prefix) {
+            this.prefix = prefix;
+            this.root = db.getReference(prefix);
+            this.state = db.getReference(prefix + "/state");
+        }
+
+        DatabaseReference stream(String name) {
+            return db.getReference(prefix + "/" + name);
+        }
+
+        @Override public String prefix() { return prefix; }
+
+        @Override
+        public CompletableFuture<Void> publish(String stream, Map<String, Object> frame) {
+            return toCompletable(stream(stream).push().setValueAsync(frame));
+        }
+
+        @Override
+        public CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames) {
+            if (frames.size() == 1) return publish(stream, frames.get(0));
+            // One multi-path write; push keys are generated in order so consumers see the same order
+            DatabaseReference ref = stream(stream);
+            Map<String, Object> update = new LinkedHashMap<>();
+            for (Map<String, Object> f : frames) update.put(ref.push().getKey(), f);
+            return toCompletable(ref.updateChildrenAsync(update));
+        }
+
+        @Override
+        public Subscription subscribe(String stream, FrameListener listener) {
+            DatabaseReference ref = stream(stream);
+            StreamCursor cursor = new StreamCursor(root, stream);
+            ChildEventListener l = new ChildEventListener() {
+                @Override
+                public void onChildAdded(DataSnapshot snapshot, String prevChildKey) {
+                    String key = snapshot.getKey();
+                    if (!cursor.deliver(key)) return;
+                    Object v = snapshot.getValue();
+                    Map<String, Object> data = (v instanceof Map) ? (Map<String, Object>) v : null;
+                    listener.onFrame(new Frame(key, data, () -> cursor.ack(key)));
+                }
+                @Override public void onChildChanged(DataSnapshot s, String p) {}
+                @Override public void onChildRemoved(DataSnapshot s) {}
+                @Override public void onChildMoved(DataSnapshot s, String p) {}
+                @Override public void onCancelled(DatabaseError e) {}
+            };
+            root.child("cursors/" + stream).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot snapshot) {
+                    listen(snapshot.getValue() instanceof String s ? s : null);
+                }
+                @Override
+                public void onCancelled(DatabaseError e) {
+                    listen(null);
+                }
+                void listen(String after) {
+                    synchronized (cursor) {
+                        if (cursor.cancelled) return;
+                        cursor.after = after;
+                        cursor.query = after == null ? ref.orderByKey() : ref.orderByKey().startAt(after);
+                        cursor.query.addChildEventListener(l);
+                    }
+                }
+            });
+            ScheduledFuture<?> gc = Workers.every(CURSOR_FLUSH_MS, cursor::flush);
+            return () -> {
+                gc.cancel(false);
+                synchronized (cursor) {
+                    cursor.cancelled = true;
+                    if (cursor.query != null) cursor.query.removeEventListener(l);
+                }
+                cursor.flush();
+            };
+        }
+
+        @Override
+        public CompletableFuture<Void> setState(Map<String, Object> value) {
+            return toCompletable(state.setValueAsync(value));
+        }
+
+        @Override
+        public CompletableFuture<Void> updateState(Map<String, Object> fields) {
+            return toCompletable(state.updateChildrenAsync(fields));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> compareAndSetState(String field, Object expected, Object value) {
+            Object want = MemoryTransport.normalize(expected);
+            CompletableFuture<Boolean> done = new CompletableFuture<>();
+            state.child(field).runTransaction(new Transaction.Handler() {
+                @Override
+                public Transaction.Result doTransaction(MutableData current) {
+                    if (!Objects.equals(MemoryTransport.normalize(current.getValue()), want)) return Transaction.abort();
+                    current.setValue(value);
+                    return Transaction.success(current);
+                }
+                @Override
+                public void onComplete(DatabaseError error, boolean committed, DataSnapshot snapshot) {
+                    if (error != null) done.completeExceptionally(error.toException());
+                    else done.complete(committed);
+                }
+            });
+            return done;
+        }
+
+        @Override
+        public Subscription watchState(Consumer<Map<String, Object>> listener) {
+            ValueEventListener l = state.addValueEventListener(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot snapshot) {
+                    Object v = snapshot.getValue();
+                    listener.accept((v instanceof Map) ? (Map<String, Object>) v : new HashMap<>());
+                }
+                @Override public void onCancelled(DatabaseError e) {}
+            });
+            return () -> state.removeEventListener(l);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.jay.jconnect;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Scratch buffers for the frame hot path (FrameCodec put / get), and Base64 working on them.
+ *
+ * take() hands out a pooled array of at least the asked size, rounded up to a power of two
+ * (1 KB .. 4 MB); give() returns it. Each size class keeps up to POOLED arrays in an
+ * ArrayBlockingQueue, which takes and returns without allocating. Larger requests are
+ * plain allocations and are not kept.
+ *
+ * The encoder writes straight from a slice into a scratch array, so a frame's payload costs
+ * its one String (Latin-1, the store wants text) and nothing else; the decoder reads the
+ * String's chars into a scratch array without the intermediate byte[] of Base64.Decoder.
+ */
+final class FrameBuffers {
+    private FrameBuffers() {}
+
+    static final int MIN_SHIFT = 10;
+    static final int MAX_SHIFT = 22;
+    static final int POOLED = 16;
+
+    static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.ISO_8859_1);
+    static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) VALUES[ALPHABET[i]] = i;
+    }
+
+    @SuppressWarnings("unchecked")
+    static final ArrayBlockingQueue<byte[]>[] pools = new ArrayBlockingQueue[MAX_SHIFT - MIN_SHIFT + 1];
+
+    static {
+        for (int i = 0; i < pools.length; i++) pools[i] = new ArrayBlockingQueue<>(POOLED);
+    }
+
+    static final LongAdder taken = new LongAdder();
+    static final LongAdder allocated = new LongAdder();
+
+    static byte[] take(int min) {
+        taken.increment();
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, min) - 1));
+        if (shift > MAX_SHIFT) {
+            allocated.increment();
+            return new byte[min];
+        }
+        byte[] b = pools[shift - MIN_SHIFT].poll();
+        if (b != null) return b;
+        allocated.increment();
+        return new byte[1 << shift];
+    }
+
+    static void give(byte[] b) {
+        if (b == null || Integer.bitCount(b.length) != 1) return;
+        int shift = 31 - Integer.numberOfLeadingZeros(b.length);
+        if (shift >= MIN_SHIFT && shift <= MAX_SHIFT) pools[shift - MIN_SHIFT].offer(b);
+    }
+
+    static int base64Length(int n) {
+        return (n + 2) / 3 * 4;
+    }
+
+    // Padded standard Base64 of src[off, off+len) into dst from 0; returns the length written
+    static int encodeBase64(byte[] src, int off, int len, byte[] dst) {
+        int end = off + len, d = 0, i = off;
+        for (; i + 2 < end; i += 3) {
+            int v = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dst[d++] = ALPHABET[v >>> 18];
+            dst[d++] = ALPHABET[(v >>> 12) & 0x3f];
+            dst[d++] = ALPHABET[(v >>> 6) & 0x3f];
+            dst[d++] = ALPHABET[v & 0x3f];
+        }
+        if (i < end) {
+            int v = (src[i] & 0xff) << 16 | (i + 1 < end ? (src[i + 1] & 0xff) << 8 : 0);
+            dst[d++] = ALPHABET[v >>> 18];
+            dst[d++] = ALPHABET[(v >>> 12) & 0x3f];
+            dst[d++] = i + 1 < end ? ALPHABET[(v >>> 6) & 0x3f] : (byte) '=';
+            dst[d++] = '=';
+        }
+        return d;
+    }
+
+    static String toBase64(byte[] src, int off, int len) {
+        byte[] dst = take(base64Length(len));
+        try {
+            return new String(dst, 0, encodeBase64(src, off, len, dst), StandardCharsets.ISO_8859_1);
+        } finally {
+            give(dst);
+        }
+    }
+
+    // Upper bound of decodeBase64(s, ...)
+    static int decodedLength(String s) {
+        return s.length() / 4 * 3 + 3;
+    }
+
+    // Decodes Base64 text (padding optional) into dst from 0; returns the length written
+    static int decodeBase64(String s, byte[] dst) {
+        int n = s.length();
+        while (n > 0 && s.charAt(n - 1) == '=') n--;
+        int d = 0, acc = 0, bits = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            int v = c < 128 ? VALUES[c] : -1;
+            if (v < 0) throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(c));
+            acc = acc << 6 | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                dst[d++] = (byte) (acc >>> bits);
+            }
+        }
+        return d;
+    }
+
+    static Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("taken", taken.sum());
+        s.put("allocated", allocated.sum());
+        int pooled = 0;
+        for (ArrayBlockingQueue<byte[]> p : pools) pooled += p.size();
+        s.put("pooled", pooled);
+        return s;
+    }
+}
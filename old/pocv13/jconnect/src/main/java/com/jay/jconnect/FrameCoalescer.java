@@ -0,0 +1,161 @@
+package com.jay.jconnect;
+
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Batches byte writes (PTY output, stdin) into fewer, larger frames.
+ *
+ * Bytes are buffered until batchBytes is reached or the oldest buffered byte is
+ * delayMs old, then sent as frames of at most frameBytes, all in one publishAll
+ * (a single multi-path update on RTDB). A small write arriving on an idle stream
+ * (typed key, its echo) is sent at once so interactive use gets no added latency.
+ * Every publish is counted in backlog until the store accepts it (see WriteBacklog).
+ *
+ * Options: -coalesceMs=10 (0 disables batching) -coalesceBytes=65536
+ *          -frameBytes=16384 -echoBytes=64, and WriteBacklog's
+ */
+class FrameCoalescer {
+    static final int SIZE_BUCKETS = 18; // 1 B .. 128 KB, powers of two
+
+    final Transport.Channel ch;
+    final String stream;
+    final long delayMs;
+    final int batchBytes;
+    final int frameBytes;
+    final int echoBytes;
+    final FrameCodec codec;
+    final WriteBacklog backlog;
+
+    byte[] buf;
+    int len;
+    long lastWriteAt;
+    ScheduledFuture<?> timer;
+
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder writesIn = new LongAdder();
+    final LongAdder framesOut = new LongAdder();
+    final LongAdder storeWrites = new LongAdder();
+    final LongAdder flushImmediate = new LongAdder();
+    final LongAdder flushSize = new LongAdder();
+    final LongAdder flushDeadline = new LongAdder();
+    final AtomicLongArray batchSizes = new AtomicLongArray(SIZE_BUCKETS);
+
+    FrameCoalescer(Transport.Channel ch, String stream, FrameCodec codec,
+                   long delayMs, int batchBytes, int frameBytes, int echoBytes) {
+        this(ch, stream, codec, delayMs, batchBytes, frameBytes, echoBytes, new WriteBacklog(0, 0, 0, 0, false));
+    }
+
+    FrameCoalescer(Transport.Channel ch, String stream, FrameCodec codec,
+                   long delayMs, int batchBytes, int frameBytes, int echoBytes, WriteBacklog backlog) {
+        this.ch = ch;
+        this.backlog = backlog;
+        this.codec = codec;
+        this.stream = stream;
+        this.delayMs = delayMs;
+        this.batchBytes = Math.max(batchBytes, frameBytes);
+        this.frameBytes = frameBytes;
+        this.echoBytes = echoBytes;
+        this.buf = new byte[this.batchBytes];
+    }
+
+    static FrameCoalescer fromOptions(Transport.Channel ch, String stream, FrameCodec codec, Options opts) {
+        return new FrameCoalescer(ch, stream, codec,
+                opts.getLong("coalesceMs", 10),
+                opts.getInt("coalesceBytes", 64 * 1024),
+                opts.getInt("frameBytes", 16 * 1024),
+                opts.getInt("echoBytes", 64),
+                WriteBacklog.fromOptions(opts));
+    }
+
+    synchronized void write(byte[] b, int off, int n) {
+        if (n <= 0) return;
+        long now = System.nanoTime();
+        boolean idle = len == 0 && now - lastWriteAt >= TimeUnit.MILLISECONDS.toNanos(delayMs);
+        lastWriteAt = now;
+        writesIn.increment();
+        bytesIn.add(n);
+
+        if (delayMs <= 0 || (idle && n <= echoBytes)) {
+            append(b, off, n);
+            flushImmediate.increment();
+            flush();
+            return;
+        }
+        while (n > 0) {
+            int take = Math.min(n, batchBytes - len);
+            append(b, off, take);
+            off += take;
+            n -= take;
+            if (len >= batchBytes) {
+                flushSize.increment();
+                flush();
+            }
+        }
+        if (len > 0 && timer == null) {
+            timer = Workers.scheduler.schedule(this::onDeadline, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void append(byte[] b, int off, int n) {
+        System.arraycopy(b, off, buf, len, n);
+        len += n;
+    }
+
+    synchronized void onDeadline() {
+        timer = null;
+        if (len > 0) {
+            flushDeadline.increment();
+            flush();
+        }
+    }
+
+    synchronized void flush() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        if (len == 0) return;
+        List<Map<String, Object>> frames = new ArrayList<>((len + frameBytes - 1) / frameBytes);
+        long encoded = 0;
+        for (int off = 0; off < len; off += frameBytes) {
+            Map<String, Object> f = frame(buf, off, Math.min(frameBytes, len - off));
+            encoded += ((String) f.get("data")).length();
+            frames.add(f);
+        }
+        batchSizes.incrementAndGet(Math.min(SIZE_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(len - 1)));
+        framesOut.add(frames.size());
+        storeWrites.increment();
+        len = 0;
+        backlog.track(ch.publishAll(stream, frames), frames.size(), encoded);
+    }
+
+    Map<String, Object> frame(byte[] b, int off, int n) {
+        Map<String, Object> f = new HashMap<>(4);
+        codec.put(f, "data", b, off, n, true);
+        return f;
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        long writes = storeWrites.sum();
+        s.put("bytes", bytesIn.sum());
+        s.put("reads", writesIn.sum());
+        s.put("frames", framesOut.sum());
+        s.put("storeWrites", writes);
+        s.put("avgBatchBytes", writes == 0 ? 0 : bytesIn.sum() / writes);
+        s.put("flushImmediate", flushImmediate.sum());
+        s.put("flushSize", flushSize.sum());
+        s.put("flushDeadline", flushDeadline.sum());
+        Map<String, Object> hist = new LinkedHashMap<>();
+        for (int i = 0; i < SIZE_BUCKETS; i++) {
+            long c = batchSizes.get(i);
+            if (c > 0) hist.put("le" + (1 << i), c);
+        }
+        s.put("batchSizes", hist);
+        return s;
+    }
+}
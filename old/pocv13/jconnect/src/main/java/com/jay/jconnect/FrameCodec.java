@@ -0,0 +1,382 @@
+package com.jay.jconnect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Payload codec for tunnel frames (PTY data, HTTP bodies and chunks).
+ *
+ * Negotiation: each side lists what it can decode in the session state
+ * ("serverCodecs" / "clientCodecs", e.g. "deflate,identity"). A sender compresses
+ * only with an algorithm the peer listed, and tags the frame with "enc". Frames
+ * without "enc" are plain Base64, so peers that predate this keep working.
+ *
+ * Compression is skipped for small payloads, for already-compressed content
+ * (by Content-Type / Content-Encoding), for payloads that did not shrink, and for a
+ * while after a run of payloads that did not shrink.
+ *
+ * Payloads are encoded and decoded through pooled scratch buffers (FrameBuffers): a frame
+ * put costs its Base64 String, and get(frame, field, sink) hands the decoded bytes to the
+ * sink without allocating any.
+ *
+ * Options: -compress=deflate|none -compressMin=256 -compressLevel=1
+ */
+class FrameCodec {
+    interface Codec {
+        String name();
+        byte[] encode(byte[] b, int off, int len);
+        byte[] decode(byte[] b);
+
+        // Into dst from 0; the length written, -1 if it does not fit
+        default int encode(byte[] b, int off, int len, byte[] dst) {
+            byte[] enc = encode(b, off, len);
+            if (enc.length > dst.length) return -1;
+            System.arraycopy(enc, 0, dst, 0, enc.length);
+            return enc.length;
+        }
+
+        // Decoded b[off, off+len) to the sink, possibly in several pieces; returns the decoded length
+        default int decode(byte[] b, int off, int len, Sink sink) throws IOException {
+            byte[] out = decode(Arrays.copyOfRange(b, off, off + len));
+            sink.write(out, 0, out.length);
+            return out.length;
+        }
+    }
+
+    // Receives decoded payload; the array is only valid during the call
+    interface Sink {
+        void write(byte[] b, int off, int len) throws IOException;
+    }
+
+    // Algorithms by preference; register() adds more (e.g. a zstd binding). Each FrameCodec
+    // takes a copy, with its own deflate level
+    static final Map<String, Codec> CODECS = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    static void register(Codec c) {
+        CODECS.put(c.name(), c);
+    }
+
+    static {
+        register(new DeflateCodec(Deflater.BEST_SPEED));
+    }
+
+    static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-7z-compressed",
+            "application/x-bzip2", "application/x-xz", "application/zstd", "application/pdf",
+            "application/octet-stream", "application/wasm", "font/woff", "font/woff2"
+    );
+    static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    final String role;      // "server" or "client"
+    final String peerRole;
+    final Map<String, Codec> codecs;
+    final List<String> accepted = new ArrayList<>();
+    final int minBytes;
+    volatile Codec outbound;
+    final AtomicInteger misses = new AtomicInteger();   // consecutive payloads that did not shrink
+    final AtomicInteger backoff = new AtomicInteger();  // payloads left to send raw after a miss streak
+
+    final LongAdder rawOut = new LongAdder();
+    final LongAdder encodedOut = new LongAdder();
+    final LongAdder framesCompressed = new LongAdder();
+    final LongAdder framesRaw = new LongAdder();
+    final LongAdder rawIn = new LongAdder();
+    final LongAdder encodedIn = new LongAdder();
+    final LongAdder encodeCpuNanos = new LongAdder();
+    final LongAdder decodeCpuNanos = new LongAdder();
+
+    FrameCodec(String role, List<String> codecs, int minBytes) {
+        this(role, codecs, minBytes, Deflater.BEST_SPEED);
+    }
+
+    FrameCodec(String role, List<String> codecs, int minBytes, int level) {
+        this.role = role;
+        this.peerRole = role.equals("server") ? "client" : "server";
+        this.minBytes = minBytes;
+        synchronized (CODECS) {
+            this.codecs = new LinkedHashMap<>(CODECS);
+        }
+        if (level != Deflater.BEST_SPEED) this.codecs.put("deflate", new DeflateCodec(level));
+        for (String c : codecs) if (this.codecs.containsKey(c)) accepted.add(c);
+    }
+
+    static FrameCodec fromOptions(String role, Options opts) {
+        String compress = opts.get("compress", "deflate");
+        List<String> codecs = compress.equals("none") ? List.of() : Arrays.asList(compress.split(","));
+        return new FrameCodec(role, codecs, opts.getInt("compressMin", 256),
+                opts.getInt("compressLevel", Deflater.BEST_SPEED));
+    }
+
+    // Advertises our decoders and follows the peer's list; call once per session channel
+    Transport.Subscription negotiate(Transport.Channel ch) {
+        String mine = String.join(",", accepted) + (accepted.isEmpty() ? "identity" : ",identity");
+        ch.updateState(Map.of(role + "Codecs", mine));
+        return ch.watchState(st -> {
+            // the other side may have reset the state node when it (re)started
+            if (!mine.equals(st.get(role + "Codecs"))) ch.updateState(Map.of(role + "Codecs", mine));
+            Object peer = st.get(peerRole + "Codecs");
+            Codec pick = null;
+            if (peer instanceof String p) {
+                List<String> peerList = Arrays.asList(p.split(","));
+                for (String c : accepted) {
+                    if (peerList.contains(c)) {
+                        pick = codecs.get(c);
+                        break;
+                    }
+                }
+            }
+            outbound = pick;
+        });
+    }
+
+    static boolean compressible(String contentType, String contentEncoding) {
+        if (contentEncoding != null && !contentEncoding.isBlank() && !contentEncoding.equalsIgnoreCase("identity"))
+            return false;
+        if (contentType == null) return true;
+        String t = contentType.toLowerCase().split(";")[0].trim();
+        return !(t.startsWith("image/") || t.startsWith("video/") || t.startsWith("audio/") || COMPRESSED_TYPES.contains(t))
+                || t.equals("image/svg+xml");
+    }
+
+    // Puts b[off, off+len) into frame[field] as Base64, compressed when worthwhile
+    void put(Map<String, Object> frame, String field, byte[] b, int off, int len, boolean compressible) {
+        Codec c = outbound;
+        rawOut.add(len);
+        if (c != null && compressible && len >= minBytes && backoff.get() <= 0) {
+            // only worth sending if it shrinks by 1/16, so a buffer that size is enough
+            byte[] enc = FrameBuffers.take(len - len / 16);
+            try {
+                long t0 = cpuNow();
+                int n = c.encode(b, off, len, enc);
+                encodeCpuNanos.add(cpuNow() - t0);
+                if (n >= 0 && n < len - len / 16) {
+                    misses.set(0);
+                    framesCompressed.increment();
+                    encodedOut.add(n);
+                    frame.put(field, FrameBuffers.toBase64(enc, 0, n));
+                    frame.put("enc", c.name());
+                    return;
+                }
+            } finally {
+                FrameBuffers.give(enc);
+            }
+            if (misses.incrementAndGet() >= 8) {
+                misses.set(0);
+                backoff.set(64);
+            }
+        } else if (backoff.get() > 0) {
+            backoff.decrementAndGet();
+        }
+        framesRaw.increment();
+        encodedOut.add(len);
+        frame.put(field, FrameBuffers.toBase64(b, off, len));
+    }
+
+    void put(Map<String, Object> frame, String field, byte[] b, boolean compressible) {
+        put(frame, field, b, 0, b.length, compressible);
+    }
+
+    // Decoded payload of frame[field]; null if the field is absent
+    byte[] get(Map<String, Object> frame, String field) {
+        Object v = frame.get(field);
+        if (v == null) return null;
+        byte[] raw = Base64.getDecoder().decode((String) v);
+        Object enc = frame.get("enc");
+        if (enc == null || "identity".equals(enc)) {
+            rawIn.add(raw.length);
+            encodedIn.add(raw.length);
+            return raw;
+        }
+        Codec c = codecs.get(enc);
+        if (c == null) throw new IllegalStateException("Unsupported frame encoding: " + enc);
+        long t0 = cpuNow();
+        byte[] out = c.decode(raw);
+        decodeCpuNanos.add(cpuNow() - t0);
+        encodedIn.add(raw.length);
+        rawIn.add(out.length);
+        return out;
+    }
+
+    // Decoded payload of frame[field] to the sink, through pooled buffers; false if the field is absent
+    boolean get(Map<String, Object> frame, String field, Sink sink) throws IOException {
+        Object v = frame.get(field);
+        if (v == null) return false;
+        String text = (String) v;
+        byte[] raw = FrameBuffers.take(FrameBuffers.decodedLength(text));
+        try {
+            int n = FrameBuffers.decodeBase64(text, raw);
+            Object enc = frame.get("enc");
+            encodedIn.add(n);
+            if (enc == null || "identity".equals(enc)) {
+                rawIn.add(n);
+                sink.write(raw, 0, n);
+                return true;
+            }
+            Codec c = codecs.get(enc);
+            if (c == null) throw new IllegalStateException("Unsupported frame encoding: " + enc);
+            TimedSink timed = new TimedSink(sink);
+            long t0 = cpuNow();
+            rawIn.add(c.decode(raw, 0, n, timed));
+            decodeCpuNanos.add(cpuNow() - t0 - timed.nanos);
+            return true;
+        } finally {
+            FrameBuffers.give(raw);
+        }
+    }
+
+    // Counts the time spent in the sink (a blocking terminal or socket write), which is not decoding
+    static final class TimedSink implements Sink {
+        final Sink inner;
+        long nanos;
+
+        TimedSink(Sink inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long t0 = cpuNow();
+            inner.write(b, off, len);
+            nanos += cpuNow() - t0;
+        }
+    }
+
+    // Thread CPU time where the JVM measures it (not for virtual threads), wall time otherwise
+    static long cpuNow() {
+        return threads.isCurrentThreadCpuTimeSupported() && !Thread.currentThread().isVirtual()
+                ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        Codec c = outbound;
+        long raw = rawOut.sum(), enc = encodedOut.sum();
+        s.put("codec", c != null ? c.name() : "identity");
+        s.put("rawBytesOut", raw);
+        s.put("encodedBytesOut", enc);
+        s.put("ratioOut", raw == 0 ? 1.0 : Math.round(1000.0 * enc / raw) / 1000.0);
+        s.put("framesCompressed", framesCompressed.sum());
+        s.put("framesRaw", framesRaw.sum());
+        s.put("rawBytesIn", rawIn.sum());
+        s.put("encodedBytesIn", encodedIn.sum());
+        s.put("encodeCpuMs", encodeCpuNanos.sum() / 1_000_000);
+        s.put("decodeCpuMs", decodeCpuNanos.sum() / 1_000_000);
+        return s;
+    }
+
+    // ---- deflate (java.util.zip), native streams pooled ----
+    static class DeflateCodec implements Codec {
+        static final int POOLED = 64;
+        final int level;
+        final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOLED);
+        final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOLED);
+
+        DeflateCodec(int level) {
+            this.level = level;
+        }
+
+        @Override public String name() { return "deflate"; }
+
+        @Override
+        public byte[] encode(byte[] b, int off, int len) {
+            Deflater d = deflaters.poll();
+            if (d == null) d = new Deflater(level);
+            try {
+                d.setInput(b, off, len);
+                d.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, len / 2));
+                byte[] buf = new byte[Math.min(64 * 1024, Math.max(512, len))];
+                while (!d.finished()) {
+                    int n = d.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                release(d);
+            }
+        }
+
+        @Override
+        public int encode(byte[] b, int off, int len, byte[] dst) {
+            Deflater d = deflaters.poll();
+            if (d == null) d = new Deflater(level);
+            try {
+                d.setInput(b, off, len);
+                d.finish();
+                int n = 0;
+                while (!d.finished()) {
+                    if (n == dst.length) return -1;
+                    n += d.deflate(dst, n, dst.length - n);
+                }
+                return n;
+            } finally {
+                release(d);
+            }
+        }
+
+        @Override
+        public int decode(byte[] b, int off, int len, Sink sink) throws IOException {
+            Inflater inf = inflaters.poll();
+            if (inf == null) inf = new Inflater();
+            byte[] buf = FrameBuffers.take(Math.min(64 * 1024, Math.max(512, len * 4)));
+            try {
+                inf.setInput(b, off, len);
+                int total = 0;
+                while (!inf.finished()) {
+                    int n = inf.inflate(buf);
+                    if (n == 0 && (inf.needsInput() || inf.needsDictionary()))
+                        throw new IllegalStateException("Truncated deflate frame");
+                    sink.write(buf, 0, n);
+                    total += n;
+                }
+                return total;
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt deflate frame", e);
+            } finally {
+                FrameBuffers.give(buf);
+                release(inf);
+            }
+        }
+
+        void release(Deflater d) {
+            d.reset();
+            if (!deflaters.offer(d)) d.end();
+        }
+
+        void release(Inflater inf) {
+            inf.reset();
+            if (!inflaters.offer(inf)) inf.end();
+        }
+
+        @Override
+        public byte[] decode(byte[] b) {
+            Inflater inf = inflaters.poll();
+            if (inf == null) inf = new Inflater();
+            try {
+                inf.setInput(b);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(b.length * 3);
+                byte[] buf = new byte[Math.min(64 * 1024, Math.max(512, b.length * 4))];
+                while (!inf.finished()) {
+                    int n = inf.inflate(buf);
+                    if (n == 0 && (inf.needsInput() || inf.needsDictionary()))
+                        throw new IllegalStateException("Truncated deflate frame");
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt deflate frame", e);
+            } finally {
+                release(inf);
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.jay.jconnect;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Front of the JCli HTTP proxy, on HTTP_PORT: reads the head of the first request on each
+ * browser connection and
+ *  - for an Upgrade request (WebSocket, h2c, ...) rewrites the target and Host, then hands the
+ *    socket to a TcpForwarder: from there on the connection is a raw stream to localhost:<port>
+ *    on the server host, in both directions, with the tcp feature's credit flow control and
+ *    eof / close propagation. The 101 and everything after it pass through untouched, so any
+ *    framing the two ends agree on works and each message costs one data frame, no exchange.
+ *  - for anything else splices the connection to the proxy's HttpServer on a loopback port.
+ *
+ * Browsers open a new connection for every upgrade, so deciding on the first request is enough.
+ *
+ * Options: -noupgrade (HttpServer directly on HTTP_PORT, no upgrades)
+ */
+class HttpFront {
+    static final int MAX_HEAD = 64 * 1024;
+    static final byte[] HEAD_END = {'\r', '\n', '\r', '\n'};
+
+    final ServerSocket server;
+    final InetSocketAddress backend;
+    final Integer fixedTargetPort;
+    final TcpForwarder upgrades;
+
+    final LongAdder spliced = new LongAdder();
+    final LongAdder upgraded = new LongAdder();
+    final LongAdder refused = new LongAdder();
+
+    HttpFront(ServerSocket server, InetSocketAddress backend, Integer fixedTargetPort, TcpForwarder upgrades) {
+        this.server = server;
+        this.backend = backend;
+        this.fixedTargetPort = fixedTargetPort;
+        this.upgrades = upgrades;
+    }
+
+    void start() {
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket s = server.accept();
+                    s.setTcpNoDelay(true);
+                    Thread.ofVirtual().name("http-front").start(() -> serve(s));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "http-front-" + server.getLocalPort());
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void serve(Socket s) {
+        try {
+            byte[] buf = new byte[8192];
+            int len = 0, end = -1;
+            InputStream in = s.getInputStream();
+            while (end < 0) {
+                if (len == buf.length) {
+                    if (len >= MAX_HEAD) {
+                        reply(s, 431, "Request head too large");
+                        return;
+                    }
+                    buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MAX_HEAD));
+                }
+                int n = in.read(buf, len, buf.length - len);
+                if (n < 0) {
+                    s.close();
+                    return;
+                }
+                end = indexOf(buf, Math.max(0, len - 3), len + n, HEAD_END);
+                len += n;
+            }
+            String head = new String(buf, 0, end, StandardCharsets.ISO_8859_1);
+            if (!isUpgrade(head)) {
+                spliced.increment();
+                splice(s, buf, len);
+                return;
+            }
+            upgrade(s, head, Arrays.copyOfRange(buf, end + HEAD_END.length, len));
+        } catch (IOException e) {
+            close(s);
+        }
+    }
+
+    static boolean isUpgrade(String head) {
+        boolean upgrade = false, connection = false;
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            String name = line.substring(0, colon).trim();
+            if (name.equalsIgnoreCase("upgrade")) upgrade = true;
+            else if (name.equalsIgnoreCase("connection"))
+                connection = line.substring(colon + 1).toLowerCase(Locale.ROOT).contains("upgrade");
+        }
+        return upgrade && connection;
+    }
+
+    // Request line target "/<port>/rest" -> "/rest" (unless the port is fixed), Host -> the upstream
+    void upgrade(Socket s, String head, byte[] rest) throws IOException {
+        String[] lines = head.split("\r\n", -1);
+        String[] reqLine = lines[0].split(" ");
+        if (reqLine.length != 3) {
+            reply(s, 400, "Bad request line");
+            return;
+        }
+        int port;
+        String target = reqLine[1];
+        if (fixedTargetPort != null) {
+            port = fixedTargetPort;
+        } else {
+            int end = 1;
+            while (end < target.length() && target.charAt(end) != '/' && target.charAt(end) != '?') end++;
+            try {
+                port = Integer.parseInt(target.substring(1, end));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                reply(s, 400, "Target port missing in path");
+                return;
+            }
+            String tail = target.substring(end);
+            target = tail.startsWith("/") ? tail : "/" + tail;
+        }
+        StringBuilder sb = new StringBuilder(head.length() + 32);
+        sb.append(reqLine[0]).append(' ').append(target).append(' ').append(reqLine[2]).append("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            String name = lines[i].contains(":") ? lines[i].substring(0, lines[i].indexOf(':')).trim() : "";
+            if (name.equalsIgnoreCase("host")) sb.append("Host: localhost:").append(port);
+            else sb.append(lines[i]);
+            sb.append("\r\n");
+        }
+        sb.append("\r\n");
+        byte[] h = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] first = Arrays.copyOf(h, h.length + rest.length);
+        System.arraycopy(rest, 0, first, h.length, rest.length);
+        upgraded.increment();
+        upgrades.adopt(s, port, first);
+    }
+
+    // Both directions copied as is; each side's EOF is passed on as a half close
+    void splice(Socket s, byte[] read, int len) throws IOException {
+        Socket b = new Socket();
+        try {
+            b.connect(backend);
+            b.setTcpNoDelay(true);
+        } catch (IOException e) {
+            close(b);
+            reply(s, 502, "Proxy not running");
+            return;
+        }
+        b.getOutputStream().write(read, 0, len);
+        Thread up = Thread.ofVirtual().name("http-front-up").start(() -> copy(s, b));
+        copy(b, s);
+        try {
+            up.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close(s);
+        close(b);
+    }
+
+    static void copy(Socket from, Socket to) {
+        try {
+            from.getInputStream().transferTo(to.getOutputStream());
+            to.shutdownOutput();
+        } catch (IOException e) {
+            close(from);
+            close(to);
+        }
+    }
+
+    void reply(Socket s, int status, String msg) throws IOException {
+        refused.increment();
+        byte[] body = (msg + "\n").getBytes(StandardCharsets.UTF_8);
+        String h = "HTTP/1.1 " + status + " " + msg + "\r\nContent-Type: text/plain\r\nContent-Length: "
+                + body.length + "\r\nConnection: close\r\n\r\n";
+        OutputStream out = s.getOutputStream();
+        out.write(h.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+        s.close();
+    }
+
+    static void close(Socket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    static int indexOf(byte[] b, int from, int to, byte[] pat) {
+        outer:
+        for (int i = from; i <= to - pat.length; i++) {
+            for (int j = 0; j < pat.length; j++) if (b[i + j] != pat[j]) continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("spliced", spliced.sum());
+        s.put("upgraded", upgraded.sum());
+        s.put("refused", refused.sum());
+        s.put("streams", upgrades.stats());
+        return s;
+    }
+}
@@ -1,10 +1,7 @@
 package com.jay.jconnect;
 
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.FirebaseOptions;
-import com.google.firebase.database.*;
-
 import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.Headers;
 import java.lang.reflect.Array;
 
@@ -12,114 +9,112 @@ import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.net.*;
 import java.util.Base64;
 
 public class JCli {
-    static final String FIREBASE_URL = "https://jconnectbytes-default-rtdb.asia-southeast1.firebasedatabase.app";
     static final int HTTP_PORT = 55080;
-
-    static class SessionRefs {
-        DatabaseReference input;
-        DatabaseReference output;
-        DatabaseReference state;
-
-        SessionRefs(DatabaseReference input, DatabaseReference output, DatabaseReference state) {
-            this.input = input;
-            this.output = output;
-            this.state = state;
-        }
-    }
-
-    static SessionRefs refs(DatabaseReference db, String prefix) {
-        return new SessionRefs(
-            db.child(prefix + "/input"),
-            db.child(prefix + "/output"),
-            db.child(prefix + "/state")
-        );
-    }
+    static final long REQUEST_TIMEOUT_MS = 30000; // default for -requestTimeout
+    static final String LATENCY_PATH = "/.jconnect/latency";
 
     public static void main(String[] args) throws Exception {
-        if (args.length < 1 || (!args[0].equals("ssh") && !args[0].equals("http"))) {
+        if (args.length < 1 || (!args[0].equals("ssh") && !args[0].equals("http") && !args[0].equals("tcp"))) {
             System.err.println(
-                "Usage: java JCli ssh|http [SESSION_ID] [options]\n" +
-                "For HTTP client, you can use -port=PORT to fix the target port."
+                "Usage: java JCli ssh|http|tcp [SESSION_ID] [options]\n" +
+                "For HTTP client, you can use -port=PORT to fix the target port.\n" +
+                "For TCP client, -L=LOCAL:REMOTE[,LOCAL:REMOTE...] forwards local ports to ports on the server host\n" +
+                "  (flow control: -tcpWindow=262144 -tcpFrameBytes=65536).\n" +
+                "Use -transport=firebase|memory|tcp://HOST:PORT to pick the transport (default firebase).\n" +
+                "SSH input batching: -coalesceMs=10 -coalesceBytes=65536 -frameBytes=16384 -echoBytes=64\n" +
+                "SSH local echo: raw terminal, typed keys shown underlined until the server echoes them;\n" +
+                "  -nopredict -predictTimeoutMs=1000\n" +
+                "SSH screen mode: -screen (server sends frame-rate-capped screen diffs instead of raw output)\n" +
+                "SSH write backlog: stdin pauses past -backlogBytes=4194304 / -backlogFrames=1024 unacknowledged\n" +
+                "  by the store, resumes under -backlogLowBytes=1048576 / -backlogLowFrames=256; -nobacklog\n" +
+                "Frame compression: -compress=deflate|none -compressMin=256 -compressLevel=1\n" +
+                "HTTP body segments: -segmentBytes=65536 -segmentWindow=8 -segmentThreshold=262144\n" +
+                "HTTP proxy: -maxInFlight=256 (more get a 503) -requestTimeout=30000\n" +
+                "  -routeTimeouts=PORT[/PATH]:MS,... (longest matching route wins, e.g. 8080/api/export:300000)\n" +
+                "  Upgrade requests (WebSocket) become raw streams to the target port; -noupgrade turns that off\n" +
+                "HTTP response cache: -nocache -cacheBytes=67108864 -cacheMaxEntry=8388608 -cacheDir=PATH -cacheDiskBytes=536870912\n" +
+                "-fastpath: direct socket to the server when reachable (unencrypted, trusted networks only), RTDB otherwise\n" +
+                "Latency: -pingMs=5000 (RTT probe, 0 = off) -trace (HTTP: server hop times per request);\n" +
+                "  percentiles at http://localhost:" + HTTP_PORT + LATENCY_PATH + " (http) and on exit"
             );
             System.exit(1);
         }
 
+        Options opts = Options.parse(args);
         String feature = args[0];
-        String SESSION_ID = (args.length > 1) ? args[1] : "demo-session";
+        String SESSION_ID = opts.arg(1, "demo-session");
         Integer fixedTargetPort = null;
 
-        if (feature.equals("http")) {
-            for (String arg : args) {
-                if (arg.startsWith("-port=")) {
-                    try {
-                        fixedTargetPort = Integer.parseInt(arg.split("=")[1]);
-                    } catch (NumberFormatException ex) {
-                        System.err.println("Invalid port given: " + arg);
-                        System.exit(1);
-                    }
-                }
+        if (feature.equals("http") && opts.has("port")) {
+            try {
+                fixedTargetPort = Integer.parseInt(opts.get("port", ""));
+            } catch (NumberFormatException ex) {
+                System.err.println("Invalid port given: -port=" + opts.get("port", ""));
+                System.exit(1);
             }
         }
 
-        File configFile = Paths.get(System.getProperty("user.dir"), "firebase_config.json").toFile();
-        if (!configFile.exists()) {
-            System.err.println("Missing firebase_config.json");
+        Transport transport = null;
+        try {
+            transport = Transport.open(opts.get("transport", "firebase"));
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
             System.exit(1);
         }
 
-        FileInputStream serviceAccount = new FileInputStream(configFile);
-
-        FirebaseOptions options = FirebaseOptions.builder()
-            .setCredentials(com.google.auth.oauth2.GoogleCredentials.fromStream(serviceAccount))
-            .setDatabaseUrl(FIREBASE_URL)
-            .build();
-        FirebaseApp.initializeApp(options);
-
-        DatabaseReference db = FirebaseDatabase.getInstance().getReference();
-
         if (feature.equals("ssh")) {
-            runSSHClient(db, SESSION_ID);
+            runSSHClient(transport, SESSION_ID, opts);
         } else if (feature.equals("http")) {
-            runHTTPClient(db, SESSION_ID, fixedTargetPort);
+            runHTTPClient(transport, SESSION_ID, fixedTargetPort, opts);
+        } else if (feature.equals("tcp")) {
+            runTCPClient(transport, SESSION_ID, opts);
         }
     }
 
     // ------------------- SSH FEATURE (CLIENT) ------------------- //
-    static void runSSHClient(DatabaseReference db, String SESSION_ID) throws Exception {
-        SessionRefs refs = refs(db, "sessions/" + SESSION_ID + "/ssh");
-        refs.state.setValueAsync(Collections.singletonMap("status", "client-connected"));
+    static void runSSHClient(Transport transport, String SESSION_ID, Options opts) throws Exception {
+        Transport.Channel ch = FastPathChannel.wrap(transport.channel("sessions/" + SESSION_ID + "/ssh"), "client", opts);
+        ch.updateState(Collections.singletonMap("status", "client-connected"));
+        FrameCodec codec = FrameCodec.fromOptions("client", opts);
+        codec.negotiate(ch);
+        LatencyProbe probe = startProbe(ch, opts);
 
         final ByteArrayOutputStream exitBuffer = new ByteArrayOutputStream();
-
-        refs.output.addChildEventListener(new ChildEventListener() {
-            @Override
-            public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
-                Map<String, Object> val = (Map<String, Object>) snapshot.getValue();
-                if (val != null && val.containsKey("data")) {
-                    byte[] buf = Base64.getDecoder().decode((String) val.get("data"));
-                    try {
-                        System.out.write(buf);
-                        System.out.flush();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        // Raw mode: keys go out as typed, and only the server's echo (or our prediction of it) shows them
+        Runnable cooked = LocalEcho.rawMode();
+        LocalEcho echo = LocalEcho.fromOptions(System.out, cooked != null, opts);
+        // The server sizes its PTY (and screen model) to our terminal
+        String size = cooked != null ? LocalEcho.size() : null;
+        if (size != null) ch.updateState(Map.of("clientTerm", size));
+        if (opts.has("screen")) ch.updateState(Map.of("clientScreen", uniqueId()));
+
+        FrameCodec.Sink toTerminal = echo::output;
+        ch.subscribe(Transport.OUTPUT, frame -> {
+            Map<String, Object> val = frame.data;
+            if (probe.onFrame(val)) {
+                // ping answered / pong recorded
+            } else if (val != null && val.containsKey("data")) {
+                try {
+                    codec.get(val, "data", toTerminal);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
-                snapshot.getRef().removeValueAsync();
             }
-
-            @Override public void onChildChanged(DataSnapshot snapshot, String prev) {}
-            @Override public void onChildRemoved(DataSnapshot snapshot) {}
-            @Override public void onChildMoved(DataSnapshot snapshot, String prev) {}
-            @Override public void onCancelled(DatabaseError error) {}
+            frame.ack();
         });
 
-        // Set terminal to raw mode is platform dependent and non-trivial in Java. Here we use System.in directly.
+        // Keystrokes are batched; a lone key on an idle line still goes out immediately
+        FrameCoalescer in = FrameCoalescer.fromOptions(ch, Transport.INPUT, codec, opts);
+        Workers.every(5000, () -> ch.updateState(Map.of("clientBacklog", in.backlog.stats())));
+
         InputStream stdin = System.in;
-        System.out.println("SSH client running. Type commands (exit with ..1).");
+        System.out.print("SSH client running. Type commands (exit with ..1).\r\n");
+        System.out.flush();
 
         byte[] buffer = new byte[1024];
         int len;
@@ -129,11 +124,17 @@ public class JCli {
             int allLen = all.length;
             if (allLen >= 3 &&
                 all[allLen-3] == '.' && all[allLen-2] == '.' && all[allLen-1] == '1') {
+                in.flush();
+                if (cooked != null) cooked.run();
+                System.err.println("\n[jcli] input batching: " + in.stats());
+                if (echo.enabled) System.err.println("[jcli] local echo: " + echo.stats());
                 System.exit(0);
             }
-            Map<String,Object> data = new HashMap<>();
-            data.put("data", Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, len)));
-            refs.input.push().setValueAsync(data);
+            // predict first: on the fast path the server's echo can be back before write returns
+            echo.input(buffer, 0, len);
+            in.write(buffer, 0, len);
+            // a paste the store cannot keep up with waits in the terminal, not in the store client
+            in.backlog.await();
 
             // Keep only the last 3 bytes in exitBuffer
             if (allLen > 3) {
@@ -141,6 +142,7 @@ public class JCli {
                 exitBuffer.write(all, allLen - 3, 3);
             }
         }
+        in.flush();
     }
 
     // ------------------- HTTP FEATURE (CLIENT) ------------------- //
@@ -149,148 +151,468 @@ public class JCli {
         return Long.toString(Math.abs(new Random().nextLong()), 36) + Long.toString(System.currentTimeMillis(), 36);
     }
 
-    static void runHTTPClient(DatabaseReference db, String SESSION_ID, Integer fixedTargetPort) throws Exception {
-        SessionRefs refs = refs(db, "sessions/" + SESSION_ID + "/http");
-        refs.state.setValueAsync(Collections.singletonMap("status", "client-connected"));
-        final Map<String, CompletableFuture<Map<String, Object>>> pending = new ConcurrentHashMap<>();
-
-        refs.output.addChildEventListener(new ChildEventListener() {
-            @Override
-            public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
-                Map<String, Object> val = (Map<String, Object>) snapshot.getValue();
-                if (val != null && val.containsKey("reqId") && pending.containsKey(val.get("reqId"))) {
-                    pending.get(val.get("reqId")).complete(val);
-                    pending.remove(val.get("reqId"));
+    static void runHTTPClient(Transport transport, String SESSION_ID, Integer fixedTargetPort, Options opts) throws Exception {
+        Transport.Channel ch = FastPathChannel.wrap(transport.channel("sessions/" + SESSION_ID + "/http"), "client", opts);
+        ch.updateState(Collections.singletonMap("status", "client-connected"));
+        HttpProxy proxy = new HttpProxy(ch, fixedTargetPort, opts, startProbe(ch, opts));
+        proxy.codec.negotiate(ch);
+        ch.subscribe(Transport.OUTPUT, proxy::onFrame);
+
+        // Upgrade requests are taken off before the HttpServer, which cannot hand over its socket
+        boolean upgrades = !opts.has("noupgrade");
+        HttpServer server = upgrades
+                ? HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+                : HttpServer.create(new InetSocketAddress(HTTP_PORT), 0);
+        server.createContext("/", proxy::handle);
+        // handlers block on the tunnel, one virtual thread each; identical GETs are collapsed across them
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+
+        server.start();
+        HttpFront front = null;
+        if (upgrades) {
+            front = new HttpFront(new ServerSocket(HTTP_PORT), server.getAddress(), fixedTargetPort, proxy.upgrades);
+            front.start();
+        }
+        HttpFront frontStats = front;
+        Workers.every(5000, () -> {
+            Map<String, Object> st = new HashMap<>(Map.of("clientProxy", proxy.stats()));
+            if (proxy.cache != null) st.put("clientCache", proxy.cache.stats());
+            if (frontStats != null) st.put("clientUpgrades", frontStats.stats());
+            ch.updateState(st);
+        });
+
+        if (fixedTargetPort != null) {
+            System.out.println(
+                String.format("HTTP proxy client running on http://localhost:%d/ - forwarding ALL requests to server port %d via the tunnel", HTTP_PORT, fixedTargetPort)
+            );
+        } else {
+            System.out.println(
+                String.format("HTTP proxy client running on http://localhost:%d/<target_port>/<uri> (forwards via the tunnel)", HTTP_PORT)
+            );
+        }
+    }
+
+    static class HttpProxy {
+        final Transport.Channel ch;
+        final Integer fixedTargetPort;
+        final FrameCodec codec;
+        final ResponseCache cache; // null with -nocache
+        final boolean streaming;
+        // request bodies above segmentThreshold go out as acked segments, see SegmentedTransfer
+        final int segmentBytes;
+        final int segmentWindow;
+        final int segmentThreshold;
+        // reqId -> response frames (one full response, or a streamed head + segments + end)
+        final Map<String, BlockingQueue<Map<String, Object>>> pending = new ConcurrentHashMap<>();
+        final Map<String, SegmentedTransfer.Sender> uploads = new ConcurrentHashMap<>();
+        final LatencyProbe probe;
+        final boolean trace; // ask the server for its hop times on every request
+        // exchanges past the latency page; beyond maxInFlight the browser gets a 503 at once
+        final int maxInFlight;
+        final Semaphore inFlight;
+        final long defaultTimeoutMs;
+        final Map<String, Long> routeTimeouts = new HashMap<>(); // "PORT" or "PORT/PATH" -> ms
+        final LongAdder rejected = new LongAdder();
+        final LongAdder timedOut = new LongAdder();
+        final TcpForwarder upgrades; // upgraded exchanges, raw streams as in the tcp feature (HttpFront)
+
+        HttpProxy(Transport.Channel ch, Integer fixedTargetPort, Options opts, LatencyProbe probe) throws IOException {
+            this.ch = ch;
+            this.probe = probe;
+            this.maxInFlight = opts.getInt("maxInFlight", 256);
+            this.inFlight = new Semaphore(maxInFlight);
+            this.defaultTimeoutMs = opts.getLong("requestTimeout", REQUEST_TIMEOUT_MS);
+            for (String spec : opts.get("routeTimeouts", "").split(",")) {
+                if (spec.isBlank()) continue;
+                int colon = spec.lastIndexOf(':');
+                routeTimeouts.put(spec.substring(0, colon).trim(), Long.parseLong(spec.substring(colon + 1).trim()));
+            }
+            this.trace = opts.has("trace");
+            this.fixedTargetPort = fixedTargetPort;
+            this.codec = FrameCodec.fromOptions("client", opts);
+            this.upgrades = TcpForwarder.fromOptions(ch, codec, opts);
+            this.cache = ResponseCache.fromOptions(opts);
+            this.streaming = !opts.has("nostream");
+            this.segmentBytes = opts.getInt("segmentBytes", 64 * 1024);
+            this.segmentWindow = opts.getInt("segmentWindow", 8);
+            this.segmentThreshold = opts.getInt("segmentThreshold", 256 * 1024);
+        }
+
+        // Longest matching "PORT/PATH" prefix, then "PORT", then -requestTimeout
+        long timeoutFor(int port, String uri) {
+            String route = port + uri;
+            long best = defaultTimeoutMs;
+            int bestLen = -1;
+            for (Map.Entry<String, Long> e : routeTimeouts.entrySet()) {
+                String r = e.getKey();
+                boolean match = r.equals(String.valueOf(port))
+                        || (route.startsWith(r) && (route.length() == r.length() || r.endsWith("/")
+                        || route.charAt(r.length()) == '/' || route.charAt(r.length()) == '?'));
+                if (match && r.length() > bestLen) {
+                    best = e.getValue();
+                    bestLen = r.length();
                 }
-                snapshot.getRef().removeValueAsync();
             }
-            @Override public void onChildChanged(DataSnapshot snapshot, String prev) {}
-            @Override public void onChildRemoved(DataSnapshot snapshot) {}
-            @Override public void onChildMoved(DataSnapshot snapshot, String prev) {}
-            @Override public void onCancelled(DatabaseError error) {}
-        });
+            return best;
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("inFlight", maxInFlight - inFlight.availablePermits());
+            s.put("pending", pending.size());
+            s.put("rejected", rejected.sum());
+            s.put("timedOut", timedOut.sum());
+            return s;
+        }
+
+        void onFrame(Transport.Frame frame) {
+            Map<String, Object> val = frame.data;
+            if (probe.onFrame(val)) {
+                // ping answered / pong recorded
+            } else if (val != null && val.containsKey("sid")) {
+                upgrades.onFrame(val);
+            } else if (val != null && val.containsKey("reqId")) {
+                SegmentedTransfer.Sender upload = uploads.get(val.get("reqId"));
+                if (SegmentedTransfer.isAck(val)) {
+                    if (upload != null) upload.onAck(val);
+                } else {
+                    // the server answered (e.g. 503) before taking the whole body
+                    if (upload != null && val.containsKey("status")) upload.abort("Response arrived before upload completed");
+                    BlockingQueue<Map<String, Object>> q = pending.get(val.get("reqId"));
+                    if (q != null) q.offer(val);
+                }
+            }
+            frame.ack();
+        }
 
-        HttpServer server = HttpServer.create(new InetSocketAddress(HTTP_PORT), 0);
-        server.createContext("/", (exchange) -> {
+        void handle(HttpExchange exchange) throws IOException {
             try {
                 String path = exchange.getRequestURI().getPath();
                 String method = exchange.getRequestMethod();
                 Headers reqHeaders = exchange.getRequestHeaders();
 
-                int targetPort;
-                String uri;
-                if (fixedTargetPort != null) {
-                    targetPort = fixedTargetPort;
-                    uri = path;
-                } else {
-                    String[] parts = path.split("/", 3);
-                    if (parts.length < 2 || parts[1].isEmpty()) {
-                        exchange.sendResponseHeaders(400, 0);
-                        try (OutputStream os = exchange.getResponseBody()) {
-                            os.write("Target port missing in path\n".getBytes());
-                        }
-                        return;
+                if (path.equals(LATENCY_PATH)) {
+                    byte[] resp = LatencyProbe.format(probe.summary()).getBytes();
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+                    exchange.sendResponseHeaders(200, resp.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(resp);
+                    }
+                    return;
+                }
+                if (!inFlight.tryAcquire()) {
+                    rejected.increment();
+                    byte[] resp = "Too many requests in flight\n".getBytes();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    exchange.sendResponseHeaders(503, resp.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(resp);
                     }
-                    targetPort = Integer.parseInt(parts[1]);
-                    uri = (parts.length > 2 ? "/" + parts[2] : "/");
+                    return;
                 }
+                try {
+                    handleAdmitted(exchange, path, method, reqHeaders);
+                } finally {
+                    inFlight.release();
+                }
+            } catch (Exception ex) {
+                exchange.sendResponseHeaders(500, 0);
+                ex.printStackTrace();
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(("Internal error: " + ex.getMessage()).getBytes());
+                }
+            }
+        }
 
-                // Read request body
-                ByteArrayOutputStream bodyOut = new ByteArrayOutputStream();
-                try (InputStream is = exchange.getRequestBody()) {
-                    byte[] buf = new byte[4096];
-                    int n;
-                    while ((n = is.read(buf)) > 0) {
-                        bodyOut.write(buf, 0, n);
+        void handleAdmitted(HttpExchange exchange, String path, String method, Headers reqHeaders) throws Exception {
+            int targetPort;
+            String uri;
+            if (fixedTargetPort != null) {
+                targetPort = fixedTargetPort;
+                uri = path;
+            } else {
+                String[] parts = path.split("/", 3);
+                if (parts.length < 2 || parts[1].isEmpty()) {
+                    exchange.sendResponseHeaders(400, 0);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write("Target port missing in path\n".getBytes());
                     }
+                    return;
                 }
-                byte[] body = bodyOut.toByteArray();
-
-                String reqId = uniqueId();
-                Map<String, Object> reqData = new HashMap<>();
-                reqData.put("reqId", reqId);
-                reqData.put("port", targetPort);
-                reqData.put("method", method);
-                reqData.put("uri", uri);
-
-                // Convert headers to map
-                Map<String, Object> headersMap = new HashMap<>();
-                for (String h : reqHeaders.keySet()) {
-                    List<String> v = reqHeaders.get(h);
-                    headersMap.put(h, (v.size() == 1) ? v.get(0) : v);
+                targetPort = Integer.parseInt(parts[1]);
+                uri = (parts.length > 2 ? "/" + parts[2] : "/");
+            }
+
+            long timeoutMs = timeoutFor(targetPort, uri);
+
+            // Local cache first; identical GETs already on their way share that round trip
+            String cacheKey = null;
+            ResponseCache.Entry cached = null;
+            ResponseCache.Flight flight = null;
+            if (cache != null && ResponseCache.cacheableRequest(method, reqHeaders)) {
+                cacheKey = ResponseCache.key(targetPort, uri, reqHeaders);
+                cached = cache.get(cacheKey, reqHeaders);
+                if (cached != null && cached.isFresh() && !ResponseCache.mustRevalidate(reqHeaders)) {
+                    cache.hits.increment();
+                    sendCached(exchange, method, cached, "HIT");
+                    return;
+                }
+                // a reload (no-cache) wants the upstream's own answer, not one fetched for someone else
+                if (method.equalsIgnoreCase("GET") && !ResponseCache.mustRevalidate(reqHeaders)) {
+                    flight = cache.join(cacheKey);
+                    if (!flight.leader) {
+                        ResponseCache.Entry shared = cache.await(flight, reqHeaders, timeoutMs);
+                        if (shared != null) {
+                            sendCached(exchange, method, shared, "COLLAPSED");
+                            return;
+                        }
+                        flight = null; // leader's response was not shareable or varies for us, go on our own
+                    }
                 }
-                reqData.put("headers", headersMap);
-                reqData.put("body", Base64.getEncoder().encodeToString(body));
+            }
+            ResponseCache.Entry result = null;
+            try {
+                result = forward(exchange, method, targetPort, uri, cacheKey, cached, timeoutMs);
+            } finally {
+                if (flight != null) cache.finish(flight, result);
+            }
+        }
 
-                refs.input.push().setValueAsync(reqData);
+        // One round trip through the tunnel. Returns the response as stored in the cache, if it was.
+        ResponseCache.Entry forward(HttpExchange exchange, String method, int targetPort, String uri,
+                                    String cacheKey, ResponseCache.Entry cached, long timeoutMs) throws Exception {
+            Headers reqHeaders = exchange.getRequestHeaders();
+            boolean storeResult = cacheKey != null && method.equalsIgnoreCase("GET");
+
+            // Read request body, up to the threshold; anything larger is sent in segments below
+            InputStream is = exchange.getRequestBody();
+            byte[] body = is.readNBytes(segmentThreshold + 1);
+            boolean segmented = body.length > segmentThreshold;
+            boolean compressBody = FrameCodec.compressible(
+                    reqHeaders.getFirst("Content-Type"), reqHeaders.getFirst("Content-Encoding"));
+
+            String reqId = uniqueId();
+            Map<String, Object> reqData = new HashMap<>();
+            reqData.put("reqId", reqId);
+            reqData.put("port", targetPort);
+            reqData.put("method", method);
+            reqData.put("uri", uri);
+
+            // Convert headers to map
+            Map<String, Object> headersMap = new HashMap<>();
+            for (String h : reqHeaders.keySet()) {
+                List<String> v = reqHeaders.get(h);
+                headersMap.put(h, (v.size() == 1) ? v.get(0) : v);
+            }
+            // Stale cached copy: ask the server whether it still holds, unless the browser already asks
+            boolean revalidating = cached != null && cached.hasValidators()
+                    && !reqHeaders.containsKey("If-None-Match") && !reqHeaders.containsKey("If-Modified-Since");
+            if (revalidating) {
+                if (cached.etag() != null) headersMap.put("If-None-Match", cached.etag());
+                if (cached.lastModified() != null) headersMap.put("If-Modified-Since", cached.lastModified());
+            }
+            reqData.put("headers", headersMap);
+            if (segmented) {
+                reqData.put("segmented", true);
+            } else {
+                codec.put(reqData, "body", body, compressBody);
+            }
+            if (streaming) reqData.put("stream", true);
+            reqData.put("window", segmentWindow); // we ack response segments and expect acks for ours
+            reqData.put("timeoutMs", timeoutMs); // server gives up on it after this
+            if (trace) reqData.put("trace", true);
 
-                CompletableFuture<Map<String, Object>> promise = new CompletableFuture<>();
-                pending.put(reqId, promise);
+            BlockingQueue<Map<String, Object>> responses = new SegmentedTransfer.Inbox(ch, Transport.INPUT, reqId, segmentWindow);
+            pending.put(reqId, responses);
+            try {
+                long sent = System.nanoTime();
+                ch.publish(Transport.INPUT, reqData).thenRun(() -> probe.recordSince("write", sent));
+                if (segmented) {
+                    SegmentedTransfer.Sender upload = new SegmentedTransfer.Sender(ch, Transport.INPUT, reqId, codec,
+                            compressBody, segmentBytes, segmentWindow, true);
+                    uploads.put(reqId, upload);
+                    try {
+                        upload.write(body, 0, body.length);
+                        byte[] buf = new byte[segmentBytes];
+                        int n;
+                        while ((n = is.read(buf)) != -1) {
+                            upload.write(buf, 0, n);
+                        }
+                        upload.finish(null);
+                    } catch (IOException e) {
+                        // server gave up on the body or answered early; its response (if any) follows
+                        upload.abort(String.valueOf(e.getMessage()));
+                        System.err.println("[jcli] " + reqId + " upload: " + e.getMessage());
+                    } finally {
+                        uploads.remove(reqId);
+                    }
+                }
 
-                // Timeout logic (30s)
-                Map<String, Object> resp = null;
-                try {
-                    resp = promise.get(30, TimeUnit.SECONDS);
-                } catch (TimeoutException te) {
+                Map<String, Object> resp = responses.poll(timeoutMs, TimeUnit.MILLISECONDS);
+                if (resp == null) {
+                    timedOut.increment();
                     Map<String, Object> timeoutResp = new HashMap<>();
                     timeoutResp.put("status", 504);
                     timeoutResp.put("headers", new HashMap<>());
                     timeoutResp.put("body", Base64.getEncoder().encodeToString("Timeout".getBytes()));
                     resp = timeoutResp;
+                } else {
+                    recordHops(sent, resp);
                 }
 
-                int status = (resp.get("status") != null) ? ((Long) resp.get("status")).intValue() : 500;
+                int status = (resp.get("status") != null) ? ((Number) resp.get("status")).intValue() : 500;
                 Map<String, Object> respHeaders = (resp.get("headers") instanceof Map) ? (Map<String, Object>) resp.get("headers") : new HashMap<>();
+                boolean streamed = Boolean.TRUE.equals(resp.get("stream"));
 
-                String respBodyBase64 = (String) resp.getOrDefault("body", "");
-                byte[] respBody = Base64.getDecoder().decode(respBodyBase64);
-
-                Headers responseHeaders = exchange.getResponseHeaders();
-                for (Map.Entry<String, Object> e : respHeaders.entrySet()) {
-                    String key = e.getKey();
-                    Object value = e.getValue();
-                    if (value == null) continue;
-                    if (value instanceof List<?>) {
-                        for (Object v : (List<?>) value) {
-                            if (v != null)
-                                responseHeaders.add(key, String.valueOf(v));
-                        }
-                    } else if (value.getClass().isArray()) {
-                        int len = Array.getLength(value);
-                        for (int i = 0; i < len; i++) {
-                            Object v = Array.get(value, i);
-                            if (v != null)
-                                responseHeaders.add(key, String.valueOf(v));
-                        }
-                    } else {
-                        responseHeaders.add(key, String.valueOf(value));
+                if (revalidating && status == 304) {
+                    if (streamed) writeStreamedBody(ch, reqId, responses, OutputStream.nullOutputStream(), codec, segmentWindow, timeoutMs);
+                    ResponseCache.Entry fresh = cache.revalidated(cacheKey, cached, respHeaders);
+                    sendCached(exchange, method, fresh, "REVALIDATED");
+                    return fresh;
+                }
+
+                // framing is ours to decide when streaming
+                copyHeaders(respHeaders, exchange.getResponseHeaders(), streamed);
+
+                byte[] respBody;
+                if (streamed) {
+                    boolean noBody = method.equalsIgnoreCase("HEAD") || status == 204 || status == 304;
+                    exchange.sendResponseHeaders(status, noBody ? -1 : 0); // 0 = chunked
+                    ResponseCache.Capture capture = storeResult && !noBody
+                            ? new ResponseCache.Capture(exchange.getResponseBody(), cache.maxEntryBytes) : null;
+                    try (OutputStream os = capture != null ? capture : exchange.getResponseBody()) {
+                        writeStreamedBody(ch, reqId, responses, os, codec, segmentWindow, timeoutMs);
+                    } catch (IOException e) {
+                        // headers are already out, all we can do is cut the body short
+                        System.err.println("[jcli] " + reqId + ": " + e.getMessage());
+                        return null;
+                    }
+                    respBody = capture != null ? capture.bytes() : null;
+                } else {
+                    respBody = resp.get("body") != null ? codec.get(resp, "body") : new byte[0];
+                    exchange.sendResponseHeaders(status, respBody.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(respBody);
                     }
                 }
 
-                exchange.sendResponseHeaders(status, respBody.length);
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(respBody);
+                if (!storeResult || respBody == null) return null;
+                ResponseCache.Entry entry = cache.entry(status, respHeaders, respBody, reqHeaders);
+                if (entry != null) cache.put(cacheKey, entry);
+                return entry;
+            } finally {
+                pending.remove(reqId);
+            }
+        }
+
+        // First response frame in; with -trace the server's own hops and what is left for the store
+        void recordHops(long sentNanos, Map<String, Object> resp) {
+            double total = (System.nanoTime() - sentNanos) / 1e6;
+            probe.record("response", total);
+            if (!(resp.get("trace") instanceof Map<?, ?> t)) return;
+            if (t.get("queueMs") instanceof Number n) probe.record("server.queue", n.doubleValue());
+            if (t.get("upstreamMs") instanceof Number n) probe.record("server.upstream", n.doubleValue());
+            if (t.get("serverMs") instanceof Number n) {
+                probe.record("server", n.doubleValue());
+                probe.record("store", Math.max(0, total - n.doubleValue()));
+            }
+        }
+
+        void sendCached(HttpExchange exchange, String method, ResponseCache.Entry e, String how) throws IOException {
+            Headers h = exchange.getResponseHeaders();
+            copyHeaders(e.headers, h, true);
+            h.set("Age", String.valueOf(e.ageMs() / 1000));
+            h.set("X-Cache", how);
+            if (ResponseCache.notModified(exchange.getRequestHeaders(), e)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            boolean head = method.equalsIgnoreCase("HEAD");
+            exchange.sendResponseHeaders(e.status, head || e.body.length == 0 ? -1 : e.body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (!head) os.write(e.body);
+            }
+        }
+    }
+
+    static void copyHeaders(Map<String, ?> from, Headers to, boolean skipFraming) {
+        for (Map.Entry<String, ?> e : from.entrySet()) {
+            String key = e.getKey();
+            Object value = e.getValue();
+            if (value == null) continue;
+            if (skipFraming && (key.equalsIgnoreCase("content-length") || key.equalsIgnoreCase("transfer-encoding")))
+                continue;
+            if (value instanceof List<?>) {
+                for (Object v : (List<?>) value) {
+                    if (v != null)
+                        to.add(key, String.valueOf(v));
                 }
-            } catch (Exception ex) {
-                exchange.sendResponseHeaders(500, 0);
-                ex.printStackTrace();
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(("Internal error: " + ex.getMessage()).getBytes());
+            } else if (value.getClass().isArray()) {
+                int len = Array.getLength(value);
+                for (int i = 0; i < len; i++) {
+                    Object v = Array.get(value, i);
+                    if (v != null)
+                        to.add(key, String.valueOf(v));
                 }
+            } else {
+                to.add(key, String.valueOf(value));
             }
+        }
+    }
+
+    // ------------------- TCP FEATURE (CLIENT) ------------------- //
+
+    static void runTCPClient(Transport transport, String SESSION_ID, Options opts) throws Exception {
+        if (!opts.has("L")) {
+            System.err.println("TCP client needs -L=LOCAL:REMOTE[,LOCAL:REMOTE...]");
+            System.exit(1);
+        }
+        Transport.Channel ch = FastPathChannel.wrap(transport.channel("sessions/" + SESSION_ID + "/tcp"), "client", opts);
+        ch.updateState(Collections.singletonMap("status", "client-connected"));
+        TcpForwarder fwd = TcpForwarder.fromOptions(ch, opts);
+        fwd.codec.negotiate(ch);
+        LatencyProbe probe = startProbe(ch, opts);
+        Workers.every(5000, () -> ch.updateState(Map.of("forwarder", fwd.stats())));
+
+        ch.subscribe(Transport.OUTPUT, frame -> {
+            Map<String, Object> val = frame.data;
+            if (!probe.onFrame(val) && val != null && val.containsKey("sid")) fwd.onFrame(val);
+            frame.ack();
         });
-        server.setExecutor(null); // Default executor
 
-        server.start();
+        for (String spec : opts.get("L", "").split(",")) {
+            String[] lr = spec.trim().split(":");
+            int local = Integer.parseInt(lr[0]);
+            int remote = Integer.parseInt(lr.length > 1 ? lr[1] : lr[0]);
+            fwd.listen(local, remote);
+            System.out.println(String.format("TCP forward localhost:%d -> server localhost:%d via the tunnel", local, remote));
+        }
 
-        if (fixedTargetPort != null) {
-            System.out.println(
-                String.format("HTTP proxy client running on http://localhost:%d/ - forwarding ALL requests to server port %d via Firebase", HTTP_PORT, fixedTargetPort)
-            );
-        } else {
-            System.out.println(
-                String.format("HTTP proxy client running on http://localhost:%d/<target_port>/<uri> (forwards via Firebase)", HTTP_PORT)
-            );
+        while (true) Thread.sleep(10000); // accept loops are daemon threads
+    }
+
+    // Pings the server (and answers its pings); the percentiles are printed when JCli exits
+    static LatencyProbe startProbe(Transport.Channel ch, Options opts) {
+        LatencyProbe probe = LatencyProbe.fromOptions(ch, Transport.INPUT, opts, null);
+        probe.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (!probe.hops.isEmpty()) System.err.print("\n[jcli] latency:\n" + LatencyProbe.format(probe.summary()));
+        }));
+        return probe;
+    }
+
+    // Writes response segments in order as they land, acking as we go, until the end marker.
+    // Acks follow our writes to the local socket, so a slow browser slows the server down too.
+    static void writeStreamedBody(Transport.Channel ch, String reqId, BlockingQueue<Map<String, Object>> frames,
+                                  OutputStream os, FrameCodec codec, int window, long timeoutMs)
+            throws IOException, InterruptedException {
+        SegmentedTransfer.Receiver in = new SegmentedTransfer.Receiver(ch, Transport.INPUT, reqId, codec,
+                frames, window, timeoutMs, true);
+        byte[] data;
+        while ((data = in.next()) != null) {
+            os.write(data);
+            os.flush();
         }
     }
-}
\ No newline at end of file
+}
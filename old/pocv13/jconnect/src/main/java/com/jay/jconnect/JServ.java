@@ -3,7 +3,7 @@ package com.jay.jconnect;
 /*
  * Java port of the provided Node.js code using:
  * - org.jetbrains.pty4j for PTY (SSH shell)
- * - com.google.firebase for Firebase RTDB
+ * - com.google.firebase for Firebase RTDB (behind the Transport SPI)
  * - Java HTTP server for manage UI
  *
  * NOTE: The logic/flow is preserved exactly as in the original Node.js.
@@ -15,21 +15,18 @@ package com.jay.jconnect;
  *  - com.sun.net.httpserver.HttpServer (comes with JDK)
  */
 
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.FirebaseOptions;
-import com.google.firebase.database.*;
-import com.google.api.core.ApiFuture;
-import com.google.auth.oauth2.GoogleCredentials;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.pty4j.PtyProcess;
 import com.pty4j.PtyProcessBuilder;
+import com.pty4j.WinSize;
 
 import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
@@ -42,203 +39,569 @@ import java.nio.charset.StandardCharsets;
 
 public class JServ {
     static final int MANAGE_PORT = 55777;
-    static final String FIREBASE_URL = "https://jconnectbytes-default-rtdb.asia-southeast1.firebasedatabase.app";
     static final Gson gson = new Gson();
 
     // ---- Entry point ----
     public static void main(String[] args) throws Exception {
-        if (args.length < 1 || !(args[0].equals("ssh") || args[0].equals("http") || args[0].equals("manage"))) {
-            System.err.println("Usage: java JServ ssh|http|manage [SESSION_ID] [options]\nTo manage state: java JServ manage");
+        if (args.length < 1 || !(args[0].equals("ssh") || args[0].equals("http") || args[0].equals("tcp")
+                || args[0].equals("manage") || args[0].equals("hub") || args[0].equals("worker")
+                || args[0].equals("node") || args[0].equals("cluster"))) {
+            System.err.println("Usage: java JServ ssh|http|tcp|manage [SESSION_ID] [options]\nTo manage state: java JServ manage"
+                    + "\nOffline transport hub: java JServ hub [PORT]"
+                    + "\nPool worker (started by manage -isolate): java JServ worker -control=PORT -controlToken=T"
+                    + "\n  without -control it only loads the session classes and exits (AppCDS training run)"
+                    + "\nCluster node (serves its share of the registered sessions): java JServ node -nodeId=ID"
+                    + "\n  registry: java JServ cluster add|remove ssh|http|tcp SESSION_ID, java JServ cluster list"
+                    + "\n  -cluster=default -beatMs=1000 -leaseMs=5000"
+                    + "\nOptions: -transport=firebase|memory|tcp://HOST:PORT"
+                    + "\n         -coalesceMs=10 -coalesceBytes=65536 -frameBytes=16384 -echoBytes=64 (ssh output batching)"
+                    + "\n         -backlogBytes=4194304 -backlogLowBytes=1048576 -backlogFrames=1024 -backlogLowFrames=256 -nobacklog"
+                    + "\n           (ssh: PTY reads pause while that much output is unacknowledged by the store)"
+                    + "\n         -noscreen -screenFps=20 (ssh: screen diffs for clients started with -screen)"
+                    + "\n         -segmentBytes=65536 -segmentWindow=8 (http body segments, response side)"
+                    + "\n         -upstreamPool=N -upstreamKeepAlive=SECS (JVM-wide) -h2c -connectTimeout=5000 -readTimeout=30000"
+                    + "\n         -portTimeouts=PORT:CONNECT_MS/READ_MS,... (http upstream clients)"
+                    + "\n         -maxPending=256 -perPortLimit=16 -requestTimeout=30000 (http request dispatch)"
+                    + "\n         -tcpWindow=262144 -tcpFrameBytes=65536 (tcp stream flow control)"
+                    + "\n         -compress=deflate|none -compressMin=256 -compressLevel=1 (frame compression)"
+                    + "\n         -fastpath -fastPathPort=0 -fastPathHost=HOST[:PORT],... -fastPathBind=ADDR,..."
+                    + "\n           (direct socket to the client, unencrypted: trusted networks only)"
+                    + "\n         -pingMs=5000 (RTT probe to the client, 0 = off)"
+                    + "\n         -isolate (manage: one JVM per session instead of hosting sessions in the manager)"
+                    + "\n         -prewarm=2 -cds=PATH (manage -isolate: idle pre-started workers, AppCDS archive for them)"
+                    + "\n         -journal=manage.journal -journalBytes=1048576 -nojournal (manage: state kept across restarts)");
             System.exit(1);
         }
+        Options opts = Options.parse(args);
         String feature = args[0];
-        String sessionId = (args.length >= 2) ? args[1] : "demo-session";
-        boolean startWebAt1 = Arrays.asList(args).contains("-p");
+        String sessionId = opts.arg(1, "demo-session");
+        boolean startWebAt1 = opts.has("p");
 
-        FirebaseDatabase db = null;
+        if (feature.equals("hub")) {
+            LoopbackTransport.serve(Integer.parseInt(opts.arg(1, String.valueOf(LoopbackTransport.DEFAULT_PORT))));
+            return;
+        }
+
+        Transport transport = null;
         if (!feature.equals("manage")) {
-            File configFile = Paths.get(System.getProperty("user.dir"), "firebase_config.json").toFile();
-            if (!configFile.exists()) {
-                System.err.println("Missing firebase_config.json");
+            try {
+                transport = Transport.open(opts.get("transport", "firebase"));
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
                 System.exit(1);
             }
-            FileInputStream serviceAccount = new FileInputStream(configFile);
-            FirebaseOptions options = FirebaseOptions.builder()
-                    .setCredentials(GoogleCredentials.fromStream(serviceAccount))
-                    .setDatabaseUrl(FIREBASE_URL)
-                    .build();
-            FirebaseApp.initializeApp(options);
-            db = FirebaseDatabase.getInstance();
-        }
-        if (feature.equals("ssh")) {
-            runSSHServer(db, sessionId);
-        } else if (feature.equals("http")) {
-            runHTTPServer(db, sessionId);
-        } else if (feature.equals("manage")) {
-            runManageServer(startWebAt1);
         }
+        if (feature.equals("manage")) {
+            runManageServer(startWebAt1, opts);
+            return;
+        }
+        if (feature.equals("worker")) {
+            runWorker(transport, opts);
+            return;
+        }
+        if (feature.equals("node")) {
+            ClusterNode.fromOptions(transport, opts).run();
+            return;
+        }
+        if (feature.equals("cluster")) {
+            ClusterNode.admin(transport, opts);
+            System.exit(0);
+        }
+        SessionHandle session = runSession(transport, feature, sessionId, opts);
+        System.exit(session.exit.join());
+    }
+
+    static SessionHandle runSession(Transport transport, String feature, String sessionId, Options opts) throws Exception {
+        return switch (feature) {
+            case "ssh" -> runSSHServer(transport, sessionId, opts);
+            case "http" -> runHTTPServer(transport, sessionId, opts);
+            case "tcp" -> runTCPServer(transport, sessionId, opts);
+            default -> throw new IllegalArgumentException("Unknown feature: " + feature);
+        };
     }
 
-    // ---- Firebase refs ----
-    static class Refs {
-        DatabaseReference input, output, state;
-        Refs(DatabaseReference input, DatabaseReference output, DatabaseReference state) {
-            this.input = input; this.output = output; this.state = state;
+    // ---- POOL WORKER ----
+    // A JServ started ahead of time by the manager (WorkerPool): transport open and session
+    // classes loaded before it knows which session it will run. Once the session is up it sends
+    // a metrics snapshot and latency summary over the control socket every 5s.
+    static void runWorker(Transport transport, Options opts) throws Exception {
+        warmUp(transport, opts);
+        if (!opts.has("control")) {
+            System.exit(0);
         }
+        Socket control = new Socket(InetAddress.getLoopbackAddress(), opts.getInt("control", 0));
+        Writer out = new OutputStreamWriter(control.getOutputStream(), StandardCharsets.UTF_8);
+        BufferedReader in = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.UTF_8));
+        out.write(gson.toJson(Map.of("token", opts.get("controlToken", ""), "pid", ProcessHandle.current().pid())) + "\n");
+        out.flush();
+        Map<String, Object> job = WorkerPool.readLine(in);
+        if (job == null) System.exit(0); // manager went away while we were idle
+        SessionHandle session;
+        try {
+            session = runSession(transport, (String) job.get("feature"), (String) job.get("sessionId"), opts);
+        } catch (Exception e) {
+            out.write(gson.toJson(Map.of("error", String.valueOf(e.getMessage()))) + "\n");
+            out.flush();
+            System.exit(1);
+            return;
+        }
+        out.write(gson.toJson(Map.of("started", true)) + "\n");
+        out.flush();
+        // the control socket stays open for the manager's /api/metrics
+        Workers.every(5000, () -> {
+            try {
+                Map<String, Object> report = new HashMap<>();
+                report.put("metrics", session.metrics.snapshot());
+                if (session.probe != null) report.put("latency", session.probe.summary());
+                out.write(gson.toJson(report) + "\n");
+                out.flush();
+            } catch (IOException ignored) {
+                // manager gone; the session carries on
+            }
+        });
+        System.exit(session.exit.join());
     }
-    static Refs refs(FirebaseDatabase db, String prefix) {
-        return new Refs(
-                db.getReference(prefix + "/input"),
-                db.getReference(prefix + "/output"),
-                db.getReference(prefix + "/state")
-        );
+
+    static final List<String> WARM_CLASSES = List.of(
+            "com.pty4j.PtyProcessBuilder", "java.net.http.HttpClient", "com.sun.net.httpserver.HttpServer",
+            "com.jay.jconnect.FastPathChannel", "com.jay.jconnect.FrameCoalescer", "com.jay.jconnect.FrameCodec",
+            "com.jay.jconnect.RequestDispatcher", "com.jay.jconnect.UpstreamClients",
+            "com.jay.jconnect.SegmentedTransfer", "com.jay.jconnect.TcpRelay", "com.jay.jconnect.JServ$HttpWorker");
+
+    // Loads what every session needs and does one round trip so the transport is logged in.
+    // Throwaway http and tcp sessions on the in-memory transport run the session setup paths once.
+    static void warmUp(Transport transport, Options opts) throws InterruptedException {
+        for (String c : WARM_CLASSES) {
+            try {
+                Class.forName(c, true, JServ.class.getClassLoader());
+            } catch (ClassNotFoundException | LinkageError ignored) {}
+        }
+        for (String feature : List.of("http", "tcp")) {
+            try {
+                runSession(MemoryTransport.shared(), feature, "_warmup", opts).close();
+            } catch (Exception ignored) {}
+        }
+        CountDownLatch seen = new CountDownLatch(1);
+        Transport.Subscription sub = transport.channel("sessions/_warmup").watchState(st -> seen.countDown());
+        seen.await(10, TimeUnit.SECONDS);
+        sub.cancel();
     }
 
     // ---- SSH FEATURE ----
-    static void runSSHServer(FirebaseDatabase db, String sessionId) throws Exception {
-        Refs r = refs(db, "sessions/" + sessionId + "/ssh");
-        r.state.setValueAsync(Map.of("status", "connected"));
+    static SessionHandle runSSHServer(Transport transport, String sessionId, Options opts) throws Exception {
+        SessionHandle session = new SessionHandle("ssh", sessionId);
+        Transport.Channel ch = session.metrics.meter(
+                FastPathChannel.wrap(transport.channel("sessions/" + sessionId + "/ssh"), "server", opts));
+        session.onClose(ch::close);
+        ch.setState(Map.of("status", "connected"));
         
         PtyProcess shell = new PtyProcessBuilder(new String[]{"/bin/bash"})
                 .setEnvironment(System.getenv())
                 .setDirectory(System.getProperty("user.home"))
                 .setConsole(false)
+                .setInitialColumns(80)
+                .setInitialRows(24)
                 .start();
+        session.onClose(shell::destroy);
 
-        // Output to Firebase
+        FrameCodec codec = FrameCodec.fromOptions("server", opts);
+        session.own(codec.negotiate(ch));
+        LatencyProbe probe = session.probe = LatencyProbe.fromOptions(ch, Transport.OUTPUT, opts, session.metrics);
+        session.own(probe.start());
+
+        // Output to transport, batched; screen diffs instead once the client asks for them
+        FrameCoalescer out = FrameCoalescer.fromOptions(ch, Transport.OUTPUT, codec, opts);
+        session.onClose(out.backlog::close);
+        ScreenSync screen = ScreenSync.fromOptions(ch, codec, out, 80, 24, opts);
+        session.own(Workers.every(5000, () -> {
+            Map<String, Object> st = new HashMap<>(Map.of("outputBatching", out.stats(), "codec", codec.stats(),
+                    "buffers", FrameBuffers.stats(), "backlog", out.backlog.stats()));
+            if (screen != null) st.put("screen", screen.stats());
+            ch.updateState(st);
+        }));
+        // The PTY takes the client's terminal size
+        String[] termSize = {"80x24"};
+        session.own(ch.watchState(st -> {
+            if (st.get("clientTerm") instanceof String t && t.matches("\\d+x\\d+") && !t.equals(termSize[0])) {
+                termSize[0] = t;
+                int cols = Integer.parseInt(t.substring(0, t.indexOf('x')));
+                int rows = Integer.parseInt(t.substring(t.indexOf('x') + 1));
+                shell.setWinSize(new WinSize(cols, rows));
+                if (screen != null) screen.resize(cols, rows);
+            }
+            if (screen != null) screen.onState(st);
+        }));
         new Thread(() -> {
             try (InputStream in = shell.getInputStream()) {
                 byte[] buffer = new byte[4096];
                 int len;
                 while ((len = in.read(buffer)) != -1) {
-                    String dataB64 = Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, len));
-                    r.output.push().setValueAsync(Map.of("data", dataB64));
+                    if (screen != null) screen.write(buffer, 0, len);
+                    else out.write(buffer, 0, len);
+                    // store behind: stop reading, the shell blocks on a full PTY until it catches up
+                    if (screen == null || !screen.active()) out.backlog.await();
                 }
-            } catch (IOException ignored) {}
+            } catch (IOException | InterruptedException ignored) {
+            } finally {
+                if (screen != null) screen.flush();
+                else out.flush();
+            }
         }).start();
 
-        // Input from Firebase
-        r.input.addChildEventListener(new ChildEventListener() {
-            @Override
-            public void onChildAdded(DataSnapshot snapshot, String prevChildKey) {
-                Map<String, Object> val = (Map<String, Object>) snapshot.getValue();
-                if (val != null && val.containsKey("data")) {
-                    byte[] buf = Base64.getDecoder().decode((String) val.get("data"));
-                    try {
-                        shell.getOutputStream().write(buf);
-                        shell.getOutputStream().flush();
-                    } catch (IOException ignored) {}
-                }
-                snapshot.getRef().removeValueAsync();
+        // Input from transport
+        OutputStream keys = shell.getOutputStream();
+        FrameCodec.Sink toShell = keys::write;
+        session.own(ch.subscribe(Transport.INPUT, frame -> {
+            Map<String, Object> val = frame.data;
+            if (probe.onFrame(val)) {
+                // ping answered / pong recorded
+            } else if (val != null && val.containsKey("data")) {
+                try {
+                    codec.get(val, "data", toShell);
+                    keys.flush();
+                } catch (IOException ignored) {}
             }
-            @Override public void onChildChanged(DataSnapshot s, String p) {}
-            @Override public void onChildRemoved(DataSnapshot s) {}
-            @Override public void onChildMoved(DataSnapshot s, String p) {}
-            @Override public void onCancelled(DatabaseError e) {}
-        });
+            frame.ack();
+        }));
 
-        // Exit handling
+        // Exit handling; a stopped session destroys the shell itself and reports nothing
         new Thread(() -> {
             try {
                 int code = shell.waitFor();
-                r.state.setValueAsync(Map.of("status", "exited", "code", code));
-                System.exit(code);
+                if (!session.isRunning()) return;
+                if (screen != null) screen.flush();
+                else out.flush();
+                ch.setState(Map.of("status", "exited", "code", code));
                 System.out.println("SSH server down.");
+                session.exited(code);
             } catch (InterruptedException ignored) {}
         }).start();
 
-        System.out.println("SSH server running. Waiting for Firebase input. You can connect a client now.");
+        System.out.println("SSH server running. Waiting for client input. You can connect a client now.");
+        return session;
     }
 
     // ---- HTTP FEATURE ----
-    static void runHTTPServer(FirebaseDatabase db, String sessionId) throws Exception {
-        Refs r = refs(db, "sessions/" + sessionId + "/http");
-        r.state.setValueAsync(Map.of("status", "connected"));
-
-        r.input.addChildEventListener(new ChildEventListener() {
-            @Override
-            public void onChildAdded(DataSnapshot snapshot, String prevChildKey) {
-                Map<String, Object> val = (Map<String, Object>) snapshot.getValue();
-                if (val != null && val.containsKey("reqId") && val.containsKey("port")
-                        && val.containsKey("method") && val.containsKey("uri")) {
-                    String reqId = (String) val.get("reqId");
-                    int port = Integer.parseInt(val.get("port").toString());
-                    String method = (String) val.get("method");
-                    String uri = (String) val.get("uri");
-                    Map<String, String> headers = val.containsKey("headers") ?
-                            (Map<String, String>) val.get("headers") : new HashMap<>();
-                    byte[] body = (val.containsKey("body") && val.get("body") != null) ?
-                            Base64.getDecoder().decode((String) val.get("body")) : new byte[0];
-
-                    // HTTP Request
-                    int status = 500;
-                    byte[] respData = new byte[0];
-                    Map<String, List<String>> respHeaders = new HashMap<>();
-                    try {
-                        HttpClient client = HttpClient.newHttpClient();
+    static SessionHandle runHTTPServer(Transport transport, String sessionId, Options opts) throws Exception {
+        SessionHandle session = new SessionHandle("http", sessionId);
+        Transport.Channel ch = session.metrics.meter(
+                FastPathChannel.wrap(transport.channel("sessions/" + sessionId + "/http"), "server", opts));
+        session.onClose(ch::close);
+        ch.setState(Map.of("status", "connected"));
+        LatencyProbe probe = session.probe = LatencyProbe.fromOptions(ch, Transport.OUTPUT, opts, session.metrics);
+        HttpWorker worker = new HttpWorker(ch, opts, session.metrics, probe);
+        session.onClose(worker::close);
+        session.metrics.gauge("jconnect_dispatch_pending", worker.dispatcher.pending::get);
+        session.metrics.gauge("jconnect_uploads_active", worker.uploads::size);
+        session.own(worker.codec.negotiate(ch));
+        session.own(probe.start());
+        // Upgraded exchanges (WebSocket, ...) arrive as raw streams, relayed like the tcp feature's
+        TcpRelay upgrades = TcpRelay.fromOptions(ch, worker.codec, opts);
+        upgrades.start();
+        session.onClose(upgrades::close);
+        session.metrics.gauge("jconnect_upgraded_streams_open", () -> upgrades.open);
+        session.own(Workers.every(5000, () -> ch.updateState(Map.of("dispatch", worker.dispatcher.stats(),
+                "codec", worker.codec.stats(), "segments", SegmentedTransfer.stats(), "upgrades", upgrades.stats()))));
 
-                        HttpRequest.Builder reqBuilder = HttpRequest.newBuilder()
-                            .uri(new URI("http://localhost:" + port + uri))
-                            .method(method.toUpperCase(), body.length > 0 
-                                ? HttpRequest.BodyPublishers.ofByteArray(body)
-                                : HttpRequest.BodyPublishers.noBody());
+        // Requests are only parsed here; the upstream call runs on the dispatcher, off the event thread
+        session.own(ch.subscribe(Transport.INPUT, frame -> {
+            Map<String, Object> val = frame.data;
+            if (probe.onFrame(val)) {
+                // ping answered / pong recorded
+            } else if (val != null && val.containsKey("sid")) {
+                upgrades.onFrame(val);
+            } else if (val != null && val.containsKey("reqId")) {
+                if (SegmentedTransfer.isAck(val)) {
+                    worker.onAck(val);
+                } else if (val.containsKey("port") && val.containsKey("method") && val.containsKey("uri")) {
+                    worker.dispatch(val);
+                } else if (val.containsKey("seq")) {
+                    worker.onUploadSegment(val);
+                }
+            }
+            frame.ack();
+        }));
 
-                        // Set headers
-                        // headers.forEach(reqBuilder::header);
-                        Set<String> restricted = Set.of(
-                            "host", "content-length", "transfer-encoding", "connection", "expect", "upgrade"
-                        );
+        System.out.println("HTTP server proxy running. Waiting for HTTP requests from the client.");
+        return session;
+    }
 
-                        headers.forEach((k, v) -> {
-                            if (!restricted.contains(k.toLowerCase()))
-                                reqBuilder.header(k, v);
-                        });
+    static class HttpWorker {
+        final Transport.Channel ch;
+        final UpstreamClients upstream;
+        final RequestDispatcher dispatcher;
+        final FrameCodec codec;
+        final int segmentBytes;
+        final int segmentWindow;
+        // reqId -> segmented upload being received / streamed response being sent
+        final Map<String, BlockingQueue<Map<String, Object>>> uploads = new ConcurrentHashMap<>();
+        final Map<String, SegmentedTransfer.Sender> senders = new ConcurrentHashMap<>();
+        // request frame received -> response published (streamed: last segment), by status
+        final Metrics metrics;
+        final Map<Integer, Metrics.Histogram> requestLatency = new ConcurrentHashMap<>();
+        final Metrics.Histogram queueLatency;
+        final LatencyProbe probe;
 
+        HttpWorker(Transport.Channel ch, Options opts, Metrics metrics, LatencyProbe probe) {
+            this.ch = ch;
+            this.metrics = metrics;
+            this.queueLatency = metrics.histogram("jconnect_http_queue_seconds");
+            this.probe = probe;
+            this.upstream = UpstreamClients.fromOptions(opts);
+            this.dispatcher = RequestDispatcher.fromOptions(opts);
+            this.codec = FrameCodec.fromOptions("server", opts);
+            this.segmentBytes = opts.getInt("segmentBytes", 64 * 1024);
+            this.segmentWindow = opts.getInt("segmentWindow", 8);
+        }
 
-                        HttpRequest request = reqBuilder.build();
-                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        void dispatch(Map<String, Object> val) {
+            long received = System.nanoTime();
+            String reqId = (String) val.get("reqId");
+            int port = Integer.parseInt(val.get("port").toString());
+            // client-side deadline travels as a relative timeout, clocks of both hosts need not agree
+            Long timeoutMs = (val.get("timeoutMs") instanceof Number n) ? n.longValue() : null;
+            // body segments follow the request frame on the input stream; queue them from now on
+            if (Boolean.TRUE.equals(val.get("segmented"))) {
+                int window = (val.get("window") instanceof Number w) ? w.intValue() : segmentWindow;
+                uploads.put(reqId, new SegmentedTransfer.Inbox(ch, Transport.OUTPUT, reqId, window));
+            }
+            boolean admitted = dispatcher.submit(port, timeoutMs,
+                    deadline -> {
+                        int status = 500;
+                        try {
+                            status = proxy(val, port, deadline, received);
+                        } finally {
+                            uploads.remove(reqId);
+                            observeRequest(status, received);
+                        }
+                    },
+                    () -> {
+                        uploads.remove(reqId);
+                        publishError(reqId, 504, "Deadline exceeded while queued");
+                        observeRequest(504, received);
+                    });
+            if (!admitted) {
+                uploads.remove(reqId);
+                publishError(reqId, 503, "Server busy");
+                observeRequest(503, received);
+            }
+        }
 
-                        status = response.statusCode();
-                        respHeaders = response.headers().map();
-                        respData = response.body();
-                    } catch (Exception e) {
-                        respData = ("Error: " + e.getMessage()).getBytes(StandardCharsets.UTF_8);
-                        status = 502;
-                    }
+        void observeRequest(int status, long receivedNanos) {
+            Metrics.Histogram h = requestLatency.get(status);
+            if (h == null) h = requestLatency.computeIfAbsent(status,
+                    st -> metrics.histogram("jconnect_http_request_seconds", "status", String.valueOf(st)));
+            h.observeSince(receivedNanos);
+            probe.recordSince("request", receivedNanos);
+        }
 
-                    // Output to Firebase 
-                    final Map<String, Object> outVal = new HashMap<>();
-                    outVal.put("reqId", reqId);
-                    outVal.put("status", status);
-                    outVal.put("headers", respHeaders);
-                    outVal.put("body", Base64.getEncoder().encodeToString(respData));
-
-                    new Thread(() -> {
-                        r.output.push().setValueAsync(outVal);
-                    }).start();
-                    
+        void close() {
+            dispatcher.close();
+            senders.values().forEach(s -> s.abort("Session stopped"));
+            upstream.close();
+        }
+
+        void onUploadSegment(Map<String, Object> val) {
+            BlockingQueue<Map<String, Object>> q = uploads.get(val.get("reqId"));
+            if (q != null) q.offer(val);
+        }
+
+        void onAck(Map<String, Object> val) {
+            SegmentedTransfer.Sender s = senders.get(val.get("reqId"));
+            if (s != null) s.onAck(val);
+        }
+
+        // Returns the status sent to the client. A traced request gets our hop times back in "trace".
+        int proxy(Map<String, Object> val, int port, long deadlineNanos, long receivedNanos) {
+            long begun = System.nanoTime();
+            queueLatency.observeNanos(begun - receivedNanos);
+            probe.record("queue", (begun - receivedNanos) / 1e6);
+            Map<String, Object> trace = Boolean.TRUE.equals(val.get("trace")) ? new LinkedHashMap<>() : null;
+            if (trace != null) trace.put("queueMs", (begun - receivedNanos) / 1e6);
+            String reqId = (String) val.get("reqId");
+            String method = (String) val.get("method");
+            String uri = (String) val.get("uri");
+            Map<String, Object> headers = val.containsKey("headers") ?
+                    (Map<String, Object>) val.get("headers") : new HashMap<>();
+            byte[] body = val.get("body") != null ? codec.get(val, "body") : new byte[0];
+            boolean stream = Boolean.TRUE.equals(val.get("stream"));
+            // a client that sends "window" acks our response segments and expects acks for its own
+            Integer window = (val.get("window") instanceof Number n) ? n.intValue() : null;
+            BlockingQueue<Map<String, Object>> upload = uploads.get(reqId);
+
+            // HTTP Request
+            int status = 500;
+            byte[] respData = new byte[0];
+            Map<String, List<String>> respHeaders = new HashMap<>();
+            boolean compress = false;
+            try {
+                HttpClient client = upstream.client(port);
+                HttpRequest.BodyPublisher publisher;
+                if (upload != null) {
+                    SegmentedTransfer.Receiver in = new SegmentedTransfer.Receiver(ch, Transport.OUTPUT, reqId, codec,
+                            upload, window != null ? window : segmentWindow, upstream.readTimeout(port).toMillis(), true);
+                    publisher = HttpRequest.BodyPublishers.ofInputStream(in::asInputStream);
+                } else if (body.length > 0) {
+                    publisher = HttpRequest.BodyPublishers.ofByteArray(body);
+                } else {
+                    publisher = HttpRequest.BodyPublishers.noBody();
                 }
-                snapshot.getRef().removeValueAsync();
+                HttpRequest.Builder reqBuilder = upstream.request(port, method, uri, headers, publisher);
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    publishError(reqId, 504, "Deadline exceeded");
+                    return 504;
+                }
+                Duration timeout = Duration.ofNanos(remaining);
+                if (timeout.compareTo(upstream.readTimeout(port)) < 0) reqBuilder.timeout(timeout);
+
+                HttpRequest request = reqBuilder.build();
+                Metrics.Histogram upstreamLatency = metrics.histogram("jconnect_upstream_seconds", "port", String.valueOf(port));
+                long sent = System.nanoTime();
+                if (stream) {
+                    // Client asked for streaming: headers first, then body chunks as they arrive
+                    HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                    upstreamLatency.observeSince(sent);
+                    probe.recordSince("upstream", sent);
+                    if (trace != null) trace.put("upstreamMs", (System.nanoTime() - sent) / 1e6);
+                    final Map<String, Object> head = new HashMap<>();
+                    head.put("reqId", reqId);
+                    head.put("status", response.statusCode());
+                    head.put("headers", response.headers().map());
+                    head.put("stream", true);
+                    addTrace(head, trace, receivedNanos);
+                    ch.publish(Transport.OUTPUT, head);
+                    streamBody(reqId, response.body(), compressible(response.headers()), window);
+                    return response.statusCode();
+                }
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                upstreamLatency.observeSince(sent);
+                probe.recordSince("upstream", sent);
+                if (trace != null) trace.put("upstreamMs", (System.nanoTime() - sent) / 1e6);
+
+                status = response.statusCode();
+                respHeaders = response.headers().map();
+                respData = response.body();
+                compress = compressible(response.headers());
+            } catch (HttpTimeoutException e) {
+                respData = ("Timeout: " + e.getMessage()).getBytes(StandardCharsets.UTF_8);
+                status = 504;
+            } catch (Exception e) {
+                respData = ("Error: " + e.getMessage()).getBytes(StandardCharsets.UTF_8);
+                status = 502;
             }
-            @Override public void onChildChanged(DataSnapshot s, String p) {}
-            @Override public void onChildRemoved(DataSnapshot s) {}
-            @Override public void onChildMoved(DataSnapshot s, String p) {}
-            @Override public void onCancelled(DatabaseError e) {}
-        });
 
-        System.out.println("HTTP server proxy running. Waiting for HTTP requests from Firebase client.");
+            // Output to transport
+            final Map<String, Object> outVal = new HashMap<>();
+            outVal.put("reqId", reqId);
+            outVal.put("status", status);
+            outVal.put("headers", respHeaders);
+            codec.put(outVal, "body", respData, compress);
+            addTrace(outVal, trace, receivedNanos);
+            ch.publish(Transport.OUTPUT, outVal);
+            return status;
+        }
+
+        static void addTrace(Map<String, Object> frame, Map<String, Object> trace, long receivedNanos) {
+            if (trace == null) return;
+            trace.put("serverMs", (System.nanoTime() - receivedNanos) / 1e6);
+            frame.put("trace", trace);
+        }
+
+        static boolean compressible(HttpHeaders h) {
+            return FrameCodec.compressible(h.firstValue("content-type").orElse(null),
+                    h.firstValue("content-encoding").orElse(null));
+        }
+
+        void publishError(String reqId, int status, String message) {
+            Map<String, Object> outVal = new HashMap<>();
+            outVal.put("reqId", reqId);
+            outVal.put("status", status);
+            outVal.put("headers", status == 503 ? Map.of("Retry-After", List.of("1")) : new HashMap<>());
+            outVal.put("body", Base64.getEncoder().encodeToString(message.getBytes(StandardCharsets.UTF_8)));
+            ch.publish(Transport.OUTPUT, outVal);
+        }
 
-        while (true) Thread.sleep(10000);
-        // System.out.println("HTTP server proxy down.");
+        // Sends the upstream body as numbered segments and a final end marker. With a window from the
+        // client, at most that many segments are unacknowledged; otherwise at most segmentWindow store
+        // writes are unconfirmed. Either way memory per request stays bounded.
+        void streamBody(String reqId, InputStream body, boolean compress, Integer window) {
+            SegmentedTransfer.Sender out = new SegmentedTransfer.Sender(ch, Transport.OUTPUT, reqId, codec, compress,
+                    segmentBytes, window != null ? window : segmentWindow, window != null);
+            senders.put(reqId, out);
+            String error = null;
+            try (InputStream in = body) {
+                byte[] buf = new byte[segmentBytes];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            } catch (IOException e) {
+                error = String.valueOf(e.getMessage());
+            } catch (InterruptedException e) {
+                error = "interrupted";
+            }
+            try {
+                out.finish(error);
+            } catch (IOException | InterruptedException e) {
+                out.abort(String.valueOf(e.getMessage()));
+            } finally {
+                senders.remove(reqId);
+            }
+        }
+    }
+
+    // ---- TCP FEATURE ----
+    static SessionHandle runTCPServer(Transport transport, String sessionId, Options opts) throws Exception {
+        SessionHandle session = new SessionHandle("tcp", sessionId);
+        Transport.Channel ch = session.metrics.meter(
+                FastPathChannel.wrap(transport.channel("sessions/" + sessionId + "/tcp"), "server", opts));
+        session.onClose(ch::close);
+        ch.setState(Map.of("status", "connected"));
+        TcpRelay relay = TcpRelay.fromOptions(ch, opts);
+        session.own(relay.codec.negotiate(ch));
+        LatencyProbe probe = session.probe = LatencyProbe.fromOptions(ch, Transport.OUTPUT, opts, session.metrics);
+        session.own(probe.start());
+        relay.start();
+        session.onClose(relay::close);
+        session.metrics.gauge("jconnect_tcp_streams_open", () -> relay.open);
+        session.own(Workers.every(5000, () -> ch.updateState(Map.of("relay", relay.stats(), "codec", relay.codec.stats()))));
+
+        session.own(ch.subscribe(Transport.INPUT, frame -> {
+            Map<String, Object> val = frame.data;
+            if (!probe.onFrame(val) && val != null && val.containsKey("sid")) relay.onFrame(val);
+            frame.ack();
+        }));
+
+        System.out.println("TCP relay running. Waiting for streams from the client.");
+        return session;
     }
 
     // ---- MANAGE FEATURE ----
+    // Sessions run inside the manager's JVM (one transport connection and scheduler for all),
+    // or with -isolate each in its own JServ process, taken from a pool of pre-started workers.
     static class FeatureManager {
         static class SessionInfo {
-            Process proc;
+            ProcessHandle proc;    // isolated session, also one reattached after a manager restart
+            WorkerPool.Lease lease;
+            SessionHandle handle;  // in-process session
             String status;
             String startedAt;
             Integer port; // for HTTP
+            Long startMs;  // start request -> session up
+            Boolean warm;  // isolated: served by a pre-started worker
+
+            String currentStatus() {
+                if (handle != null) return handle.status;
+                if (proc != null && !proc.isAlive() && !"failed".equals(status)) return "exited";
+                return status;
+            }
+
+            // RTT and per-hop percentiles as measured by the session (LatencyProbe.summary)
+            Map<String, Object> latency() {
+                if (handle != null) return handle.probe != null ? handle.probe.summary() : null;
+                return lease != null ? lease.latency : null;
+            }
         }
         static class HistoryEntry {
             String action, time, sessionId;
@@ -247,104 +610,325 @@ public class JServ {
                 this.action = action; this.time = time; this.sessionId = sessionId; this.port = port;
             }
         }
+        // The last HISTORY_LIMIT entries, oldest first
+        static class HistoryRing {
+            final HistoryEntry[] ring = new HistoryEntry[HISTORY_LIMIT];
+            int next, size; // guarded by this
+
+            synchronized void add(HistoryEntry h) {
+                ring[next] = h;
+                next = (next + 1) % ring.length;
+                if (size < ring.length) size++;
+            }
+
+            synchronized List<HistoryEntry> toList() {
+                List<HistoryEntry> l = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) l.add(ring[(next - size + i + ring.length) % ring.length]);
+                return l;
+            }
+        }
+
+        static final List<String> FEATURES = List.of("ssh", "http", "tcp");
 
-        Map<String, Boolean> enabled = Map.of("ssh", true, "http", true);
+        Map<String, Boolean> enabled = Map.of("ssh", true, "http", true, "tcp", true);
         Map<String, Map<String, SessionInfo>> sessions = Map.of(
                 "ssh", new ConcurrentHashMap<>(),
-                "http", new ConcurrentHashMap<>()
+                "http", new ConcurrentHashMap<>(),
+                "tcp", new ConcurrentHashMap<>()
         );
-        Map<String, List<HistoryEntry>> history = Map.of(
-                "ssh", Collections.synchronizedList(new ArrayList<>()),
-                "http", Collections.synchronizedList(new ArrayList<>())
+        Map<String, HistoryRing> history = Map.of(
+                "ssh", new HistoryRing(),
+                "http", new HistoryRing(),
+                "tcp", new HistoryRing()
         );
+        // Extra options (e.g. -transport=...) passed on to every session process
+        List<String> childArgs = new ArrayList<>();
+        WorkerPool pool;     // isolated sessions, null when sessions run in-process
+        Transport transport; // shared by in-process sessions, opened at startup; null with -isolate
+        ManagerJournal journal; // null with -nojournal
+
+        // Runs the session in this JVM with the same options an isolated one would get
+        SessionHandle startInProcess(String feature, String sessionId) throws Exception {
+            List<String> args = new ArrayList<>(List.of(feature, sessionId));
+            args.addAll(childArgs);
+            Options opts = Options.parse(args.toArray(new String[0]));
+            return runSession(transport, feature, sessionId, opts);
+        }
+
+        // "starting" until the worker reports the session up; the latency is recorded then
+        void startIsolated(SessionInfo info, String feature, String sessionId, String sessionKey) throws IOException {
+            WorkerPool.Lease lease = pool.assign(feature, sessionId);
+            info.proc = lease.proc.toHandle();
+            info.lease = lease;
+            info.warm = lease.warm;
+            info.status = "starting";
+            lease.started.whenComplete((ms, e) -> {
+                synchronized (this) {
+                    info.startMs = ms;
+                    info.status = e == null ? "running" : "failed";
+                }
+                sessionChanged(feature, sessionKey);
+                if (e != null) System.err.println("[manage] " + feature + " " + sessionId + ": " + e.getMessage());
+            });
+        }
+
+        // ---- Change events (/api/events) and the versioned snapshot (/api/status) ----
+        // Every change is one event with the next version; the snapshot is rebuilt only when the
+        // version moved. A listener that falls LISTENER_BACKLOG events behind is dropped and gets
+        // a fresh snapshot when its EventSource reconnects.
+        static final int HISTORY_LIMIT = 20;
+        static final int LISTENER_BACKLOG = 1024;
+        static final String CLOSED = "";
+
+        record Snapshot(long version, byte[] json) {
+            String etag() {
+                return "\"" + version + "\"";
+            }
+        }
+
+        long version;                 // guarded by this
+        Snapshot snapshot;            // guarded by this
+        final List<BlockingQueue<String>> listeners = new CopyOnWriteArrayList<>();
+        final Map<String, Map<String, Object>> sent = new HashMap<>(); // feature/key -> session as last pushed, guarded by this
+        Map<String, Object> sentPool; // guarded by this
+
+        static String sseEvent(String type, String json) {
+            return "event: " + type + "\ndata: " + json + "\n\n";
+        }
+
+        synchronized void emit(String type, Map<String, Object> event) {
+            event.put("version", ++version);
+            String line = sseEvent(type, gson.toJson(event));
+            for (BlockingQueue<String> q : listeners) {
+                if (!q.offer(line)) {
+                    listeners.remove(q);
+                    q.clear();
+                    q.offer(CLOSED);
+                }
+            }
+        }
+
+        // Queue of SSE lines for one client, starting with the full state
+        synchronized BlockingQueue<String> subscribe() {
+            BlockingQueue<String> q = new LinkedBlockingQueue<>(LISTENER_BACKLOG);
+            q.offer(sseEvent("snapshot", new String(statusSnapshot().json(), StandardCharsets.UTF_8)));
+            listeners.add(q);
+            return q;
+        }
+
+        synchronized Snapshot statusSnapshot() {
+            if (snapshot == null || snapshot.version() != version) {
+                Map<String, Object> status = getStatus();
+                status.put("version", version);
+                snapshot = new Snapshot(version, gson.toJson(status).getBytes(StandardCharsets.UTF_8));
+            }
+            return snapshot;
+        }
+
+        // Pushes the session if it looks different from what listeners last got, or its removal
+        synchronized void sessionChanged(String feature, String key) {
+            SessionInfo info = sessions.get(feature).get(key);
+            Map<String, Object> view = info != null ? sessionView(feature, key, info) : null;
+            Map<String, Object> last = view != null ? sent.put(feature + "/" + key, view) : sent.remove(feature + "/" + key);
+            if (Objects.equals(view, last)) return;
+            Map<String, Object> event = new HashMap<>();
+            event.put("feature", feature);
+            event.put("key", key);
+            if (view != null) event.put("session", view);
+            emit(view != null ? "session" : "removed", event);
+        }
+
+        // Session exits and worker deaths happen outside setFeature
+        void watch(String feature, String key, SessionInfo info) {
+            if (info.handle != null) info.handle.exit.thenRun(() -> ended(feature, key, info));
+            if (info.proc != null) info.proc.onExit().thenRun(() -> ended(feature, key, info));
+        }
+
+        // Listed as exited until stopped, but a restarted manager need not bring it back
+        synchronized void ended(String feature, String key, SessionInfo info) {
+            sessionChanged(feature, key);
+            if (sessions.get(feature).get(key) == info) journal(record("stop", feature, key));
+        }
+
+        // Every 5s: latency summaries and worker pool numbers move without any action
+        synchronized void sweep() {
+            for (String feat : FEATURES)
+                for (String key : new ArrayList<>(sessions.get(feat).keySet())) sessionChanged(feat, key);
+            if (pool != null) {
+                Map<String, Object> stats = pool.stats();
+                if (!stats.equals(sentPool)) {
+                    sentPool = stats;
+                    emit("workerPool", new HashMap<>(Map.of("workerPool", stats)));
+                }
+            }
+        }
+
+        synchronized void addHistory(String feature, HistoryEntry h) {
+            history.get(feature).add(h);
+            Map<String, Object> entry = record("history", feature, null);
+            entry.put("entry", historyView(h));
+            journal(entry);
+            Map<String, Object> event = new HashMap<>();
+            event.put("feature", feature);
+            event.put("entry", historyView(h));
+            emit("history", event);
+        }
+
+        static Map<String, Object> historyView(HistoryEntry h) {
+            Map<String, Object> he = new HashMap<>();
+            he.put("action", h.action);
+            he.put("time", h.time);
+            if (h.sessionId != null) he.put("sessionId", h.sessionId);
+            if (h.port != null) he.put("port", h.port);
+            return he;
+        }
+
+        Map<String, Object> sessionView(String feature, String key, SessionInfo info) {
+            Map<String, Object> s = new HashMap<>();
+            s.put("key", key);
+            s.put("sessionId", key.contains(":") ? key.substring(0, key.indexOf(':')) : key);
+            s.put("status", info.currentStatus());
+            s.put("startedAt", info.startedAt);
+            s.put("pid", info.proc != null ? info.proc.pid() : null);
+            s.put("mode", info.handle != null ? "in-process" : "process");
+            s.put("startMs", info.startMs);
+            if (info.warm != null) s.put("warm", info.warm);
+            s.put("latency", info.latency());
+            if (feature.equals("http"))
+                s.put("port", info.port);
+            return s;
+        }
 
         synchronized Map<String, Object> getStatus() {
             Map<String, Object> res = new HashMap<>();
-            for (String feat : List.of("ssh", "http")) {
+            for (String feat : FEATURES) {
                 Map<String, Object> f = new HashMap<>();
                 f.put("enabled", enabled.get(feat));
                 List<Map<String, Object>> sessList = new ArrayList<>();
-                for (Map.Entry<String, SessionInfo> e : sessions.get(feat).entrySet()) {
-                    Map<String, Object> s = new HashMap<>();
-                    s.put("sessionId", e.getKey());
-                    s.put("status", e.getValue().status);
-                    s.put("startedAt", e.getValue().startedAt);
-                    s.put("pid", e.getValue().proc != null ? e.getValue().proc.pid() : null);
-                    if (feat.equals("http"))
-                        s.put("port", e.getValue().port);
-                    sessList.add(s);
-                }
+                for (Map.Entry<String, SessionInfo> e : sessions.get(feat).entrySet())
+                    sessList.add(sessionView(feat, e.getKey(), e.getValue()));
                 f.put("sessions", sessList);
-                f.put("history", history.get(feat).stream()
-                        .skip(Math.max(0, history.get(feat).size() - 20))
-                        .map(h -> {
-                            Map<String, Object> he = new HashMap<>();
-                            he.put("action", h.action);
-                            he.put("time", h.time);
-                            if (h.sessionId != null) he.put("sessionId", h.sessionId);
-                            if (h.port != null) he.put("port", h.port);
-                            return he;
-                        }).collect(Collectors.toList()));
+                f.put("history", history.get(feat).toList().stream()
+                        .map(FeatureManager::historyView).collect(Collectors.toList()));
                 res.put(feat, f);
             }
+            if (pool != null) res.put("workerPool", pool.stats());
             return res;
         }
 
-        synchronized Map<String, Object> setFeature(String feature, String action, String sessionId, Integer port) {
-            if (!List.of("ssh", "http").contains(feature))
+        // Prometheus text for /api/metrics: each session's series labelled with feature and session,
+        // read from the handle in-process or from the worker's last report
+        String metricsText() {
+            Map<String, Map<String, Object>> snapshots = new LinkedHashMap<>();
+            Map<String, Number> gauges = new LinkedHashMap<>();
+            for (String feat : FEATURES) {
+                Map<String, Integer> byStatus = new TreeMap<>();
+                sessions.get(feat).forEach((key, info) -> {
+                    byStatus.merge(String.valueOf(info.currentStatus()), 1, Integer::sum);
+                    if (info.startMs != null)
+                        gauges.put(Metrics.key("jconnect_session_start_seconds", "feature", feat, "session", key), info.startMs / 1000.0);
+                    Map<String, Object> snap = info.handle != null ? info.handle.metrics.snapshot()
+                            : info.lease != null ? info.lease.metrics : null;
+                    if (snap != null) snapshots.put(Metrics.labels("feature", feat, "session", key), snap);
+                });
+                byStatus.forEach((status, n) -> gauges.put(Metrics.key("jconnect_sessions", "feature", feat, "status", status), n));
+            }
+            if (pool != null) {
+                gauges.put("jconnect_worker_pool_idle", pool.idle.size());
+                gauges.put("jconnect_worker_pool_starting", pool.spawned.size());
+            }
+            return Metrics.toPrometheus(snapshots, gauges);
+        }
+
+        Map<String, Object> setFeature(String feature, String action, String sessionId, Integer port) {
+            if (!FEATURES.contains(feature))
                 return Map.of("error", "Invalid feature");
+            return action.equals("start") ? start(feature, sessionId, port) : change(feature, action, sessionId, port);
+        }
+
+        // An in-process session is built outside the lock (PTY spawn, subscriptions, first store
+        // round trips), so /api/status, /api/events and session exits do not wait for it. Its key
+        // is held meanwhile by a "starting" entry; a stop in between closes it once it is up.
+        Map<String, Object> start(String feature, String sessionId, Integer port) {
+            String now = Instant.now().toString();
+            String sessionKey = feature.equals("http") && port != null ? sessionId + ":" + port : sessionId;
+            SessionInfo info = new SessionInfo();
+            info.startedAt = now;
+            if (feature.equals("http") && port != null) info.port = port;
+            synchronized (this) {
+                if (!enabled.get(feature)) return Map.of("error", "Feature disabled");
+                if (sessionId == null || sessionId.isEmpty()) return Map.of("error", "Session ID is required");
+                SessionInfo existing = sessions.get(feature).get(sessionKey);
+                if (existing != null && List.of("running", "starting").contains(existing.currentStatus()))
+                    return Map.of("error", "Session already running");
+                if (pool != null) {
+                    try {
+                        startIsolated(info, feature, sessionId, sessionKey);
+                    } catch (Exception e) {
+                        return Map.of("error", "Failed to start: " + e.getMessage());
+                    }
+                    return started(feature, sessionKey, info, now, sessionId, port);
+                }
+                info.status = "starting";
+                sessions.get(feature).put(sessionKey, info);
+                sessionChanged(feature, sessionKey);
+            }
+            long t0 = System.nanoTime();
+            SessionHandle handle;
+            try {
+                handle = startInProcess(feature, sessionId);
+            } catch (Exception e) {
+                synchronized (this) {
+                    if (sessions.get(feature).remove(sessionKey, info)) sessionChanged(feature, sessionKey);
+                }
+                return Map.of("error", "Failed to start: " + e.getMessage());
+            }
+            synchronized (this) {
+                if (sessions.get(feature).get(sessionKey) != info) {
+                    handle.close();
+                    return Map.of("error", "Stopped while starting");
+                }
+                info.handle = handle;
+                info.startMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+                info.status = "running";
+                return started(feature, sessionKey, info, now, sessionId, port);
+            }
+        }
+
+        synchronized Map<String, Object> started(String feature, String sessionKey, SessionInfo info, String now,
+                                                 String sessionId, Integer port) {
+            sessions.get(feature).put(sessionKey, info);
+            journal(startRecord(feature, sessionKey, info));
+            sessionChanged(feature, sessionKey);
+            watch(feature, sessionKey, info);
+            addHistory(feature, new HistoryEntry("start", now, sessionId, port));
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            return result;
+        }
+
+        synchronized Map<String, Object> change(String feature, String action, String sessionId, Integer port) {
             String now = Instant.now().toString();
             Map<String, Object> result = new HashMap<>();
             if (action.equals("enable")) {
                 enabled = new HashMap<>(enabled); enabled.put(feature, true);
-                history.get(feature).add(new HistoryEntry(action, now, null, null));
+                journal(enabledRecord(feature));
+                emit("feature", new HashMap<>(Map.of("feature", feature, "enabled", true)));
+                addHistory(feature, new HistoryEntry(action, now, null, null));
                 result.put("success", true);
                 return result;
             }
             if (action.equals("disable")) {
                 enabled = new HashMap<>(enabled); enabled.put(feature, false);
+                journal(enabledRecord(feature));
+                emit("feature", new HashMap<>(Map.of("feature", feature, "enabled", false)));
                 // Stop all sessions
                 for (String sid : new ArrayList<>(sessions.get(feature).keySet()))
                     stopSession(feature, sid);
-                history.get(feature).add(new HistoryEntry(action, now, null, null));
+                addHistory(feature, new HistoryEntry(action, now, null, null));
                 result.put("success", true);
                 return result;
             }
-            if (action.equals("start")) {
-                if (!enabled.get(feature)) return Map.of("error", "Feature disabled");
-                if (sessionId == null || sessionId.isEmpty()) return Map.of("error", "Session ID is required");
-                String sessionKey = feature.equals("http") && port != null ? sessionId + ":" + port : sessionId;
-                if (sessions.get(feature).containsKey(sessionKey)) return Map.of("error", "Session already running");
-                // Start process
-                try {
-
-                    List<String> cmd = new ArrayList<>();
-
-                    cmd.add(System.getProperty("java.home") + "/bin/java");
-                    cmd.add("-Duser.dir=" + System.getProperty("user.dir"));
-                    cmd.add("-cp");
-                    cmd.add(System.getProperty("java.class.path"));
-                    cmd.add(JServ.class.getName());
-                    cmd.add(feature); cmd.add(sessionId);
-
-                    ProcessBuilder pb = new ProcessBuilder(cmd);
-                    pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
-                    pb.redirectError(ProcessBuilder.Redirect.DISCARD);
-                    Process proc = pb.start();
-                    // Detach: Java doesn't support full OS detach, but we don't wait for it.
-                    SessionInfo info = new SessionInfo();
-                    info.proc = proc;
-                    info.status = "running";
-                    info.startedAt = now;
-                    if (feature.equals("http") && port != null) info.port = port;
-                    sessions.get(feature).put(sessionKey, info);
-                    history.get(feature).add(new HistoryEntry(action, now, sessionId, port));
-                    result.put("success", true);
-                    return result;
-                } catch (Exception e) {
-                    return Map.of("error", "Failed to start: " + e.getMessage());
-                }
-            }
             if (action.equals("stop")) {
                 if (sessionId == null || sessionId.isEmpty()) return Map.of("error", "Session ID is required");
                 String sessionKey = feature.equals("http") && port != null ? sessionId + ":" + port : sessionId;
@@ -356,22 +940,157 @@ public class JServ {
             return Map.of("error", "Unknown action");
         }
 
-        void stopSession(String feature, String sessionKey) {
+        synchronized void stopSession(String feature, String sessionKey) {
             SessionInfo s = sessions.get(feature).get(sessionKey);
             if (s != null && s.proc != null) {
                 s.proc.destroy();
             }
+            if (s != null && s.handle != null) {
+                s.handle.close();
+            }
             if (s != null) s.status = "stopped";
             sessions.get(feature).remove(sessionKey);
+            journal(record("stop", feature, sessionKey));
             String now = Instant.now().toString();
             String sid = sessionKey.contains(":") ? sessionKey.split(":")[0] : sessionKey;
             Integer p = sessionKey.contains(":") ? Integer.valueOf(sessionKey.split(":")[1]) : null;
-            history.get(feature).add(new HistoryEntry("stop", now, sid, p));
+            sessionChanged(feature, sessionKey);
+            addHistory(feature, new HistoryEntry("stop", now, sid, p));
+        }
+
+        // ---- Journal (ManagerJournal) ----
+        // Records: {op: enabled|history|start|stop, feature, ...}. Replaying them in order gives the
+        // switches, the history rings and the sessions that were live.
+        synchronized void journal(Map<String, Object> record) {
+            if (journal != null) journal.append(record, this::journalState);
+        }
+
+        static Map<String, Object> record(String op, String feature, String key) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("op", op);
+            r.put("feature", feature);
+            if (key != null) r.put("key", key);
+            return r;
+        }
+
+        Map<String, Object> enabledRecord(String feature) {
+            Map<String, Object> r = record("enabled", feature, null);
+            r.put("enabled", enabled.get(feature));
+            return r;
+        }
+
+        // pidStart tells a reattached pid from a new process that got the same number
+        static Map<String, Object> startRecord(String feature, String key, SessionInfo info) {
+            Map<String, Object> r = record("start", feature, key);
+            r.put("startedAt", info.startedAt);
+            if (info.port != null) r.put("port", info.port);
+            if (info.startMs != null) r.put("startMs", info.startMs);
+            if (info.warm != null) r.put("warm", info.warm);
+            if (info.proc != null) {
+                r.put("pid", info.proc.pid());
+                info.proc.info().startInstant().ifPresent(t -> r.put("pidStart", t.toEpochMilli()));
+            }
+            return r;
+        }
+
+        synchronized List<Map<String, Object>> journalState() {
+            List<Map<String, Object>> records = new ArrayList<>();
+            for (String feat : FEATURES) {
+                records.add(enabledRecord(feat));
+                for (HistoryEntry h : history.get(feat).toList()) {
+                    Map<String, Object> r = record("history", feat, null);
+                    r.put("entry", historyView(h));
+                    records.add(r);
+                }
+                sessions.get(feat).forEach((key, info) -> {
+                    if (List.of("running", "starting").contains(info.currentStatus()))
+                        records.add(startRecord(feat, key, info));
+                });
+            }
+            return records;
+        }
+
+        synchronized void maintainJournal() {
+            if (journal != null) journal.maintain(this::journalState);
+        }
+
+        // Replays the journal: session processes still alive are reattached, the rest are listed
+        // as lost. Returns the in-process sessions that were running, to be started again.
+        synchronized List<Map<String, Object>> restore(List<Map<String, Object>> records) throws IOException {
+            Map<String, Map<String, Object>> live = new LinkedHashMap<>();
+            for (Map<String, Object> r : records) {
+                String feat = (String) r.get("feature");
+                if (!FEATURES.contains(feat)) continue;
+                switch (String.valueOf(r.get("op"))) {
+                    case "enabled" -> {
+                        enabled = new HashMap<>(enabled);
+                        enabled.put(feat, Boolean.TRUE.equals(r.get("enabled")));
+                    }
+                    case "history" -> {
+                        Map<String, Object> e = (Map<String, Object>) r.get("entry");
+                        history.get(feat).add(new HistoryEntry((String) e.get("action"), (String) e.get("time"),
+                                (String) e.get("sessionId"), e.get("port") instanceof Number n ? n.intValue() : null));
+                    }
+                    case "start" -> live.put(feat + "/" + r.get("key"), r);
+                    case "stop" -> live.remove(feat + "/" + r.get("key"));
+                    default -> {}
+                }
+            }
+            List<Map<String, Object>> resume = new ArrayList<>();
+            String now = Instant.now().toString();
+            for (Map<String, Object> r : live.values()) {
+                String feat = (String) r.get("feature");
+                String key = (String) r.get("key");
+                String sid = key.contains(":") ? key.substring(0, key.indexOf(':')) : key;
+                Integer port = r.get("port") instanceof Number n ? n.intValue() : null;
+                if (!(r.get("pid") instanceof Number pid)) {
+                    resume.add(r);
+                    continue;
+                }
+                Long pidStart = r.get("pidStart") instanceof Number n ? n.longValue() : null;
+                Optional<ProcessHandle> proc = ProcessHandle.of(pid.longValue()).filter(ProcessHandle::isAlive)
+                        .filter(ph -> pidStart == null || ph.info().startInstant().map(t -> t.toEpochMilli() == pidStart).orElse(true));
+                if (proc.isEmpty()) {
+                    history.get(feat).add(new HistoryEntry("lost", now, sid, port));
+                    continue;
+                }
+                SessionInfo info = new SessionInfo();
+                info.proc = proc.get();
+                info.status = "running";
+                info.startedAt = (String) r.get("startedAt");
+                info.port = port;
+                info.startMs = r.get("startMs") instanceof Number n ? n.longValue() : null;
+                info.warm = r.get("warm") instanceof Boolean b ? b : null;
+                sessions.get(feat).put(key, info);
+                watch(feat, key, info);
+                history.get(feat).add(new HistoryEntry("reattach", now, sid, port));
+            }
+            journal.compact(journalState());
+            return resume;
         }
     }
 
-    static void runManageServer(boolean startWebAt1) throws IOException {
+    static void runManageServer(boolean startWebAt1, Options opts) throws IOException {
         FeatureManager mgr = new FeatureManager();
+        mgr.childArgs.addAll(opts.passThrough("p", "isolate", "prewarm", "cds", "journal", "journalBytes", "nojournal"));
+        if (opts.has("isolate")) {
+            mgr.pool = WorkerPool.fromOptions(opts, mgr.childArgs);
+            mgr.pool.start();
+        } else {
+            mgr.transport = Transport.open(opts.get("transport", "firebase"));
+        }
+        mgr.journal = ManagerJournal.fromOptions(opts);
+        if (mgr.journal != null) {
+            for (Map<String, Object> r : mgr.restore(mgr.journal.replay())) {
+                String key = (String) r.get("key");
+                Map<String, Object> result = mgr.setFeature((String) r.get("feature"), "start",
+                        key.contains(":") ? key.substring(0, key.indexOf(':')) : key,
+                        r.get("port") instanceof Number n ? n.intValue() : null);
+                if (result.get("error") != null)
+                    System.err.println("[manage] Could not restart " + r.get("feature") + " " + key + ": " + result.get("error"));
+            }
+            Workers.every(10000, mgr::maintainJournal);
+        }
         if (startWebAt1) {
             Map<String, Object> result = mgr.setFeature("http", "start", "1", null);
             if (result.get("success") == null || !(Boolean) result.get("success")) {
@@ -381,20 +1100,58 @@ public class JServ {
             }
         }
         com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(MANAGE_PORT), 0);
-        // API: /api/status
+        Workers.every(5000, mgr::sweep);
+        // API: /api/status, the full state; ETag is its version
         server.createContext("/api/status", exchange -> {
             if ("GET".equals(exchange.getRequestMethod())) {
-                byte[] resp = gson.toJson(mgr.getStatus()).getBytes(StandardCharsets.UTF_8);
-                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                FeatureManager.Snapshot snap = mgr.statusSnapshot();
+                exchange.getResponseHeaders().add("ETag", snap.etag());
+                exchange.getResponseHeaders().add("Cache-Control", "no-cache");
                 addCORS(exchange);
-                exchange.sendResponseHeaders(200, resp.length);
-                exchange.getResponseBody().write(resp);
+                if (snap.etag().equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, snap.json().length);
+                    exchange.getResponseBody().write(snap.json());
+                }
             } else {
                 addCORS(exchange);
                 exchange.sendResponseHeaders(204, -1);
             }
             exchange.close();
         });
+        // API: /api/events, Server-Sent Events: a snapshot, then session/removed/history/feature/workerPool
+        // changes, each with its version
+        server.createContext("/api/events", exchange -> {
+            BlockingQueue<String> events = mgr.subscribe();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            addCORS(exchange);
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                while (true) {
+                    String ev = events.poll(15, TimeUnit.SECONDS);
+                    if (ev == FeatureManager.CLOSED) break;
+                    os.write((ev != null ? ev : ": keepalive\n\n").getBytes(StandardCharsets.UTF_8));
+                    os.flush();
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // client went away
+            } finally {
+                mgr.listeners.remove(events);
+                exchange.close();
+            }
+        });
+        // API: /api/metrics (Prometheus text format)
+        server.createContext("/api/metrics", exchange -> {
+            byte[] resp = mgr.metricsText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            addCORS(exchange);
+            exchange.sendResponseHeaders(200, resp.length);
+            exchange.getResponseBody().write(resp);
+            exchange.close();
+        });
         // API: /api/feature/{feature}
         server.createContext("/api/feature/", exchange -> {
             String[] segs = exchange.getRequestURI().getPath().split("/");
@@ -0,0 +1,128 @@
+package com.jay.jconnect;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Round-trip probes and per-hop latency samples for one end of a session.
+ *
+ * Each end sends {ping: seq, t: nanoTime} on its outgoing stream every pingMs and answers a
+ * ping from the other end with {pong: seq, t} (t echoed). Only the sender reads its clock, so
+ * the hosts need not agree on the time. The RTT covers store write, the peer's listener and
+ * the way back, over whichever path the channel is using (RTDB or fast path).
+ *
+ * Traced HTTP requests (JCli -trace) carry trace: true; the server answers with how long its
+ * hops took (queue, upstream, server total) and the client adds its own (write: store
+ * confirmed the request, response: first response frame). response - server is the time spent
+ * in the store and the listeners, both ways.
+ *
+ * Samples are kept per hop in a ring of the last WINDOW values and summarized on demand.
+ *
+ * Options: -pingMs=5000 (0 = off)
+ */
+class LatencyProbe {
+    static final int WINDOW = 1024;
+
+    static class Samples {
+        final double[] ring = new double[WINDOW];
+        long count; // guarded by this
+
+        synchronized void add(double ms) {
+            ring[(int) (count++ % WINDOW)] = ms;
+        }
+
+        synchronized Map<String, Object> summary() {
+            int n = (int) Math.min(count, WINDOW);
+            double[] sorted = Arrays.copyOf(ring, n);
+            Arrays.sort(sorted);
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("n", count);
+            if (n > 0) {
+                s.put("p50", round(percentile(sorted, 0.50)));
+                s.put("p90", round(percentile(sorted, 0.90)));
+                s.put("p99", round(percentile(sorted, 0.99)));
+                s.put("max", round(sorted[n - 1]));
+            }
+            return s;
+        }
+
+        static double percentile(double[] sorted, double p) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+        }
+
+        static double round(double ms) {
+            return Math.round(ms * 100) / 100.0;
+        }
+    }
+
+    final Transport.Channel ch;
+    final String out;         // stream our pings and pongs go to
+    final long intervalMs;
+    final Metrics.Histogram rtt; // null when the end keeps no metrics (JCli)
+    final AtomicLong seq = new AtomicLong();
+    final Map<String, Samples> hops = new ConcurrentHashMap<>();
+
+    LatencyProbe(Transport.Channel ch, String out, long intervalMs, Metrics metrics) {
+        this.ch = ch;
+        this.out = out;
+        this.intervalMs = intervalMs;
+        this.rtt = metrics != null ? metrics.histogram("jconnect_rtt_seconds") : null;
+    }
+
+    static LatencyProbe fromOptions(Transport.Channel ch, String out, Options opts, Metrics metrics) {
+        return new LatencyProbe(ch, out, opts.getLong("pingMs", 5000), metrics);
+    }
+
+    // null when pings are off
+    ScheduledFuture<?> start() {
+        if (intervalMs <= 0) return null;
+        return Workers.every(intervalMs, () -> ch.publish(out, Map.of("ping", seq.incrementAndGet(), "t", System.nanoTime())));
+    }
+
+    // Answers a ping or records a pong; true if the frame was one of them
+    boolean onFrame(Map<String, Object> val) {
+        if (val == null) return false;
+        if (val.containsKey("ping")) {
+            ch.publish(out, Map.of("pong", val.get("ping"), "t", val.get("t")));
+            return true;
+        }
+        if (val.containsKey("pong")) {
+            if (val.get("t") instanceof Number t) {
+                long nanos = System.nanoTime() - t.longValue();
+                if (rtt != null) rtt.observeNanos(nanos);
+                record("rtt", nanos / 1e6);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    void record(String hop, double ms) {
+        Samples s = hops.get(hop);
+        if (s == null) s = hops.computeIfAbsent(hop, h -> new Samples());
+        s.add(ms);
+    }
+
+    void recordSince(String hop, long startNanos) {
+        record(hop, (System.nanoTime() - startNanos) / 1e6);
+    }
+
+    // hop -> {n, p50, p90, p99, max}, in ms
+    Map<String, Object> summary() {
+        Map<String, Object> s = new TreeMap<>();
+        hops.forEach((hop, samples) -> s.put(hop, samples.summary()));
+        return s;
+    }
+
+    static String format(Map<String, Object> summary) {
+        StringBuilder sb = new StringBuilder(String.format("%-16s %8s %9s %9s %9s %9s%n", "hop (ms)", "n", "p50", "p90", "p99", "max"));
+        summary.forEach((hop, v) -> {
+            Map<String, Object> m = (Map<String, Object>) v;
+            sb.append(String.format("%-16s %8s %9s %9s %9s %9s%n", hop, m.get("n"),
+                    m.getOrDefault("p50", "-"), m.getOrDefault("p90", "-"), m.getOrDefault("p99", "-"), m.getOrDefault("max", "-")));
+        });
+        return sb.toString();
+    }
+}
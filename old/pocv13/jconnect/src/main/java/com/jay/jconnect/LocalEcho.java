@@ -0,0 +1,271 @@
+package com.jay.jconnect;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Predictive local echo for the SSH client, in the manner of mosh.
+ *
+ * With the terminal in raw mode, printable keys and left/right arrows are drawn at once,
+ * underlined, instead of waiting a store round trip for the server's echo. Every server output
+ * chunk first takes the predictions off the screen, is matched against them in order and written
+ * as is; the predictions it did not confirm are then drawn again after it. A byte that does not
+ * match (no echo, a full-screen program, a background job writing) drops them all, and so does a
+ * prediction left unconfirmed for timeoutMs (password prompts). After that, or after any key we
+ * cannot predict (Enter, Backspace, control keys), a new epoch starts: its predictions are kept
+ * hidden until the server confirms one of them, so the first key after a prompt change always
+ * goes the slow way and nothing typed ahead is drawn on the old line.
+ *
+ * Predictions are placed relative to where the server left the cursor and are never wrapped;
+ * the terminal width is not known here.
+ *
+ * Options: -nopredict -predictTimeoutMs=1000
+ */
+class LocalEcho {
+    static final byte ESC = 0x1b;
+    static final byte[] UNDERLINE = {ESC, '[', '4', 'm'};
+    static final byte[] NO_UNDERLINE = {ESC, '[', '2', '4', 'm'};
+
+    // One predicted key: what we draw for it and what the server's echo of it may look like
+    static final class Prediction {
+        final byte ch;          // drawn character, 0 for an arrow
+        final int move;         // columns the cursor moves
+        final byte[][] echoes;
+        final long at = System.nanoTime();
+        int epoch;
+        byte[] echo;            // the alternative being matched
+        int progress;           // bytes of it seen so far
+        boolean drawn;
+        int col;                // when drawn, relative to the server's cursor
+
+        Prediction(byte ch, int move, byte[]... echoes) {
+            this.ch = ch;
+            this.move = move;
+            this.echoes = echoes;
+        }
+
+        // -1 mismatch, 0 more bytes needed, 1 confirmed
+        int feed(byte b) {
+            if (echo == null) {
+                for (byte[] e : echoes) if (e[0] == b) echo = e;
+                // readline moves right by writing the character under the cursor again
+                if (echo == null) return ch == 0 && move == 1 && printable(b) ? 1 : -1;
+            } else if (echo[progress] != b) {
+                return -1;
+            }
+            return ++progress == echo.length ? 1 : 0;
+        }
+    }
+
+    final OutputStream out;
+    final boolean enabled;
+    final long timeoutNanos;
+    final ArrayDeque<Prediction> pending = new ArrayDeque<>(); // guarded by this
+    int epoch = 1;          // of new predictions
+    int shownEpoch;         // predictions of later epochs are not drawn
+    int shift;              // cursor offset of the drawn predictions from the server's cursor
+    int escape;             // server output stopped inside an escape sequence: 1 ESC, 2 CSI
+
+    final LongAdder predicted = new LongAdder();
+    final LongAdder confirmed = new LongAdder();
+    final LongAdder rolledBack = new LongAdder();
+    final LongAdder expired = new LongAdder();
+
+    LocalEcho(OutputStream out, boolean enabled, long timeoutMs) {
+        this.out = out;
+        this.enabled = enabled;
+        this.timeoutNanos = timeoutMs * 1_000_000;
+    }
+
+    // Predicting needs raw mode, or the terminal's own line echo would show every key twice
+    static LocalEcho fromOptions(OutputStream out, boolean raw, Options opts) {
+        LocalEcho echo = new LocalEcho(out, raw && !opts.has("nopredict"), opts.getLong("predictTimeoutMs", 1000));
+        if (echo.enabled) Workers.every(Math.max(10, echo.timeoutNanos / 4_000_000), echo::expire);
+        return echo;
+    }
+
+    static boolean printable(byte b) {
+        return b >= 0x20 && b < 0x7f;
+    }
+
+    // Keys read from stdin, before they are sent
+    synchronized void input(byte[] b, int off, int n) throws IOException {
+        if (!enabled) return;
+        for (int i = off; i < off + n; i++) {
+            Prediction p = null;
+            if (printable(b[i])) {
+                p = new Prediction(b[i], 1, new byte[]{b[i]});
+            } else if (b[i] == ESC && i + 2 < off + n && b[i + 1] == '[' && (b[i + 2] == 'C' || b[i + 2] == 'D')) {
+                p = b[i + 2] == 'C'
+                        ? new Prediction((byte) 0, 1, new byte[]{ESC, '[', 'C'})
+                        : new Prediction((byte) 0, -1, new byte[]{'\b'}, new byte[]{ESC, '[', 'D'});
+                i += 2;
+            }
+            if (p == null) {
+                epoch++;
+                continue;
+            }
+            p.epoch = epoch;
+            predicted.increment();
+            pending.add(p);
+        }
+        redraw();
+        out.flush();
+    }
+
+    // Server output: confirm what it echoes, write it, then put the rest of the predictions back
+    synchronized void output(byte[] b, int off, int n) throws IOException {
+        undraw();
+        for (int i = off; i < off + n && !pending.isEmpty(); i++) {
+            Prediction p = pending.peek();
+            int r = p.feed(b[i]);
+            if (r < 0) {
+                if (p.epoch <= shownEpoch) rolledBack.increment();
+                drop();
+            } else if (r > 0) {
+                pending.poll();
+                confirmed.increment();
+                shownEpoch = p.epoch;
+            }
+        }
+        out.write(b, off, n);
+        track(b, off, n);
+        redraw();
+        out.flush();
+    }
+
+    // Unanswered for too long: the server is not echoing
+    synchronized void expire() {
+        Prediction oldest = pending.peek();
+        if (oldest == null || escape != 0 || System.nanoTime() - oldest.at < timeoutNanos) return;
+        try {
+            undraw();
+            drop();
+            expired.increment();
+            out.flush();
+        } catch (IOException e) {
+            // stdout gone, nothing to clean up on
+        }
+    }
+
+    void drop() {
+        pending.clear();
+        epoch++;
+    }
+
+    // Draws predictions not yet on screen, in order, unless the server is mid escape sequence
+    void redraw() throws IOException {
+        if (escape != 0) return;
+        for (Prediction p : pending) {
+            if (p.epoch > shownEpoch) break;
+            if (p.drawn) continue;
+            p.drawn = true;
+            p.col = shift;
+            if (p.ch != 0) {
+                out.write(UNDERLINE);
+                out.write(p.ch);
+                out.write(NO_UNDERLINE);
+            } else {
+                out.write(cursor(p.move));
+            }
+            shift += p.move;
+        }
+    }
+
+    // Blanks the cells we drew on and puts the cursor back where the server left it
+    void undraw() throws IOException {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        boolean any = false;
+        for (Prediction p : pending) {
+            if (!p.drawn) continue;
+            any = true;
+            p.drawn = false;
+            if (p.ch != 0) {
+                min = Math.min(min, p.col);
+                max = Math.max(max, p.col);
+            }
+        }
+        if (!any) return;
+        if (min <= max) {
+            out.write(cursor(min - shift));
+            out.write(("\u001b[" + (max - min + 1) + "X").getBytes());
+            shift = min;
+        }
+        out.write(cursor(-shift));
+        shift = 0;
+    }
+
+    static byte[] cursor(int cols) {
+        if (cols == 0) return new byte[0];
+        return ("\u001b[" + Math.abs(cols) + (cols > 0 ? "C" : "D")).getBytes();
+    }
+
+    // Escape state at the end of server output; we must not write into the middle of a sequence
+    void track(byte[] b, int off, int n) {
+        for (int i = off; i < off + n; i++) {
+            byte c = b[i];
+            if (escape == 0) {
+                if (c == ESC) escape = 1;
+            } else if (escape == 1) {
+                escape = c == '[' ? 2 : c == ESC ? 1 : 0;
+            } else if (c >= 0x40 && c <= 0x7e) {
+                escape = 0;
+            }
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("predicted", predicted.sum());
+        s.put("confirmed", confirmed.sum());
+        s.put("rolledBack", rolledBack.sum());
+        s.put("expired", expired.sum());
+        return s;
+    }
+
+    // Puts the controlling terminal in raw mode; the returned hook restores it (also run at exit).
+    // Null when there is no terminal we can change.
+    static Runnable rawMode() {
+        if (System.console() == null || System.getProperty("os.name", "").startsWith("Windows")) return null;
+        try {
+            String saved = stty("-g").trim();
+            stty("raw", "-echo");
+            Runnable restore = () -> {
+                try {
+                    stty(saved);
+                } catch (IOException | InterruptedException e) {
+                    // leave it, the shell's reset will do
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(new Thread(restore));
+            return restore;
+        } catch (IOException | InterruptedException e) {
+            System.err.println("[jcli] No raw mode (" + e.getMessage() + "), local echo prediction off");
+            return null;
+        }
+    }
+
+    // "COLSxROWS" of the controlling terminal, null if unknown
+    static String size() {
+        try {
+            String[] rc = stty("size").trim().split("\\s+");
+            return rc.length == 2 ? rc[1] + "x" + rc[0] : null;
+        } catch (IOException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    static String stty(String... args) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("stty");
+        cmd.addAll(List.of(args));
+        Process p = new ProcessBuilder(cmd)
+                .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/tty")))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        String res = new String(p.getInputStream().readAllBytes());
+        if (p.waitFor() != 0) throw new IOException("stty exited with " + p.exitValue());
+        return res;
+    }
+}
@@ -0,0 +1,270 @@
+package com.jay.jconnect;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+ * Local TCP transport. A hub ("java JServ hub [port]") keeps the store in a MemoryTransport,
+ * JServ and JCli connect to it with -transport=tcp://localhost:PORT.
+ *
+ * Wire format: one JSON object per line.
+ *   client -> hub : pub {id,path,stream,frames} | sub {sub,path,stream} | unsub {sub}
+ *                   ack {path,stream,key} | state {id,path,fields,replace} | watch {sub,path}
+ *                   cas {id,path,field,expected,value}
+ *   hub -> client : done {id[,ok]} | frame {sub,key,data} | state {sub,data}
+ */
+public class LoopbackTransport implements Transport {
+    static final int DEFAULT_PORT = 55900;
+    static final Gson gson = new GsonBuilder().serializeNulls().create();
+    static final Type MAP_TYPE = new TypeToken<Map<String, Object>>() {}.getType();
+
+    // ---- Hub ----
+    static void serve(int port) throws IOException {
+        MemoryTransport store = new MemoryTransport();
+        ServerSocket ss = new ServerSocket();
+        ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        System.out.println("Loopback transport hub listening on tcp://localhost:" + port);
+        while (true) {
+            Socket s = ss.accept();
+            s.setTcpNoDelay(true);
+            Thread t = new Thread(() -> serveConnection(store, s), "loopback-hub-" + s.getPort());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    static void serveConnection(MemoryTransport store, Socket s) {
+        Map<Long, Subscription> subs = new ConcurrentHashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            Consumer<Map<String, Object>> send = msg -> {
+                synchronized (out) {
+                    try {
+                        out.write(gson.toJson(msg));
+                        out.write('\n');
+                        out.flush();
+                    } catch (IOException ignored) {}
+                }
+            };
+            String line;
+            while ((line = in.readLine()) != null) {
+                Map<String, Object> m = gson.fromJson(line, MAP_TYPE);
+                String op = (String) m.get("op");
+                String path = (String) m.get("path");
+                Object id = m.get("id");
+                switch (op) {
+                    case "pub" -> store.channel(path)
+                            .publishAll((String) m.get("stream"), (List<Map<String, Object>>) m.get("frames"))
+                            .thenRun(() -> send.accept(Map.of("op", "done", "id", id)));
+                    case "sub" -> {
+                        long sub = ((Number) m.get("sub")).longValue();
+                        subs.put(sub, store.channel(path).subscribe((String) m.get("stream"), f ->
+                                send.accept(Map.of("op", "frame", "sub", sub, "key", f.key,
+                                        "data", f.data != null ? f.data : Map.of()))));
+                    }
+                    case "watch" -> {
+                        long sub = ((Number) m.get("sub")).longValue();
+                        subs.put(sub, store.channel(path).watchState(st ->
+                                send.accept(Map.of("op", "state", "sub", sub, "data", st))));
+                    }
+                    case "unsub" -> {
+                        Subscription sub = subs.remove(((Number) m.get("sub")).longValue());
+                        if (sub != null) sub.cancel();
+                    }
+                    case "ack" -> store.remove(path, (String) m.get("stream"), (String) m.get("key"));
+                    case "state" -> {
+                        Map<String, Object> fields = (Map<String, Object>) m.get("fields");
+                        Channel ch = store.channel(path);
+                        (Boolean.TRUE.equals(m.get("replace")) ? ch.setState(fields) : ch.updateState(fields))
+                                .thenRun(() -> send.accept(Map.of("op", "done", "id", id)));
+                    }
+                    case "cas" -> store.channel(path)
+                            .compareAndSetState((String) m.get("field"), m.get("expected"), m.get("value"))
+                            .thenAccept(ok -> send.accept(Map.of("op", "done", "id", id, "ok", ok)));
+                    default -> System.err.println("[hub] unknown op: " + op);
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            subs.values().forEach(Subscription::cancel);
+        }
+    }
+
+    // ---- Client ----
+    final Socket socket;
+    final Writer out;
+    final AtomicLong ids = new AtomicLong();
+    final Map<Long, CompletableFuture<Map<String, Object>>> pending = new ConcurrentHashMap<>();
+    final Map<Long, FrameListener> frameSubs = new ConcurrentHashMap<>();
+    final Map<Long, Consumer<Map<String, Object>>> stateSubs = new ConcurrentHashMap<>();
+
+    LoopbackTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        Thread reader = new Thread(this::readLoop, "loopback-transport-events");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    static LoopbackTransport connect(String host, int port) throws IOException {
+        Socket s = new Socket(host, port);
+        s.setTcpNoDelay(true);
+        return new LoopbackTransport(s);
+    }
+
+    void send(Map<String, Object> msg) {
+        String json = gson.toJson(msg);
+        synchronized (out) {
+            try {
+                out.write(json);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    CompletableFuture<Void> request(Map<String, Object> msg) {
+        return call(msg).thenApply(reply -> null);
+    }
+
+    // Completes with the hub's "done" message
+    CompletableFuture<Map<String, Object>> call(Map<String, Object> msg) {
+        long id = ids.incrementAndGet();
+        CompletableFuture<Map<String, Object>> f = new CompletableFuture<>();
+        pending.put(id, f);
+        Map<String, Object> m = new HashMap<>(msg);
+        m.put("id", id);
+        try {
+            send(m);
+        } catch (UncheckedIOException e) {
+            pending.remove(id);
+            f.completeExceptionally(e.getCause());
+        }
+        return f;
+    }
+
+    void readLoop() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Map<String, Object> m = (Map<String, Object>) MemoryTransport.normalize(gson.fromJson(line, MAP_TYPE));
+                long key = ((Number) m.getOrDefault("id", m.get("sub"))).longValue();
+                switch ((String) m.get("op")) {
+                    case "done" -> {
+                        CompletableFuture<Map<String, Object>> f = pending.remove(key);
+                        if (f != null) f.complete(m);
+                    }
+                    case "frame" -> {
+                        FrameListener l = frameSubs.get(key);
+                        if (l != null) dispatchFrame(l, m);
+                    }
+                    case "state" -> {
+                        Consumer<Map<String, Object>> l = stateSubs.get(key);
+                        if (l != null) l.accept((Map<String, Object>) m.get("data"));
+                    }
+                    default -> {}
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            IOException closed = new IOException("Loopback transport closed");
+            pending.values().forEach(f -> f.completeExceptionally(closed));
+        }
+    }
+
+    void dispatchFrame(FrameListener l, Map<String, Object> m) {
+        try {
+            l.onFrame(new Frame((String) m.get("key"), (Map<String, Object>) m.get("data"), () -> {}));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Channel channel(String prefix) {
+        return new LoopbackChannel(prefix);
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    class LoopbackChannel implements Channel {
+        final String prefix;
+
+        LoopbackChannel(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override public String prefix() { return prefix; }
+
+        @Override
+        public CompletableFuture<Void> publish(String stream, Map<String, Object> frame) {
+            return publishAll(stream, List.of(frame));
+        }
+
+        @Override
+        public CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames) {
+            return request(Map.of("op", "pub", "path", prefix, "stream", stream, "frames", frames));
+        }
+
+        @Override
+        public Subscription subscribe(String stream, FrameListener listener) {
+            long sub = ids.incrementAndGet();
+            frameSubs.put(sub, f -> listener.onFrame(new Frame(f.key, f.data,
+                    () -> send(Map.of("op", "ack", "path", prefix, "stream", stream, "key", f.key)))));
+            send(Map.of("op", "sub", "sub", sub, "path", prefix, "stream", stream));
+            return () -> {
+                frameSubs.remove(sub);
+                send(Map.of("op", "unsub", "sub", sub));
+            };
+        }
+
+        @Override
+        public CompletableFuture<Void> setState(Map<String, Object> value) {
+            return request(Map.of("op", "state", "path", prefix, "fields", value, "replace", true));
+        }
+
+        @Override
+        public CompletableFuture<Void> updateState(Map<String, Object> fields) {
+            return request(Map.of("op", "state", "path", prefix, "fields", fields, "replace", false));
+        }
+
+        @Override
+        public Subscription watchState(Consumer<Map<String, Object>> listener) {
+            long sub = ids.incrementAndGet();
+            stateSubs.put(sub, listener);
+            send(Map.of("op", "watch", "sub", sub, "path", prefix));
+            return () -> {
+                stateSubs.remove(sub);
+                send(Map.of("op", "unsub", "sub", sub));
+            };
+        }
+
+        @Override
+        public CompletableFuture<Boolean> compareAndSetState(String field, Object expected, Object value) {
+            Map<String, Object> m = new HashMap<>(); // expected/value may be null
+            m.put("op", "cas");
+            m.put("path", prefix);
+            m.put("field", field);
+            m.put("expected", expected);
+            m.put("value", value);
+            return call(m).thenApply(reply -> Boolean.TRUE.equals(reply.get("ok")));
+        }
+    }
+}
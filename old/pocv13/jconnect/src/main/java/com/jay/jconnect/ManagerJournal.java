@@ -0,0 +1,112 @@
+package com.jay.jconnect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Supplier;
+
+/*
+ * Append-only journal of the manage server's state (feature switches, history, sessions), so a
+ * restarted manager can pick up the session processes that outlived it.
+ *
+ * Records are JSON lines in a memory-mapped file of fixed size; the data ends at the first zero
+ * byte. A line torn by a crash is cut off when the file is mapped. When a record does not
+ * fit, or at the periodic check once the file is half full, the journal is compacted: the
+ * current state, as records, goes to a fresh file that replaces this one. Pages are forced to
+ * disk at the periodic check; until then they survive a crash of the process, not of the host.
+ * Callers hold the FeatureManager lock, which the state supplier takes too.
+ *
+ * Options (manage): -journal=manage.journal -journalBytes=1048576 -nojournal
+ */
+class ManagerJournal {
+    final Path path;
+    final int capacity;
+    FileChannel file;        // guarded by this
+    MappedByteBuffer buf;    // guarded by this; position = end of data
+
+    ManagerJournal(Path path, int capacity) {
+        this.path = path;
+        this.capacity = capacity;
+    }
+
+    static ManagerJournal fromOptions(Options opts) throws IOException {
+        if (opts.has("nojournal")) return null;
+        ManagerJournal j = new ManagerJournal(Paths.get(opts.get("journal", "manage.journal")),
+                opts.getInt("journalBytes", 1 << 20));
+        j.map();
+        return j;
+    }
+
+    synchronized void map() throws IOException {
+        if (file != null) file.close();
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buf = file.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, file.size()));
+        int end = 0;
+        while (end < buf.limit() && buf.get(end) != 0) end++;
+        // a torn last record: cut back to the last newline and clear it, so the next append
+        // starts a line of its own
+        int keep = end;
+        while (keep > 0 && buf.get(keep - 1) != '\n') keep--;
+        for (int i = keep; i < end; i++) buf.put(i, (byte) 0);
+        buf.position(keep);
+    }
+
+    // Records from the start of the file up to the end of data
+    synchronized List<Map<String, Object>> replay() {
+        byte[] data = new byte[buf.position()];
+        buf.get(0, data);
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) continue;
+            try {
+                records.add((Map<String, Object>) MemoryTransport.normalize(
+                        LoopbackTransport.gson.fromJson(line, LoopbackTransport.MAP_TYPE)));
+            } catch (RuntimeException e) {
+                // torn write
+            }
+        }
+        return records;
+    }
+
+    synchronized void append(Map<String, Object> record, Supplier<List<Map<String, Object>>> state) {
+        byte[] line = (LoopbackTransport.gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            if (line.length > buf.remaining()) compact(state.get());
+            if (line.length > buf.remaining()) {
+                System.err.println("[manage] Journal full, record dropped; raise -journalBytes");
+                return;
+            }
+            buf.put(line);
+        } catch (IOException e) {
+            System.err.println("[manage] Journal: " + e.getMessage());
+        }
+    }
+
+    // Replaces the journal with the given records
+    synchronized void compact(List<Map<String, Object>> records) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map<String, Object> r : records) {
+                out.write(ByteBuffer.wrap((LoopbackTransport.gson.toJson(r) + "\n").getBytes(StandardCharsets.UTF_8)));
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+    }
+
+    // Periodic: compact once half full, then force to disk
+    synchronized void maintain(Supplier<List<Map<String, Object>>> state) {
+        try {
+            if (buf.position() > buf.limit() / 2) compact(state.get());
+            buf.force();
+        } catch (IOException e) {
+            System.err.println("[manage] Journal: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.jay.jconnect;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+ * In-process transport. Mimics RTDB semantics closely enough for benchmarks:
+ *  - all store mutations and callbacks run on one event thread (like the Firebase SDK)
+ *  - push keys are ordered, subscribers get existing children first, then new ones
+ *  - values are deep-copied and integral numbers come back as Long
+ */
+public class MemoryTransport implements Transport {
+    static MemoryTransport shared;
+
+    static synchronized MemoryTransport shared() {
+        if (shared == null) shared = new MemoryTransport();
+        return shared;
+    }
+
+    static class Stream {
+        final ConcurrentSkipListMap<String, Map<String, Object>> frames = new ConcurrentSkipListMap<>();
+        final List<FrameListener> listeners = new CopyOnWriteArrayList<>();
+    }
+
+    static class Node {
+        final Map<String, Stream> streams = new ConcurrentHashMap<>();
+        Map<String, Object> state = new HashMap<>();
+        final List<Consumer<Map<String, Object>>> watchers = new CopyOnWriteArrayList<>();
+    }
+
+    final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    final AtomicLong pushCounter = new AtomicLong();
+    final ExecutorService events = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "memory-transport-events");
+        t.setDaemon(true);
+        return t;
+    });
+
+    Node node(String prefix) {
+        return nodes.computeIfAbsent(prefix, p -> new Node());
+    }
+
+    String nextKey() {
+        return String.format("-%019d", pushCounter.incrementAndGet());
+    }
+
+    CompletableFuture<Void> onEvents(Runnable task) {
+        return CompletableFuture.runAsync(task, events);
+    }
+
+    // Removes a consumed frame (also used by the loopback hub)
+    void remove(String prefix, String stream, String key) {
+        events.execute(() -> {
+            Stream s = node(prefix).streams.get(stream);
+            if (s != null) s.frames.remove(key);
+        });
+    }
+
+    @Override
+    public Channel channel(String prefix) {
+        return new MemoryChannel(prefix);
+    }
+
+    @Override
+    public void close() {
+        // shared instance lives as long as the JVM
+    }
+
+    class MemoryChannel implements Channel {
+        final String prefix;
+
+        MemoryChannel(String prefix) {
+            this.prefix = prefix;
+        }
+
+        Stream stream(String name) {
+            return node(prefix).streams.computeIfAbsent(name, n -> new Stream());
+        }
+
+        @Override public String prefix() { return prefix; }
+
+        @Override
+        public CompletableFuture<Void> publish(String stream, Map<String, Object> frame) {
+            return publishAll(stream, List.of(frame));
+        }
+
+        @Override
+        public CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames) {
+            List<Map<String, Object>> copies = new ArrayList<>(frames.size());
+            for (Map<String, Object> f : frames) copies.add((Map<String, Object>) normalize(f));
+            Stream s = stream(stream);
+            return onEvents(() -> {
+                for (Map<String, Object> f : copies) {
+                    String key = nextKey();
+                    s.frames.put(key, f);
+                    for (FrameListener l : s.listeners) deliver(stream, l, key, f);
+                }
+            });
+        }
+
+        void deliver(String stream, FrameListener l, String key, Map<String, Object> f) {
+            try {
+                l.onFrame(new Frame(key, f, () -> remove(prefix, stream, key)));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public Subscription subscribe(String stream, FrameListener listener) {
+            Stream s = stream(stream);
+            onEvents(() -> {
+                for (Map.Entry<String, Map<String, Object>> e : s.frames.entrySet())
+                    deliver(stream, listener, e.getKey(), e.getValue());
+                s.listeners.add(listener);
+            });
+            return () -> onEvents(() -> s.listeners.remove(listener));
+        }
+
+        @Override
+        public CompletableFuture<Void> setState(Map<String, Object> value) {
+            Map<String, Object> copy = (Map<String, Object>) normalize(value);
+            return onEvents(() -> {
+                Node n = node(prefix);
+                n.state = copy;
+                fireState(n);
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> updateState(Map<String, Object> fields) {
+            // null values delete the field, like updateChildren
+            Map<String, Object> copy = new HashMap<>();
+            fields.forEach((k, v) -> copy.put(k, normalize(v)));
+            return onEvents(() -> {
+                Node n = node(prefix);
+                Map<String, Object> next = new HashMap<>(n.state);
+                copy.forEach((k, v) -> {
+                    if (v == null) next.remove(k); else next.put(k, v);
+                });
+                n.state = next;
+                fireState(n);
+            });
+        }
+
+        @Override
+        public CompletableFuture<Boolean> compareAndSetState(String field, Object expected, Object value) {
+            Object want = normalize(expected), next = normalize(value);
+            return CompletableFuture.supplyAsync(() -> {
+                Node n = node(prefix);
+                if (!Objects.equals(n.state.get(field), want)) return false;
+                Map<String, Object> state = new HashMap<>(n.state);
+                if (next == null) state.remove(field); else state.put(field, next);
+                n.state = state;
+                fireState(n);
+                return true;
+            }, events);
+        }
+
+        void fireState(Node n) {
+            for (Consumer<Map<String, Object>> w : n.watchers) w.accept(new HashMap<>(n.state));
+        }
+
+        @Override
+        public Subscription watchState(Consumer<Map<String, Object>> listener) {
+            Node n = node(prefix);
+            onEvents(() -> {
+                listener.accept(new HashMap<>(n.state));
+                n.watchers.add(listener);
+            });
+            return () -> onEvents(() -> n.watchers.remove(listener));
+        }
+    }
+
+    // Deep copy with RTDB number semantics (integral values are Long, others Double)
+    static Object normalize(Object v) {
+        if (v instanceof Map<?, ?> m) {
+            Map<String, Object> out = new HashMap<>(m.size() * 2);
+            m.forEach((k, x) -> {
+                if (x != null) out.put(String.valueOf(k), normalize(x));
+            });
+            return out;
+        }
+        if (v instanceof Collection<?> c) {
+            List<Object> out = new ArrayList<>(c.size());
+            for (Object x : c) out.add(normalize(x));
+            return out;
+        }
+        if (v instanceof Number n) {
+            double d = n.doubleValue();
+            if (n instanceof Double || n instanceof Float) {
+                return (d == Math.rint(d) && !Double.isInfinite(d)) ? (Object) (long) d : (Object) d;
+            }
+            return n.longValue();
+        }
+        return v;
+    }
+}
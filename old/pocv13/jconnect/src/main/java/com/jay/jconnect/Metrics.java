@@ -0,0 +1,246 @@
+package com.jay.jconnect;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/*
+ * Per-session counters, gauges and latency histograms, read by the manage server's /api/metrics.
+ *
+ * Series are keyed Prometheus style, name{label="value",...}. Recording is lock-free (LongAdder,
+ * fixed buckets in an AtomicLongArray); hot paths look a series up once and keep it. snapshot()
+ * turns everything into plain maps, which is also what an isolated session sends to the manager
+ * over its control socket, and toPrometheus() renders snapshots in the text exposition format.
+ *
+ * Channel metrics (meter()): frames and payload bytes (the Base64 "data"/"body" fields) per
+ * stream and direction, and how long the store takes to confirm a publish.
+ */
+class Metrics {
+    // histogram upper bounds, seconds
+    static final double[] BOUNDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    final Map<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+    final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    static class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1); // last one is +Inf
+        final LongAdder sumNanos = new LongAdder();
+
+        void observeNanos(long nanos) {
+            double s = nanos / 1e9;
+            int i = 0;
+            while (i < BOUNDS.length && s > BOUNDS[i]) i++;
+            buckets.incrementAndGet(i);
+            sumNanos.add(nanos);
+        }
+
+        void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+
+        Map<String, Object> snapshot() {
+            List<Long> cumulative = new ArrayList<>(buckets.length());
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+                cumulative.add(total);
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("buckets", cumulative);
+            m.put("sum", sumNanos.sum() / 1e9);
+            m.put("count", total);
+            return m;
+        }
+    }
+
+    // name{k1="v1",k2="v2"} from alternating label names and values
+    static String key(String name, String... labels) {
+        return labels.length == 0 ? name : name + "{" + labels(labels) + "}";
+    }
+
+    static String labels(String... labels) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.toString();
+    }
+
+    static String escape(String v) {
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    LongAdder counter(String name, String... labels) {
+        return counters.computeIfAbsent(key(name, labels), k -> new LongAdder());
+    }
+
+    Histogram histogram(String name, String... labels) {
+        return histograms.computeIfAbsent(key(name, labels), k -> new Histogram());
+    }
+
+    void gauge(String name, Supplier<Number> value) {
+        gauges.put(name, value);
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> c = new TreeMap<>();
+        counters.forEach((k, v) -> c.put(k, v.sum()));
+        Map<String, Object> g = new TreeMap<>();
+        gauges.forEach((k, v) -> {
+            try {
+                g.put(k, v.get());
+            } catch (RuntimeException ignored) {}
+        });
+        Map<String, Object> h = new TreeMap<>();
+        histograms.forEach((k, v) -> h.put(k, v.snapshot()));
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("counters", c);
+        s.put("gauges", g);
+        s.put("histograms", h);
+        return s;
+    }
+
+    // ---- Channel metering ----
+    Transport.Channel meter(Transport.Channel ch) {
+        return new MeteredChannel(ch);
+    }
+
+    class MeteredChannel implements Transport.Channel {
+        final Transport.Channel inner;
+        final Map<String, Stream> published = new ConcurrentHashMap<>();
+
+        MeteredChannel(Transport.Channel inner) {
+            this.inner = inner;
+        }
+
+        class Stream {
+            final LongAdder frames, bytes;
+            final Histogram writes; // published streams only
+
+            Stream(String stream, String direction) {
+                frames = counter("jconnect_frames_total", "stream", stream, "direction", direction);
+                bytes = counter("jconnect_payload_bytes_total", "stream", stream, "direction", direction);
+                writes = direction.equals("out") ? histogram("jconnect_store_write_seconds", "stream", stream) : null;
+            }
+        }
+
+        Stream published(String name) {
+            Stream s = published.get(name);
+            return s != null ? s : published.computeIfAbsent(name, n -> new Stream(n, "out"));
+        }
+
+        static long payloadBytes(Map<String, Object> frame) {
+            if (frame == null) return 0;
+            long n = 0;
+            if (frame.get("data") instanceof String d) n += d.length();
+            if (frame.get("body") instanceof String b) n += b.length();
+            return n;
+        }
+
+        @Override public String prefix() { return inner.prefix(); }
+
+        @Override
+        public CompletableFuture<Void> publish(String stream, Map<String, Object> frame) {
+            Stream s = published(stream);
+            s.frames.increment();
+            s.bytes.add(payloadBytes(frame));
+            long t0 = System.nanoTime();
+            return inner.publish(stream, frame).whenComplete((v, e) -> s.writes.observeSince(t0));
+        }
+
+        @Override
+        public CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames) {
+            Stream s = published(stream);
+            s.frames.add(frames.size());
+            for (Map<String, Object> f : frames) s.bytes.add(payloadBytes(f));
+            long t0 = System.nanoTime();
+            return inner.publishAll(stream, frames).whenComplete((v, e) -> s.writes.observeSince(t0));
+        }
+
+        @Override
+        public Transport.Subscription subscribe(String stream, Transport.FrameListener listener) {
+            Stream s = new Stream(stream, "in");
+            return inner.subscribe(stream, frame -> {
+                s.frames.increment();
+                s.bytes.add(payloadBytes(frame.data));
+                listener.onFrame(frame);
+            });
+        }
+
+        @Override public CompletableFuture<Void> setState(Map<String, Object> state) { return inner.setState(state); }
+        @Override public CompletableFuture<Void> updateState(Map<String, Object> fields) { return inner.updateState(fields); }
+        @Override public Transport.Subscription watchState(Consumer<Map<String, Object>> listener) { return inner.watchState(listener); }
+        @Override public CompletableFuture<Boolean> compareAndSetState(String field, Object expected, Object value) {
+            return inner.compareAndSetState(field, expected, value);
+        }
+        @Override public void close() { inner.close(); }
+    }
+
+    // ---- Prometheus text format ----
+    // Renders session snapshots, keyed by the labels (k="v",...) added to each of their series;
+    // extra gauges are added as is
+    static String toPrometheus(Map<String, Map<String, Object>> snapshotsBySession, Map<String, Number> extraGauges) {
+        Map<String, String> types = new TreeMap<>();
+        Map<String, List<String>> lines = new TreeMap<>();
+        extraGauges.forEach((k, v) -> add(types, lines, k, "gauge", k, v));
+        snapshotsBySession.forEach((sessionLabels, snap) -> {
+            if (snap.get("counters") instanceof Map<?, ?> c)
+                c.forEach((k, v) -> add(types, lines, (String) k, "counter", withLabels((String) k, sessionLabels), v));
+            if (snap.get("gauges") instanceof Map<?, ?> g)
+                g.forEach((k, v) -> add(types, lines, (String) k, "gauge", withLabels((String) k, sessionLabels), v));
+            if (snap.get("histograms") instanceof Map<?, ?> h) {
+                h.forEach((k, v) -> {
+                    String series = withLabels((String) k, sessionLabels);
+                    Map<?, ?> hist = (Map<?, ?>) v;
+                    List<?> buckets = (List<?>) hist.get("buckets");
+                    String name = nameOf(series);
+                    String labels = series.substring(name.length()); // "{...}" or ""
+                    for (int i = 0; i < buckets.size(); i++) {
+                        String le = "le=\"" + (i < BOUNDS.length ? String.valueOf(BOUNDS[i]) : "+Inf") + "\"";
+                        String bucket = labels.isEmpty() ? "{" + le + "}" : labels.substring(0, labels.length() - 1) + "," + le + "}";
+                        add(types, lines, name, "histogram", name + "_bucket" + bucket, buckets.get(i));
+                    }
+                    add(types, lines, name, "histogram", name + "_sum" + labels, hist.get("sum"));
+                    add(types, lines, name, "histogram", name + "_count" + labels, hist.get("count"));
+                });
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        lines.forEach((name, ls) -> {
+            sb.append("# TYPE ").append(name).append(' ').append(types.get(name)).append('\n');
+            for (String l : ls) sb.append(l).append('\n');
+        });
+        return sb.toString();
+    }
+
+    static void add(Map<String, String> types, Map<String, List<String>> lines, String key, String type, String series, Object value) {
+        String name = nameOf(key);
+        types.putIfAbsent(name, type);
+        lines.computeIfAbsent(name, n -> new ArrayList<>()).add(series + " " + format(value));
+    }
+
+    static String nameOf(String key) {
+        int brace = key.indexOf('{');
+        return brace < 0 ? key : key.substring(0, brace);
+    }
+
+    // Adds labels (already rendered as k="v",...) to a series key
+    static String withLabels(String key, String labels) {
+        if (labels.isEmpty()) return key;
+        int brace = key.indexOf('{');
+        if (brace < 0) return key + "{" + labels + "}";
+        return key.substring(0, brace + 1) + labels + "," + key.substring(brace + 1);
+    }
+
+    static String format(Object v) {
+        if (v instanceof Double d) return d == Math.rint(d) && !Double.isInfinite(d) ? String.valueOf(d.longValue()) : String.valueOf(d);
+        if (v instanceof Number n) return String.valueOf(n);
+        return "NaN";
+    }
+}
@@ -0,0 +1,55 @@
+package com.jay.jconnect;
+
+import java.util.*;
+
+// Command line: positional words plus -key=value / -flag options, in any order.
+class Options {
+    final List<String> positional = new ArrayList<>();
+    final Map<String, String> values = new LinkedHashMap<>();
+
+    static Options parse(String[] args) {
+        Options o = new Options();
+        for (String a : args) {
+            if (a.startsWith("-") && a.length() > 1) {
+                int eq = a.indexOf('=');
+                if (eq < 0) o.values.put(a.substring(1), "true");
+                else o.values.put(a.substring(1, eq), a.substring(eq + 1));
+            } else {
+                o.positional.add(a);
+            }
+        }
+        return o;
+    }
+
+    String arg(int i, String def) {
+        return i < positional.size() ? positional.get(i) : def;
+    }
+
+    boolean has(String key) {
+        return values.containsKey(key);
+    }
+
+    String get(String key, String def) {
+        return values.getOrDefault(key, def);
+    }
+
+    int getInt(String key, int def) {
+        String v = values.get(key);
+        return v == null ? def : Integer.parseInt(v);
+    }
+
+    long getLong(String key, long def) {
+        String v = values.get(key);
+        return v == null ? def : Long.parseLong(v);
+    }
+
+    // Options to forward to child processes (everything except the given keys)
+    List<String> passThrough(String... except) {
+        List<String> out = new ArrayList<>();
+        Set<String> skip = Set.of(except);
+        values.forEach((k, v) -> {
+            if (!skip.contains(k)) out.add(v.equals("true") ? "-" + k : "-" + k + "=" + v);
+        });
+        return out;
+    }
+}
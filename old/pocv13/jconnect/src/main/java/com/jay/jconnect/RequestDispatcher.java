@@ -0,0 +1,105 @@
+package com.jay.jconnect;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Runs proxied HTTP requests off the transport event thread.
+ *
+ * Each request gets a virtual thread. At most perPortLimit requests per target port
+ * run at once, the rest wait for a permit until their deadline. The total number of
+ * admitted (waiting + running) requests is capped at maxPending; beyond that a
+ * request is rejected at once so the client gets a fast 503 instead of a timeout.
+ *
+ * Options: -maxPending=256 -perPortLimit=16 -requestTimeout=30000 (used when the client sends none)
+ */
+class RequestDispatcher {
+    interface Task {
+        void run(long deadlineNanos) throws Exception;
+    }
+
+    final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    final int maxPending;
+    final int perPortLimit;
+    final long defaultTimeoutMs;
+    final AtomicInteger pending = new AtomicInteger();
+    final Map<Integer, Semaphore> portPermits = new ConcurrentHashMap<>();
+
+    final LongAdder accepted = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder expired = new LongAdder();
+    final LongAdder failed = new LongAdder();
+
+    RequestDispatcher(int maxPending, int perPortLimit, long defaultTimeoutMs) {
+        this.maxPending = maxPending;
+        this.perPortLimit = perPortLimit;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+    }
+
+    static RequestDispatcher fromOptions(Options opts) {
+        return new RequestDispatcher(
+                opts.getInt("maxPending", 256),
+                opts.getInt("perPortLimit", 16),
+                opts.getLong("requestTimeout", 30000));
+    }
+
+    // Returns false when saturated (caller answers 503). onExpired runs if the deadline passes while queued.
+    boolean submit(int port, Long timeoutMs, Task task, Runnable onExpired) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeoutMs != null && timeoutMs > 0 ? timeoutMs : defaultTimeoutMs);
+        Semaphore permits = portPermits.computeIfAbsent(port, p -> new Semaphore(perPortLimit));
+        try {
+            executor.execute(() -> run(permits, deadline, task, onExpired));
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        accepted.increment();
+        return true;
+    }
+
+    void run(Semaphore permits, long deadline, Task task, Runnable onExpired) {
+        boolean acquired = false;
+        try {
+            acquired = permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (!acquired) {
+                expired.increment();
+                onExpired.run();
+                return;
+            }
+            task.run(deadline);
+        } catch (Exception e) {
+            failed.increment();
+            e.printStackTrace();
+        } finally {
+            if (acquired) permits.release();
+            pending.decrementAndGet();
+        }
+    }
+
+    // Interrupts running requests; later submits are rejected by the executor
+    void close() {
+        executor.shutdownNow();
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("pending", pending.get());
+        s.put("accepted", accepted.sum());
+        s.put("rejected", rejected.sum());
+        s.put("expired", expired.sum());
+        s.put("failed", failed.sum());
+        Map<String, Object> busy = new LinkedHashMap<>();
+        portPermits.forEach((port, sem) -> busy.put(String.valueOf(port), perPortLimit - sem.availablePermits()));
+        s.put("runningByPort", busy);
+        return s;
+    }
+}
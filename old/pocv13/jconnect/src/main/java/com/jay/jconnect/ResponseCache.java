@@ -0,0 +1,461 @@
+package com.jay.jconnect;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Local cache for GET/HEAD responses seen by the JCli HTTP proxy, so repeated asset
+ * fetches do not each cost a round trip through the tunnel.
+ *
+ * - Freshness from Cache-Control (max-age, no-cache, no-store), Expires, Age, and the
+ *   usual 10%-of-Last-Modified heuristic. Responses with Set-Cookie or Vary: * are not kept.
+ * - Stale entries carrying an ETag / Last-Modified are revalidated with a conditional
+ *   request; a 304 refreshes the entry and the stored body is served.
+ * - LRU bounded by total body bytes. With a cache dir, entries evicted from memory are
+ *   spilled to disk (own LRU and byte bound) and promoted back on a hit.
+ * - Identical in-flight GETs are collapsed: the first one goes through the tunnel, the
+ *   others wait for its response and get a copy.
+ *
+ * Keys include the target port, the tunnelled uri, and the request's Authorization and
+ * Cookie headers. Vary'd request headers are checked on lookup.
+ *
+ * Options: -nocache -cacheBytes=67108864 -cacheMaxEntry=8388608
+ *          -cacheDir=PATH -cacheDiskBytes=536870912
+ */
+class ResponseCache {
+    static final Set<Integer> CACHEABLE_STATUS = Set.of(200, 203, 301, 404, 410);
+    static final long HEURISTIC_MAX_MS = TimeUnit.DAYS.toMillis(1);
+
+    static class Entry {
+        final int status;
+        final Map<String, List<String>> headers;
+        final byte[] body;          // null for the copy kept on disk
+        final Path file;
+        final int length;
+        final Map<String, String> vary;  // request header -> value this response was for
+        final long storedAt;
+        final long lifetimeMs;
+        final long initialAgeMs;
+
+        Entry(int status, Map<String, List<String>> headers, byte[] body, Map<String, String> vary, long storedAt) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.file = null;
+            this.length = body.length;
+            this.vary = vary;
+            this.storedAt = storedAt;
+            this.lifetimeMs = lifetime(headers, storedAt);
+            this.initialAgeMs = seconds(first(headers, "Age")) * 1000;
+        }
+
+        // Same response with the body held elsewhere (in memory again, or in a spill file)
+        Entry(Entry src, byte[] body, Path file) {
+            this.status = src.status;
+            this.headers = src.headers;
+            this.body = body;
+            this.file = file;
+            this.length = src.length;
+            this.vary = src.vary;
+            this.storedAt = src.storedAt;
+            this.lifetimeMs = src.lifetimeMs;
+            this.initialAgeMs = src.initialAgeMs;
+        }
+
+        long ageMs() {
+            return initialAgeMs + System.currentTimeMillis() - storedAt;
+        }
+
+        boolean isFresh() {
+            return ageMs() < lifetimeMs;
+        }
+
+        String etag() {
+            return first(headers, "ETag");
+        }
+
+        String lastModified() {
+            return first(headers, "Last-Modified");
+        }
+
+        boolean hasValidators() {
+            return etag() != null || lastModified() != null;
+        }
+    }
+
+    // One tunnel request shared by identical concurrent GETs
+    static class Flight {
+        final String key;
+        final boolean leader;
+        final CompletableFuture<Entry> result;
+
+        Flight(String key, boolean leader, CompletableFuture<Entry> result) {
+            this.key = key;
+            this.leader = leader;
+            this.result = result;
+        }
+    }
+
+    final long maxBytes;
+    final int maxEntryBytes;
+    final Path dir;             // null: no disk spill
+    final long maxDiskBytes;
+
+    final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true);
+    final LinkedHashMap<String, Entry> disk = new LinkedHashMap<>(64, 0.75f, true);
+    long memoryBytes;
+    long diskBytes;
+    final AtomicLong fileSeq = new AtomicLong();
+    final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder diskHits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder revalidated = new LongAdder();
+    final LongAdder collapsed = new LongAdder();
+    final LongAdder stored = new LongAdder();
+    final LongAdder evicted = new LongAdder();
+    final LongAdder spilled = new LongAdder();
+
+    ResponseCache(long maxBytes, int maxEntryBytes, Path dir, long maxDiskBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.dir = dir;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    // null with -nocache
+    static ResponseCache fromOptions(Options opts) throws IOException {
+        if (opts.has("nocache")) return null;
+        Path dir = null;
+        if (opts.has("cacheDir")) {
+            dir = Paths.get(opts.get("cacheDir", ""));
+            Files.createDirectories(dir);
+            // entries only live as long as this process; drop what a previous run left behind
+            try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "*.body")) {
+                for (Path p : old) Files.deleteIfExists(p);
+            }
+        }
+        return new ResponseCache(
+                opts.getLong("cacheBytes", 64L * 1024 * 1024),
+                opts.getInt("cacheMaxEntry", 8 * 1024 * 1024),
+                dir,
+                opts.getLong("cacheDiskBytes", 512L * 1024 * 1024));
+    }
+
+    // ---- request side ----
+    static boolean cacheableRequest(String method, Headers req) {
+        if (!method.equalsIgnoreCase("GET") && !method.equalsIgnoreCase("HEAD")) return false;
+        if (req.containsKey("Range")) return false;
+        return !directives(req.get("Cache-Control")).containsKey("no-store");
+    }
+
+    // Browser asked to skip fresh copies (reload)
+    static boolean mustRevalidate(Headers req) {
+        Map<String, String> cc = directives(req.get("Cache-Control"));
+        if (cc.containsKey("no-cache") || "0".equals(cc.get("max-age"))) return true;
+        String pragma = req.getFirst("Pragma");
+        return pragma != null && pragma.toLowerCase().contains("no-cache");
+    }
+
+    static String key(int port, String uri, Headers req) {
+        return port + " " + uri + "\n" + Objects.toString(req.getFirst("Authorization"), "")
+                + "\n" + Objects.toString(req.getFirst("Cookie"), "");
+    }
+
+    // Request carries a validator that matches the entry, so a bare 304 will do
+    static boolean notModified(Headers req, Entry e) {
+        String inm = req.getFirst("If-None-Match");
+        if (inm != null) {
+            String etag = e.etag();
+            if (etag == null) return false;
+            for (String t : inm.split(",")) {
+                t = t.trim();
+                if (t.equals("*") || weak(t).equals(weak(etag))) return true;
+            }
+            return false;
+        }
+        String ims = req.getFirst("If-Modified-Since");
+        return ims != null && ims.equals(e.lastModified());
+    }
+
+    static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    // ---- lookup / store ----
+    Entry get(String key, Headers req) {
+        Entry e;
+        boolean fromDisk = false;
+        synchronized (this) {
+            e = memory.get(key);
+            if (e == null && (e = disk.get(key)) != null) fromDisk = true;
+        }
+        if (e == null || !varyMatches(e, req)) {
+            misses.increment();
+            return null;
+        }
+        if (fromDisk) {
+            try {
+                Entry loaded = new Entry(e, Files.readAllBytes(e.file), null);
+                synchronized (this) {
+                    if (disk.get(key) == e) {
+                        disk.remove(key);
+                        dropFile(e);
+                        putMemory(key, loaded);
+                    }
+                }
+                diskHits.increment();
+                e = loaded;
+            } catch (IOException ex) {
+                synchronized (this) {
+                    if (disk.get(key) == e) {
+                        disk.remove(key);
+                        dropFile(e);
+                    }
+                }
+                misses.increment();
+                return null;
+            }
+        }
+        return e;
+    }
+
+    // Builds an entry from a tunnelled response; null if it must not be stored
+    Entry entry(int status, Map<String, ?> respHeaders, byte[] body, Headers req) {
+        if (!CACHEABLE_STATUS.contains(status) || body == null || body.length > maxEntryBytes) return null;
+        Map<String, List<String>> h = normalize(respHeaders);
+        Map<String, String> cc = directives(h.get("Cache-Control"));
+        if (cc.containsKey("no-store") || h.containsKey("Set-Cookie")) return null;
+        Map<String, String> vary = new HashMap<>();
+        List<String> varyHeader = h.get("Vary");
+        if (varyHeader != null) {
+            for (String v : String.join(",", varyHeader).split(",")) {
+                v = v.trim();
+                if (v.isEmpty()) continue;
+                if (v.equals("*")) return null;
+                vary.put(v, Objects.toString(req.getFirst(v), ""));
+            }
+        }
+        Entry e = new Entry(status, h, body, vary, System.currentTimeMillis());
+        return e.lifetimeMs > 0 || e.hasValidators() ? e : null;
+    }
+
+    synchronized void put(String key, Entry e) {
+        Entry old = memory.remove(key);
+        if (old != null) memoryBytes -= old.length;
+        old = disk.remove(key);
+        if (old != null) dropFile(old);
+        putMemory(key, e);
+        stored.increment();
+    }
+
+    // A 304 for a stale entry: merge the new headers and restart its freshness clock
+    Entry revalidated(String key, Entry stale, Map<String, ?> notModifiedHeaders) {
+        Map<String, List<String>> h = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        h.putAll(stale.headers);
+        normalize(notModifiedHeaders).forEach((k, v) -> {
+            if (!k.equalsIgnoreCase("Content-Length") && !k.equalsIgnoreCase("Transfer-Encoding")) h.put(k, v);
+        });
+        Entry fresh = new Entry(stale.status, h, stale.body, stale.vary, System.currentTimeMillis());
+        put(key, fresh);
+        revalidated.increment();
+        return fresh;
+    }
+
+    void putMemory(String key, Entry e) {
+        memory.put(key, e);
+        memoryBytes += e.length;
+        Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+        while (memoryBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getValue() == e) continue;
+            it.remove();
+            memoryBytes -= eldest.getValue().length;
+            evicted.increment();
+            spill(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    void spill(String key, Entry e) {
+        if (dir == null || e.length > maxDiskBytes) return;
+        try {
+            Path f = dir.resolve(Long.toString(fileSeq.incrementAndGet(), 36) + ".body");
+            Files.write(f, e.body);
+            disk.put(key, new Entry(e, null, f));
+            diskBytes += e.length;
+            spilled.increment();
+            Iterator<Map.Entry<String, Entry>> it = disk.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                dropFile(eldest);
+            }
+        } catch (IOException ex) {
+            System.err.println("[jcli] cache spill failed: " + ex.getMessage());
+        }
+    }
+
+    void dropFile(Entry e) {
+        diskBytes -= e.length;
+        try {
+            if (e.file != null) Files.deleteIfExists(e.file);
+        } catch (IOException ignored) {}
+    }
+
+    // ---- request collapsing ----
+    Flight join(String key) {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(key, mine);
+        return running == null ? new Flight(key, true, mine) : new Flight(key, false, running);
+    }
+
+    // Leader hands its response (or null: not shareable) to the waiting followers
+    void finish(Flight f, Entry shared) {
+        if (!f.leader) return;
+        inFlight.remove(f.key, f.result);
+        f.result.complete(shared);
+    }
+
+    // The leader's response if it fits this request too (same Vary'd headers); null otherwise
+    Entry await(Flight f, Headers req, long timeoutMs) {
+        try {
+            Entry e = f.result.get(timeoutMs, TimeUnit.MILLISECONDS);
+            if (e == null || !varyMatches(e, req)) return null;
+            collapsed.increment();
+            return e;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException ex) {
+            return null;
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("hits", hits.sum());
+        s.put("diskHits", diskHits.sum());
+        s.put("misses", misses.sum());
+        s.put("revalidated", revalidated.sum());
+        s.put("collapsed", collapsed.sum());
+        s.put("stored", stored.sum());
+        s.put("evicted", evicted.sum());
+        s.put("spilled", spilled.sum());
+        synchronized (this) {
+            s.put("entries", memory.size());
+            s.put("bytes", memoryBytes);
+            s.put("diskEntries", disk.size());
+            s.put("diskBytes", diskBytes);
+        }
+        return s;
+    }
+
+    // ---- header helpers ----
+    boolean varyMatches(Entry e, Headers req) {
+        for (Map.Entry<String, String> v : e.vary.entrySet()) {
+            if (!v.getValue().equals(Objects.toString(req.getFirst(v.getKey()), ""))) return false;
+        }
+        return true;
+    }
+
+    static Map<String, List<String>> normalize(Map<String, ?> headers) {
+        Map<String, List<String>> h = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.forEach((k, v) -> {
+            if (k == null || v == null) return;
+            List<String> values = new ArrayList<>();
+            if (v instanceof Collection<?> c) {
+                for (Object x : c) if (x != null) values.add(String.valueOf(x));
+            } else {
+                values.add(String.valueOf(v));
+            }
+            h.put(k, values);
+        });
+        return h;
+    }
+
+    static Map<String, String> directives(List<String> values) {
+        Map<String, String> d = new HashMap<>();
+        if (values == null) return d;
+        for (String part : String.join(",", values).split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            if (kv[0].isEmpty()) continue;
+            d.put(kv[0].toLowerCase(), kv.length > 1 ? kv[1].replace("\"", "").trim() : "");
+        }
+        return d;
+    }
+
+    static String first(Map<String, List<String>> h, String name) {
+        List<String> v = h.get(name);
+        return v == null || v.isEmpty() ? null : v.get(0);
+    }
+
+    static long seconds(String s) {
+        if (s == null) return 0;
+        try {
+            return Math.max(0, Long.parseLong(s.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static long httpDate(String s) {
+        if (s == null) return -1;
+        try {
+            return ZonedDateTime.parse(s.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    static long lifetime(Map<String, List<String>> h, long now) {
+        Map<String, String> cc = directives(h.get("Cache-Control"));
+        if (cc.containsKey("no-cache")) return 0;
+        if (cc.containsKey("max-age")) return seconds(cc.get("max-age")) * 1000;
+        long date = httpDate(first(h, "Date"));
+        if (date < 0) date = now;
+        String expires = first(h, "Expires");
+        if (expires != null) return Math.max(0, httpDate(expires) - date); // unparseable means already expired
+        long lastModified = httpDate(first(h, "Last-Modified"));
+        if (lastModified > 0 && lastModified < date) return Math.min(HEURISTIC_MAX_MS, (date - lastModified) / 10);
+        return 0;
+    }
+
+    // Copy of what goes to a socket, kept only while it stays under the entry limit
+    static class Capture extends FilterOutputStream {
+        final int limit;
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        Capture(OutputStream out, int limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                if (copy.size() + len > limit) copy = null;
+                else copy.write(b, off, len);
+            }
+        }
+
+        // null if the body outgrew the limit
+        byte[] bytes() {
+            return copy != null ? copy.toByteArray() : null;
+        }
+    }
+}
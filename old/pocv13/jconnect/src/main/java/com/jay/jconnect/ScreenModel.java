@@ -0,0 +1,516 @@
+package com.jay.jconnect;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Virtual terminal screen fed by PTY output, and the diff that brings a client's screen up to it.
+ *
+ * Understands what bash, less, top/htop and the usual curses programs write: UTF-8 text with
+ * autowrap, cursor movement, erase/insert/delete of characters and lines, scroll regions, SGR
+ * attributes (16/256/true colour), the alternate screen and cursor visibility. Other sequences
+ * (titles, modes, charsets) are parsed and dropped. Every cell is one column wide.
+ *
+ * diff() renders, as plain ANSI, the cells that changed since the last diff, one CUP per changed
+ * run, and leaves the client cursor where the model's is. A cell typed at the cursor comes out as
+ * just that character, so local echo prediction still matches it.
+ */
+class ScreenModel {
+    // attrs: flag bits, then fg and bg as 0 default, 1..256 palette index + 1, RGB | TRUE_COLOR
+    static final long BOLD = 1, DIM = 2, ITALIC = 4, UNDERLINE = 8, BLINK = 16, REVERSE = 32, HIDDEN = 64, STRIKE = 128;
+    static final int TRUE_COLOR = 1 << 24;
+    static final int FG_SHIFT = 8, BG_SHIFT = 33;
+    static final long COLOR_MASK = (1L << 25) - 1;
+
+    int cols, rows;
+    int[][] chars;          // code points, ' ' when blank
+    long[][] attrs;
+    int[][] savedChars;     // main screen while the alternate one is up
+    long[][] savedAttrs;
+    int row, col;
+    boolean wrapPending;    // last column written; the next character wraps first
+    long attr;              // for new characters and erases
+    int top, bottom;        // scroll region, inclusive
+    int savedRow, savedCol;
+    long savedAttr;
+    boolean cursorVisible = true;
+
+    // What the client shows, as of the last diff
+    int[][] shownChars;
+    long[][] shownAttrs;
+    int shownRow = -1, shownCol = -1;
+    boolean shownCursorVisible = true;
+    boolean full = true;    // next diff repaints everything
+
+    // Parser
+    int state;              // GROUND, ESC, CSI, OSC, CHARSET, OSC_ESC
+    static final int GROUND = 0, ESCAPE = 1, CSI = 2, OSC = 3, CHARSET = 4, OSC_ESC = 5;
+    final int[] params = new int[16];
+    int nparams;
+    boolean privateMode;
+    int utf8Need, utf8Cp;
+
+    ScreenModel(int cols, int rows) {
+        resize(cols, rows);
+    }
+
+    synchronized void resize(int cols, int rows) {
+        this.chars = copy(chars, new int[rows][cols], ' ');
+        this.attrs = copy(attrs, new long[rows][cols]);
+        if (savedChars != null) {
+            savedChars = copy(savedChars, new int[rows][cols], ' ');
+            savedAttrs = copy(savedAttrs, new long[rows][cols]);
+        }
+        this.cols = cols;
+        this.rows = rows;
+        top = 0;
+        bottom = rows - 1;
+        row = Math.min(row, rows - 1);
+        col = Math.min(col, cols - 1);
+        wrapPending = false;
+        shownChars = new int[rows][cols];
+        shownAttrs = new long[rows][cols];
+        full = true;
+    }
+
+    static int[][] copy(int[][] from, int[][] to, int blank) {
+        for (int[] r : to) Arrays.fill(r, blank);
+        if (from != null) {
+            for (int r = 0; r < Math.min(from.length, to.length); r++)
+                System.arraycopy(from[r], 0, to[r], 0, Math.min(from[r].length, to[r].length));
+        }
+        return to;
+    }
+
+    static long[][] copy(long[][] from, long[][] to) {
+        if (from != null) {
+            for (int r = 0; r < Math.min(from.length, to.length); r++)
+                System.arraycopy(from[r], 0, to[r], 0, Math.min(from[r].length, to[r].length));
+        }
+        return to;
+    }
+
+    // ---- Input ----
+
+    synchronized void feed(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) feed(b[i] & 0xff);
+    }
+
+    void feed(int b) {
+        switch (state) {
+            case ESCAPE -> escape(b);
+            case CSI -> csi(b);
+            case OSC -> {
+                if (b == 0x07) state = GROUND;
+                else if (b == 0x1b) state = OSC_ESC;
+            }
+            case OSC_ESC -> state = b == '\\' ? GROUND : OSC;
+            case CHARSET -> state = GROUND;
+            default -> ground(b);
+        }
+    }
+
+    void ground(int b) {
+        if (utf8Need > 0) {
+            if ((b & 0xc0) == 0x80) {
+                utf8Cp = (utf8Cp << 6) | (b & 0x3f);
+                if (--utf8Need == 0) print(utf8Cp);
+                return;
+            }
+            utf8Need = 0;
+            print(0xfffd);
+        }
+        if (b >= 0xc0 && b < 0xf8) {
+            utf8Need = b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : 1;
+            utf8Cp = b & (0x3f >> utf8Need);
+            return;
+        }
+        switch (b) {
+            case 0x1b -> state = ESCAPE;
+            case '\r' -> { col = 0; wrapPending = false; }
+            case '\n', 0x0b, 0x0c -> lineFeed();
+            case '\b' -> { if (col > 0) col--; wrapPending = false; }
+            case '\t' -> { col = Math.min(cols - 1, (col / 8 + 1) * 8); wrapPending = false; }
+            default -> {
+                if (b >= 0x20 && b != 0x7f) print(b >= 0x80 ? 0xfffd : b);
+            }
+        }
+    }
+
+    void print(int cp) {
+        if (wrapPending) {
+            col = 0;
+            lineFeed();
+        }
+        chars[row][col] = cp;
+        attrs[row][col] = attr;
+        if (col == cols - 1) wrapPending = true;
+        else col++;
+    }
+
+    void lineFeed() {
+        wrapPending = false;
+        if (row == bottom) scrollUp(top, bottom, 1);
+        else if (row < rows - 1) row++;
+    }
+
+    void escape(int b) {
+        state = GROUND;
+        switch (b) {
+            case '[' -> {
+                state = CSI;
+                nparams = 0;
+                params[0] = 0;
+                privateMode = false;
+            }
+            case ']' -> state = OSC;
+            case '(', ')', '*', '+' -> state = CHARSET;
+            case '7' -> saveCursor();
+            case '8' -> restoreCursor();
+            case 'D' -> lineFeed();
+            case 'E' -> { col = 0; lineFeed(); }
+            case 'M' -> {
+                wrapPending = false;
+                if (row == top) scrollDown(top, bottom, 1);
+                else if (row > 0) row--;
+            }
+            case 'c' -> reset();
+            default -> {}
+        }
+    }
+
+    void csi(int b) {
+        if (b >= '0' && b <= '9') {
+            if (nparams == 0) nparams = 1;
+            if (params[nparams - 1] < 10000) params[nparams - 1] = params[nparams - 1] * 10 + (b - '0');
+            return;
+        }
+        if (b == ';' || b == ':') {
+            if (nparams == 0) nparams = 1;
+            if (nparams < params.length) params[nparams++] = 0;
+            return;
+        }
+        if (b == '?' || b == '>' || b == '=') {
+            privateMode = true;
+            return;
+        }
+        if (b < 0x40 || b > 0x7e) return; // intermediates
+        state = GROUND;
+        int p0 = param(0, 0), n = Math.max(1, p0);
+        if (privateMode) {
+            if (b == 'h' || b == 'l') for (int i = 0; i < nparams; i++) privateMode(params[i], b == 'h');
+            return;
+        }
+        switch (b) {
+            case 'A' -> moveTo(row - n, col);
+            case 'B', 'e' -> moveTo(row + n, col);
+            case 'C', 'a' -> moveTo(row, col + n);
+            case 'D' -> moveTo(row, col - n);
+            case 'E' -> moveTo(row + n, 0);
+            case 'F' -> moveTo(row - n, 0);
+            case 'G', '`' -> moveTo(row, n - 1);
+            case 'd' -> moveTo(n - 1, col);
+            case 'H', 'f' -> moveTo(Math.max(1, p0) - 1, Math.max(1, param(1, 1)) - 1);
+            case 'J' -> eraseDisplay(p0);
+            case 'K' -> eraseLine(p0);
+            case 'L' -> { if (row >= top && row <= bottom) scrollDown(row, bottom, n); }
+            case 'M' -> { if (row >= top && row <= bottom) scrollUp(row, bottom, n); }
+            case '@' -> insertChars(n);
+            case 'P' -> deleteChars(n);
+            case 'X' -> clear(row, col, Math.min(cols, col + n));
+            case 'S' -> scrollUp(top, bottom, n);
+            case 'T' -> scrollDown(top, bottom, n);
+            case 'r' -> {
+                int t = Math.max(1, p0) - 1, bt = (param(1, 0) == 0 ? rows : param(1, rows)) - 1;
+                if (t < bt && bt < rows) {
+                    top = t;
+                    bottom = bt;
+                    moveTo(0, 0);
+                }
+            }
+            case 'm' -> sgr();
+            case 's' -> saveCursor();
+            case 'u' -> restoreCursor();
+            default -> {}
+        }
+    }
+
+    int param(int i, int def) {
+        return i < nparams ? params[i] : def;
+    }
+
+    void privateMode(int mode, boolean set) {
+        switch (mode) {
+            case 25 -> cursorVisible = set;
+            case 47, 1047, 1049 -> {
+                if (set == (savedChars != null)) return;
+                if (set) {
+                    if (mode == 1049) saveCursor();
+                    savedChars = chars;
+                    savedAttrs = attrs;
+                    chars = copy(null, new int[rows][cols], ' ');
+                    attrs = new long[rows][cols];
+                } else {
+                    chars = savedChars;
+                    attrs = savedAttrs;
+                    savedChars = null;
+                    savedAttrs = null;
+                    if (mode == 1049) restoreCursor();
+                }
+            }
+            default -> {}
+        }
+    }
+
+    void moveTo(int r, int c) {
+        row = Math.max(0, Math.min(rows - 1, r));
+        col = Math.max(0, Math.min(cols - 1, c));
+        wrapPending = false;
+    }
+
+    void saveCursor() {
+        savedRow = row;
+        savedCol = col;
+        savedAttr = attr;
+    }
+
+    void restoreCursor() {
+        moveTo(savedRow, savedCol);
+        attr = savedAttr;
+    }
+
+    void reset() {
+        chars = copy(null, new int[rows][cols], ' ');
+        attrs = new long[rows][cols];
+        savedChars = null;
+        savedAttrs = null;
+        attr = 0;
+        top = 0;
+        bottom = rows - 1;
+        cursorVisible = true;
+        moveTo(0, 0);
+    }
+
+    // Erased cells keep the current background, as terminals do
+    void clear(int r, int from, int to) {
+        long blank = attr & (COLOR_MASK << BG_SHIFT);
+        for (int c = from; c < to; c++) {
+            chars[r][c] = ' ';
+            attrs[r][c] = blank;
+        }
+    }
+
+    void eraseDisplay(int mode) {
+        switch (mode) {
+            case 0 -> {
+                clear(row, col, cols);
+                for (int r = row + 1; r < rows; r++) clear(r, 0, cols);
+            }
+            case 1 -> {
+                for (int r = 0; r < row; r++) clear(r, 0, cols);
+                clear(row, 0, col + 1);
+            }
+            default -> {
+                for (int r = 0; r < rows; r++) clear(r, 0, cols);
+            }
+        }
+    }
+
+    void eraseLine(int mode) {
+        switch (mode) {
+            case 0 -> clear(row, col, cols);
+            case 1 -> clear(row, 0, col + 1);
+            default -> clear(row, 0, cols);
+        }
+    }
+
+    void insertChars(int n) {
+        n = Math.min(n, cols - col);
+        System.arraycopy(chars[row], col, chars[row], col + n, cols - col - n);
+        System.arraycopy(attrs[row], col, attrs[row], col + n, cols - col - n);
+        clear(row, col, col + n);
+    }
+
+    void deleteChars(int n) {
+        n = Math.min(n, cols - col);
+        System.arraycopy(chars[row], col + n, chars[row], col, cols - col - n);
+        System.arraycopy(attrs[row], col + n, attrs[row], col, cols - col - n);
+        clear(row, cols - n, cols);
+    }
+
+    // Rows move by swapping references; the freed ones are blanked
+    void scrollUp(int from, int to, int n) {
+        n = Math.min(n, to - from + 1);
+        for (int i = 0; i < n; i++) {
+            int[] c = chars[from];
+            long[] a = attrs[from];
+            System.arraycopy(chars, from + 1, chars, from, to - from);
+            System.arraycopy(attrs, from + 1, attrs, from, to - from);
+            chars[to] = c;
+            attrs[to] = a;
+            clear(to, 0, cols);
+        }
+    }
+
+    void scrollDown(int from, int to, int n) {
+        n = Math.min(n, to - from + 1);
+        for (int i = 0; i < n; i++) {
+            int[] c = chars[to];
+            long[] a = attrs[to];
+            System.arraycopy(chars, from, chars, from + 1, to - from);
+            System.arraycopy(attrs, from, attrs, from + 1, to - from);
+            chars[from] = c;
+            attrs[from] = a;
+            clear(from, 0, cols);
+        }
+    }
+
+    void sgr() {
+        if (nparams == 0) {
+            attr = 0;
+            return;
+        }
+        for (int i = 0; i < nparams; i++) {
+            int p = params[i];
+            switch (p) {
+                case 0 -> attr = 0;
+                case 1 -> attr |= BOLD;
+                case 2 -> attr |= DIM;
+                case 3 -> attr |= ITALIC;
+                case 4 -> attr |= UNDERLINE;
+                case 5 -> attr |= BLINK;
+                case 7 -> attr |= REVERSE;
+                case 8 -> attr |= HIDDEN;
+                case 9 -> attr |= STRIKE;
+                case 22 -> attr &= ~(BOLD | DIM);
+                case 23 -> attr &= ~ITALIC;
+                case 24 -> attr &= ~UNDERLINE;
+                case 25 -> attr &= ~BLINK;
+                case 27 -> attr &= ~REVERSE;
+                case 28 -> attr &= ~HIDDEN;
+                case 29 -> attr &= ~STRIKE;
+                case 39 -> attr = withColor(attr, FG_SHIFT, 0);
+                case 49 -> attr = withColor(attr, BG_SHIFT, 0);
+                case 38, 48 -> {
+                    int shift = p == 38 ? FG_SHIFT : BG_SHIFT;
+                    if (param(i + 1, 0) == 5) {
+                        attr = withColor(attr, shift, (param(i + 2, 0) & 0xff) + 1);
+                        i += 2;
+                    } else if (param(i + 1, 0) == 2) {
+                        int rgb = (param(i + 2, 0) & 0xff) << 16 | (param(i + 3, 0) & 0xff) << 8 | (param(i + 4, 0) & 0xff);
+                        attr = withColor(attr, shift, TRUE_COLOR | rgb);
+                        i += 4;
+                    }
+                }
+                default -> {
+                    if (p >= 30 && p <= 37) attr = withColor(attr, FG_SHIFT, p - 30 + 1);
+                    else if (p >= 40 && p <= 47) attr = withColor(attr, BG_SHIFT, p - 40 + 1);
+                    else if (p >= 90 && p <= 97) attr = withColor(attr, FG_SHIFT, p - 90 + 8 + 1);
+                    else if (p >= 100 && p <= 107) attr = withColor(attr, BG_SHIFT, p - 100 + 8 + 1);
+                }
+            }
+        }
+    }
+
+    static long withColor(long attr, int shift, int color) {
+        return (attr & ~(COLOR_MASK << shift)) | ((long) color << shift);
+    }
+
+    // ---- Output ----
+
+    // Changes since the last diff as ANSI, or null when the client already shows this screen
+    synchronized byte[] diff() {
+        StringBuilder sb = new StringBuilder();
+        long pen = 0; // every diff ends with the attributes reset
+        if (full) {
+            sb.append("\u001b[0m\u001b[H\u001b[2J");
+            shownRow = 0;
+            shownCol = 0;
+            for (int r = 0; r < rows; r++) {
+                Arrays.fill(shownChars[r], ' ');
+                Arrays.fill(shownAttrs[r], 0);
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            int first = -1, last = -1;
+            for (int c = 0; c < cols; c++) {
+                if (chars[r][c] != shownChars[r][c] || attrs[r][c] != shownAttrs[r][c]) {
+                    if (first < 0) first = c;
+                    last = c;
+                }
+            }
+            if (first < 0) continue;
+            // a blank tail is cleared with EL rather than written out
+            int end = cols;
+            while (end > 0 && chars[r][end - 1] == ' ' && attrs[r][end - 1] == 0) end--;
+            boolean eraseTail = last >= end;
+            int upTo = eraseTail ? end - 1 : last;
+            if (r != shownRow || first != shownCol) sb.append("\u001b[").append(r + 1).append(';').append(first + 1).append('H');
+            for (int c = first; c <= upTo; c++) {
+                if (attrs[r][c] != pen) {
+                    pen = attrs[r][c];
+                    sgr(sb, pen);
+                }
+                sb.appendCodePoint(chars[r][c]);
+            }
+            int at = Math.max(first, upTo + 1);
+            if (eraseTail) {
+                if (pen != 0) {
+                    sb.append("\u001b[0m");
+                    pen = 0;
+                }
+                sb.append("\u001b[K");
+            }
+            System.arraycopy(chars[r], 0, shownChars[r], 0, cols);
+            System.arraycopy(attrs[r], 0, shownAttrs[r], 0, cols);
+            // after the last column the terminal's cursor position is not reliable
+            shownRow = at < cols ? r : -1;
+            shownCol = at;
+        }
+        if (pen != 0) sb.append("\u001b[0m");
+        if (row != shownRow || col != shownCol) {
+            sb.append("\u001b[").append(row + 1).append(';').append(col + 1).append('H');
+            shownRow = row;
+            shownCol = col;
+        }
+        if (full || cursorVisible != shownCursorVisible) {
+            sb.append(cursorVisible ? "\u001b[?25h" : "\u001b[?25l");
+            shownCursorVisible = cursorVisible;
+        }
+        full = false;
+        return sb.length() == 0 ? null : sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    synchronized void repaint() {
+        full = true;
+    }
+
+    static void sgr(StringBuilder sb, long a) {
+        sb.append("\u001b[0");
+        if ((a & BOLD) != 0) sb.append(";1");
+        if ((a & DIM) != 0) sb.append(";2");
+        if ((a & ITALIC) != 0) sb.append(";3");
+        if ((a & UNDERLINE) != 0) sb.append(";4");
+        if ((a & BLINK) != 0) sb.append(";5");
+        if ((a & REVERSE) != 0) sb.append(";7");
+        if ((a & HIDDEN) != 0) sb.append(";8");
+        if ((a & STRIKE) != 0) sb.append(";9");
+        color(sb, (int) ((a >>> FG_SHIFT) & COLOR_MASK), 30);
+        color(sb, (int) ((a >>> BG_SHIFT) & COLOR_MASK), 40);
+        sb.append('m');
+    }
+
+    static void color(StringBuilder sb, int c, int base) {
+        if (c == 0) return;
+        if ((c & TRUE_COLOR) != 0) {
+            sb.append(';').append(base + 8).append(";2;")
+                    .append((c >> 16) & 0xff).append(';').append((c >> 8) & 0xff).append(';').append(c & 0xff);
+        } else if (c <= 8) {
+            sb.append(';').append(base + c - 1);
+        } else if (c <= 16) {
+            sb.append(';').append(base + 60 + c - 9);
+        } else {
+            sb.append(';').append(base + 8).append(";5;").append(c - 1);
+        }
+    }
+}
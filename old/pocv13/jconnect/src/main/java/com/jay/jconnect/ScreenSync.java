@@ -0,0 +1,142 @@
+package com.jay.jconnect;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Screen mode of the SSH session: PTY output feeds a ScreenModel and the client is sent diffs of
+ * that screen, at most fps a second, instead of the raw bytes.
+ *
+ * The client asks for it with a "clientScreen" token in the session state, new on every client
+ * start; a new token gets a full repaint. A frame is built when the screen has changed and the
+ * previous frame has been accepted by the store. Until then the model keeps absorbing output, so
+ * the next frame skips the states in between and a program writing flat out (top, a build log)
+ * costs the link one screen per frame at most. Output on a screen idle for a frame interval goes
+ * out at once, so a typed key's echo does not wait for the next tick.
+ *
+ * Before the client asks the raw bytes go through FrameCoalescer; the model is fed either way so
+ * the first repaint is complete. Frames count in the coalescer's backlog too, but in screen mode
+ * the PTY reader need not wait for it: at most one frame is in flight.
+ *
+ * Options: -noscreen -screenFps=20
+ */
+class ScreenSync {
+    final Transport.Channel ch;
+    final FrameCodec codec;
+    final FrameCoalescer raw;
+    final ScreenModel model;
+    final long intervalNanos;
+
+    String token;           // guarded by this; the client's, while screen mode is on
+    boolean dirty;
+    long lastFrameAt;
+    ScheduledFuture<?> timer;
+    CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+    final LongAdder ptyBytes = new LongAdder();
+    final LongAdder framesOut = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder ticksSkipped = new LongAdder();
+
+    ScreenSync(Transport.Channel ch, FrameCodec codec, FrameCoalescer raw, int cols, int rows, int fps) {
+        this.ch = ch;
+        this.codec = codec;
+        this.raw = raw;
+        this.model = new ScreenModel(cols, rows);
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, fps);
+    }
+
+    // Null with -noscreen: raw bytes only
+    static ScreenSync fromOptions(Transport.Channel ch, FrameCodec codec, FrameCoalescer raw,
+                                  int cols, int rows, Options opts) {
+        if (opts.has("noscreen")) return null;
+        return new ScreenSync(ch, codec, raw, cols, rows, opts.getInt("screenFps", 20));
+    }
+
+    // PTY output
+    synchronized void write(byte[] b, int off, int n) {
+        ptyBytes.add(n);
+        model.feed(b, off, n);
+        if (token == null) raw.write(b, off, n);
+        else changed();
+    }
+
+    synchronized boolean active() {
+        return token != null;
+    }
+
+    synchronized void onState(Map<String, Object> st) {
+        String t = st.get("clientScreen") instanceof String s ? s : null;
+        if (Objects.equals(t, token)) return;
+        token = t;
+        if (t == null) return;
+        raw.flush(); // whatever went raw is published before the repaint
+        model.repaint();
+        changed();
+    }
+
+    synchronized void resize(int cols, int rows) {
+        model.resize(cols, rows);
+        if (token != null) changed();
+    }
+
+    synchronized void changed() {
+        dirty = true;
+        if (timer != null) return;
+        long wait = lastFrameAt + intervalNanos - System.nanoTime();
+        if (wait <= 0 && inFlight.isDone()) {
+            frame();
+        } else {
+            timer = Workers.scheduler.schedule(this::tick, Math.max(wait, intervalNanos / 4), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    synchronized void tick() {
+        timer = null;
+        if (!dirty || token == null) return;
+        if (!inFlight.isDone()) {
+            // the previous frame is still on its way; this one would only queue behind it
+            ticksSkipped.increment();
+            timer = Workers.scheduler.schedule(this::tick, intervalNanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+        frame();
+    }
+
+    // Also the last word when the shell exits
+    synchronized void flush() {
+        if (token == null) raw.flush();
+        else if (dirty) frame();
+    }
+
+    void frame() {
+        dirty = false;
+        lastFrameAt = System.nanoTime();
+        byte[] d = model.diff();
+        if (d == null) return;
+        List<Map<String, Object>> frames = new ArrayList<>();
+        long encoded = 0;
+        for (int off = 0; off < d.length; off += raw.frameBytes) {
+            Map<String, Object> f = new HashMap<>(4);
+            codec.put(f, "data", d, off, Math.min(raw.frameBytes, d.length - off), true);
+            encoded += ((String) f.get("data")).length();
+            frames.add(f);
+        }
+        framesOut.increment();
+        bytesOut.add(d.length);
+        inFlight = raw.backlog.track(ch.publishAll(Transport.OUTPUT, frames), frames.size(), encoded);
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("active", token != null);
+        s.put("ptyBytes", ptyBytes.sum());
+        s.put("frames", framesOut.sum());
+        s.put("bytes", bytesOut.sum());
+        s.put("ticksSkipped", ticksSkipped.sum());
+        return s;
+    }
+}
@@ -0,0 +1,362 @@
+package com.jay.jconnect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Segmented body transfer with a sliding window, used for large HTTP bodies in
+ * both directions (uploads JCli -> JServ, downloads JServ -> JCli).
+ *
+ * Data frames : {reqId, seq, data[, enc]} ... {reqId, seq, end[, error]}
+ * Ack frames  : {reqId, got: <first seq not yet received>}   receipt, sent by the Inbox on arrival
+ *               {reqId, ack: <first seq not yet consumed>}   credit, sent by the Receiver as it reads
+ *               {reqId, nack: [missing seqs]}
+ *               all on the opposite stream. A bare ack (older receivers) counts as both.
+ *
+ * Receipt drives retransmission, credit drives the window: the sender has at most `window`
+ * segments beyond what the receiver has consumed, and resends only segments that have not
+ * arrived. When receipts stall it resends the head segment alone (a duplicate is answered with
+ * a receipt, so a live receiver always replies), and it gives up only after MAX_RETRANSMITS
+ * rounds without hearing anything at all. A slow consumer therefore just holds the sender back.
+ * The receiver delivers in order, buffers at most a window of early segments, and reports every
+ * half window. Memory per transfer is therefore about window * segmentBytes on each side,
+ * whatever the body size.
+ *
+ * A sender created with acked=false (peer does not ack) only limits unconfirmed
+ * store writes, which is what HTTP streaming did before segments had acks.
+ */
+class SegmentedTransfer {
+    static final long RETRANSMIT_MS = 3000;
+    static final int MAX_RETRANSMITS = 5;
+
+    static final LongAdder segmentsSent = new LongAdder();
+    static final LongAdder segmentsResent = new LongAdder();
+    static final LongAdder segmentsReceived = new LongAdder();
+    static final LongAdder duplicates = new LongAdder();
+    static final LongAdder nacks = new LongAdder();
+    static final LongAdder aborted = new LongAdder();
+
+    static boolean isAck(Map<String, Object> frame) {
+        return frame.containsKey("ack") || frame.containsKey("got") || frame.containsKey("nack");
+    }
+
+    static long seqOf(Map<String, Object> frame, long def) {
+        Object s = frame.get("seq");
+        return s instanceof Number n ? n.longValue() : def;
+    }
+
+    static Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("sent", segmentsSent.sum());
+        s.put("resent", segmentsResent.sum());
+        s.put("received", segmentsReceived.sum());
+        s.put("duplicates", duplicates.sum());
+        s.put("nacks", nacks.sum());
+        s.put("aborted", aborted.sum());
+        return s;
+    }
+
+    // ---- Sender ----
+    static class Sender {
+        final Transport.Channel ch;
+        final String stream;
+        final String reqId;
+        final FrameCodec codec;
+        final boolean compress;
+        final int segmentBytes;
+        final int window;
+        final boolean acked;
+
+        final TreeMap<Long, Map<String, Object>> unacked = new TreeMap<>(); // sent, not yet received
+        long nextSeq;
+        long consumed;      // the receiver has read everything below this
+        int writesInFlight;
+        long lastProgress = System.nanoTime();
+        int retransmits;
+        boolean finished;
+        String failure;
+        ScheduledFuture<?> timer;
+
+        Sender(Transport.Channel ch, String stream, String reqId, FrameCodec codec, boolean compress,
+               int segmentBytes, int window, boolean acked) {
+            this.ch = ch;
+            this.stream = stream;
+            this.reqId = reqId;
+            this.codec = codec;
+            this.compress = compress;
+            this.segmentBytes = segmentBytes;
+            this.window = Math.max(1, window);
+            this.acked = acked;
+            if (acked) timer = Workers.every(RETRANSMIT_MS / 2, this::checkStalled);
+        }
+
+        void write(byte[] b, int off, int len) throws IOException, InterruptedException {
+            while (len > 0) {
+                int n = Math.min(len, segmentBytes);
+                Map<String, Object> seg = new HashMap<>();
+                seg.put("reqId", reqId);
+                codec.put(seg, "data", b, off, n, compress);
+                send(seg);
+                off += n;
+                len -= n;
+            }
+        }
+
+        // Sends the end marker and, when the peer acks, waits until everything has been received
+        void finish(String error) throws IOException, InterruptedException {
+            Map<String, Object> end = new HashMap<>();
+            end.put("reqId", reqId);
+            end.put("end", true);
+            if (error != null) end.put("error", error);
+            send(end);
+            synchronized (this) {
+                finished = true;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRANSMIT_MS * MAX_RETRANSMITS);
+                while ((acked ? !unacked.isEmpty() : writesInFlight > 0) && failure == null) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+            }
+            close();
+        }
+
+        void send(Map<String, Object> seg) throws IOException, InterruptedException {
+            synchronized (this) {
+                while ((acked ? nextSeq - consumed : writesInFlight) >= window && failure == null) wait();
+                if (failure != null) throw new IOException(failure);
+                seg.put("seq", nextSeq);
+                if (acked) unacked.put(nextSeq, seg);
+                nextSeq++;
+                writesInFlight++;
+                segmentsSent.increment();
+            }
+            ch.publish(stream, seg).whenComplete((v, e) -> {
+                synchronized (this) {
+                    writesInFlight--;
+                    if (e != null && !acked) failure = "Store write failed: " + e.getMessage();
+                    notifyAll();
+                }
+            });
+        }
+
+        // Called from the transport listener with a {got}, {ack} or {nack} frame
+        void onAck(Map<String, Object> frame) {
+            List<Map<String, Object>> resend = new ArrayList<>();
+            synchronized (this) {
+                retransmits = 0; // the receiver is there, whatever it says
+                if (frame.get("got") instanceof Number g) received(g.longValue());
+                if (frame.get("ack") instanceof Number a) {
+                    received(a.longValue());
+                    consumed = Math.max(consumed, a.longValue());
+                }
+                if (frame.get("nack") instanceof List<?> missing) {
+                    for (Object m : missing) {
+                        Map<String, Object> seg = unacked.get(((Number) m).longValue());
+                        if (seg != null) resend.add(seg);
+                    }
+                }
+                notifyAll();
+            }
+            segmentsResent.add(resend.size());
+            for (Map<String, Object> seg : resend) ch.publish(stream, seg);
+        }
+
+        void received(long upTo) {
+            if (!unacked.isEmpty() && unacked.firstKey() < upTo) {
+                unacked.headMap(upTo).clear();
+                lastProgress = System.nanoTime();
+            }
+        }
+
+        // Everything sent has arrived, or only the consumer is behind: nothing to do. Otherwise
+        // the head segment is resent; retransmits counts the rounds since the peer last spoke.
+        void checkStalled() {
+            Map<String, Object> head;
+            synchronized (this) {
+                if (unacked.isEmpty() || System.nanoTime() - lastProgress < TimeUnit.MILLISECONDS.toNanos(RETRANSMIT_MS))
+                    return;
+                if (++retransmits > MAX_RETRANSMITS) {
+                    failure = "Peer stopped acknowledging segments";
+                    aborted.increment();
+                    notifyAll();
+                    close();
+                    return;
+                }
+                lastProgress = System.nanoTime();
+                head = unacked.firstEntry().getValue();
+            }
+            segmentsResent.increment();
+            ch.publish(stream, head);
+        }
+
+        synchronized void abort(String reason) {
+            if (failure == null) {
+                failure = reason;
+                aborted.increment();
+            }
+            notifyAll();
+            close();
+        }
+
+        void close() {
+            if (timer != null) timer.cancel(false);
+        }
+    }
+
+    // ---- Inbox ----
+    // Queue of one transfer's incoming frames that reports receipt as segments land, before
+    // anyone reads them: {got} every half window, after a gap is filled, on the end marker and
+    // on a duplicate. Other frames (a response head) pass through untouched.
+    static class Inbox extends LinkedBlockingQueue<Map<String, Object>> {
+        final Transport.Channel ch;
+        final String ackStream;
+        final String reqId;
+        final int ackEvery;
+
+        final TreeSet<Long> early = new TreeSet<>();
+        long got;
+        long reported;
+
+        Inbox(Transport.Channel ch, String ackStream, String reqId, int window) {
+            this.ch = ch;
+            this.ackStream = ackStream;
+            this.reqId = reqId;
+            this.ackEvery = Math.max(1, window / 2);
+        }
+
+        @Override
+        public boolean offer(Map<String, Object> frame) {
+            if (frame.get("seq") instanceof Number n) received(n.longValue(), Boolean.TRUE.equals(frame.get("end")));
+            return super.offer(frame);
+        }
+
+        synchronized void received(long seq, boolean end) {
+            boolean report = end || seq < got || (seq == got && !early.isEmpty());
+            if (seq >= got) early.add(seq);
+            while (early.remove(got)) got++;
+            if (report || got - reported >= ackEvery) {
+                reported = got;
+                ch.publish(ackStream, Map.of("reqId", reqId, "got", got));
+            }
+        }
+    }
+
+    // ---- Receiver ----
+    static class Receiver {
+        final Transport.Channel ch;
+        final String ackStream;
+        final String reqId;
+        final FrameCodec codec;
+        final BlockingQueue<Map<String, Object>> inbox;
+        final int ackEvery;
+        final long idleTimeoutMs;
+        final boolean sendAcks;
+
+        final TreeMap<Long, Map<String, Object>> early = new TreeMap<>();
+        long next;
+        long delivered;
+        long lastNackAt;
+        boolean ended;
+
+        Receiver(Transport.Channel ch, String ackStream, String reqId, FrameCodec codec,
+                 BlockingQueue<Map<String, Object>> inbox, int window, long idleTimeoutMs, boolean sendAcks) {
+            this.ch = ch;
+            this.ackStream = ackStream;
+            this.reqId = reqId;
+            this.codec = codec;
+            this.inbox = inbox;
+            this.ackEvery = Math.max(1, window / 2);
+            this.idleTimeoutMs = idleTimeoutMs;
+            this.sendAcks = sendAcks;
+        }
+
+        // Next payload in order, or null once the end marker has been consumed
+        byte[] next() throws IOException, InterruptedException {
+            while (!ended) {
+                Map<String, Object> f = early.remove(next);
+                if (f == null) {
+                    f = inbox.poll(idleTimeoutMs, TimeUnit.MILLISECONDS);
+                    if (f == null) throw new IOException("Timeout waiting for segment " + next);
+                    segmentsReceived.increment();
+                }
+                long seq = seqOf(f, next);
+                if (seq < next) {
+                    duplicates.increment();
+                    ack(); // duplicate of something we already have, sender missed our ack
+                    continue;
+                }
+                if (seq > next) {
+                    early.put(seq, f);
+                    nackGap(seq);
+                    continue;
+                }
+                next++;
+                if (Boolean.TRUE.equals(f.get("end"))) {
+                    ended = true;
+                    ack();
+                    if (f.get("error") != null) throw new IOException("Sender failed: " + f.get("error"));
+                    return null;
+                }
+                if (++delivered % ackEvery == 0) ack();
+                byte[] data = codec.get(f, "data");
+                if (data != null && data.length > 0) return data;
+            }
+            return null;
+        }
+
+        void ack() {
+            if (sendAcks) ch.publish(ackStream, Map.of("reqId", reqId, "ack", next));
+        }
+
+        void nackGap(long seen) {
+            long now = System.nanoTime();
+            if (!sendAcks || now - lastNackAt < TimeUnit.MILLISECONDS.toNanos(RETRANSMIT_MS / 2)) return;
+            lastNackAt = now;
+            nacks.increment();
+            List<Long> missing = new ArrayList<>();
+            for (long s = next; s < seen && missing.size() < 64; s++) {
+                if (!early.containsKey(s)) missing.add(s);
+            }
+            ch.publish(ackStream, Map.of("reqId", reqId, "nack", missing));
+        }
+
+        InputStream asInputStream() {
+            return new InputStream() {
+                byte[] cur = new byte[0];
+                int pos;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) return 0;
+                    while (pos >= cur.length) {
+                        try {
+                            cur = Receiver.this.next();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted", e);
+                        }
+                        pos = 0;
+                        if (cur == null) {
+                            cur = new byte[0];
+                            return -1;
+                        }
+                    }
+                    int n = Math.min(len, cur.length - pos);
+                    System.arraycopy(cur, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.jay.jconnect;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/*
+ * One running server session (ssh, http or tcp), as returned by JServ.runXxxServer.
+ *
+ * Whatever a session starts (subscriptions, timers, shell, sockets) registers how to undo it
+ * here, so the manage server can host many sessions in its own JVM and stop one of them
+ * without touching the others. Closers run once, newest first. A standalone JServ waits on
+ * `exit` and exits with its code; the manage server reads `status`, `metrics` and `probe`.
+ */
+class SessionHandle implements AutoCloseable {
+    final String feature;
+    final String sessionId;
+    final CompletableFuture<Integer> exit = new CompletableFuture<>();
+    final Deque<Runnable> closers = new ArrayDeque<>(); // guarded by this
+    final Metrics metrics = new Metrics();
+    volatile LatencyProbe probe;
+    volatile String status = "running";
+
+    SessionHandle(String feature, String sessionId) {
+        this.feature = feature;
+        this.sessionId = sessionId;
+    }
+
+    boolean isRunning() {
+        return "running".equals(status);
+    }
+
+    // Registered after the session ended: runs at once
+    void onClose(Runnable r) {
+        synchronized (this) {
+            if (isRunning()) {
+                closers.push(r);
+                return;
+            }
+        }
+        r.run();
+    }
+
+    void own(Transport.Subscription sub) {
+        onClose(sub::cancel);
+    }
+
+    void own(ScheduledFuture<?> timer) {
+        if (timer != null) onClose(() -> timer.cancel(false));
+    }
+
+    // The session ended on its own (e.g. the shell exited)
+    void exited(int code) {
+        end("exited", code);
+    }
+
+    // Stopped from outside
+    @Override
+    public void close() {
+        end("stopped", 0);
+    }
+
+    void end(String how, int code) {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (!isRunning()) return;
+            status = how;
+            toRun = new ArrayList<>(closers);
+            closers.clear();
+        }
+        for (Runnable r : toRun) {
+            try {
+                r.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        exit.complete(code);
+    }
+}
@@ -0,0 +1,259 @@
+package com.jay.jconnect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Client side of the "tcp" feature: accepts connections on local ports and multiplexes
+ * them over the session as streams (protocol in TcpRelay). Each connection gets a reader
+ * and a writer virtual thread; the reader only sends while the server has credit for the
+ * stream, the writer grants credit back as it drains into the local socket.
+ *
+ * Options: -L=LOCAL:REMOTE[,LOCAL:REMOTE...] -tcpWindow=262144 -tcpFrameBytes=65536
+ */
+class TcpForwarder {
+    static final long OPEN_TIMEOUT_MS = 15000;
+    static final byte[] EOF = new byte[0];
+
+    final Transport.Channel ch;
+    final FrameCodec codec;
+    final int window;
+    final int frameBytes;
+    final String epoch = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+    final AtomicLong ids = new AtomicLong();
+    final Map<String, Conn> conns = new ConcurrentHashMap<>();
+
+    final LongAdder accepted = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder bytesUp = new LongAdder();
+    final LongAdder bytesDown = new LongAdder();
+
+    TcpForwarder(Transport.Channel ch, FrameCodec codec, int window, int frameBytes) {
+        this.ch = ch;
+        this.codec = codec;
+        this.window = window;
+        this.frameBytes = frameBytes;
+    }
+
+    static TcpForwarder fromOptions(Transport.Channel ch, Options opts) {
+        return fromOptions(ch, FrameCodec.fromOptions("client", opts), opts);
+    }
+
+    static TcpForwarder fromOptions(Transport.Channel ch, FrameCodec codec, Options opts) {
+        return new TcpForwarder(ch, codec, opts.getInt("tcpWindow", 256 * 1024), opts.getInt("tcpFrameBytes", 64 * 1024));
+    }
+
+    // Binds localhost:<localPort>; connections are forwarded to localhost:<remotePort> on the server host
+    void listen(int localPort, int remotePort) throws IOException {
+        ServerSocket ss = new ServerSocket();
+        ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), localPort));
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket s = ss.accept();
+                    s.setTcpNoDelay(true);
+                    adopt(s, remotePort, null);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "tcp-forward-" + localPort);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Forwards a connection accepted elsewhere; head = bytes already read from it, sent first
+    void adopt(Socket s, int remotePort, byte[] head) {
+        accepted.increment();
+        Conn c = new Conn(epoch + "-" + ids.incrementAndGet(), s, remotePort);
+        c.head = head;
+        conns.put(c.sid, c);
+        c.start();
+    }
+
+    // Called on the transport thread; never blocks
+    void onFrame(Map<String, Object> val) {
+        Conn c = conns.get(String.valueOf(val.get("sid")));
+        if (c == null) return;
+        Object op = val.get("op");
+        if (val.containsKey("data")) {
+            c.toLocal.offer(codec.get(val, "data"));
+        } else if (val.get("credit") instanceof Number n) {
+            c.addCredit(n.longValue());
+        } else if ("opened".equals(op)) {
+            c.opened(val.get("window") instanceof Number n ? n.longValue() : window);
+        } else if ("eof".equals(op)) {
+            c.toLocal.offer(EOF);
+        } else if ("close".equals(op)) {
+            if (val.get("error") != null) {
+                failed.increment();
+                System.err.println("[jcli] tcp " + c.sid + ": " + val.get("error"));
+            }
+            c.abort(false);
+        }
+    }
+
+    class Conn {
+        final String sid;
+        final Socket socket;
+        final int port;
+        final LinkedBlockingQueue<byte[]> toLocal = new LinkedBlockingQueue<>();
+        byte[] head;                 // sent before anything read from the socket
+        long credit;                 // guarded by this
+        boolean isOpen, closed;      // guarded by this
+        boolean sentEof, gotEof;     // guarded by this
+
+        Conn(String sid, Socket socket, int port) {
+            this.sid = sid;
+            this.socket = socket;
+            this.port = port;
+        }
+
+        void start() {
+            ch.publish(Transport.INPUT, Map.of("sid", sid, "op", "open", "port", port, "window", window));
+            Thread.ofVirtual().name("tcp-up-" + sid).start(this::pumpUp);
+            Thread.ofVirtual().name("tcp-down-" + sid).start(this::pumpDown);
+        }
+
+        synchronized void opened(long serverWindow) {
+            isOpen = true;
+            credit = serverWindow;
+            notifyAll();
+        }
+
+        synchronized void addCredit(long n) {
+            credit += n;
+            notifyAll();
+        }
+
+        // Waits for the stream to be open and have credit; returns how much may be sent, 0 if closed
+        synchronized long awaitCredit() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + OPEN_TIMEOUT_MS;
+            while (!closed && (!isOpen || credit <= 0)) {
+                if (!isOpen) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        closed = true;
+                        break;
+                    }
+                    wait(left);
+                } else {
+                    wait();
+                }
+            }
+            return closed ? 0 : credit;
+        }
+
+        // local socket -> server
+        void pumpUp() {
+            byte[] buf = new byte[frameBytes];
+            int headOff = 0;
+            try {
+                InputStream in = socket.getInputStream(); // closing it would close the socket, still in use downstream
+                while (true) {
+                    long allowed = awaitCredit();
+                    if (allowed == 0) break;
+                    int n;
+                    if (head != null) {
+                        n = (int) Math.min(Math.min(buf.length, allowed), head.length - headOff);
+                        System.arraycopy(head, headOff, buf, 0, n);
+                        headOff += n;
+                        if (headOff == head.length) head = null;
+                    } else {
+                        n = in.read(buf, 0, (int) Math.min(buf.length, allowed));
+                    }
+                    if (n < 0) {
+                        ch.publish(Transport.INPUT, Map.of("sid", sid, "op", "eof"));
+                        synchronized (this) {
+                            sentEof = true;
+                        }
+                        maybeDone();
+                        return;
+                    }
+                    Map<String, Object> f = new HashMap<>();
+                    f.put("sid", sid);
+                    codec.put(f, "data", buf, 0, n, true);
+                    ch.publish(Transport.INPUT, f);
+                    bytesUp.add(n);
+                    synchronized (this) {
+                        credit -= n;
+                    }
+                }
+                abort(true);
+            } catch (IOException | InterruptedException e) {
+                abort(true);
+            }
+        }
+
+        // server -> local socket
+        void pumpDown() {
+            long written = 0;
+            try {
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    byte[] b = toLocal.take();
+                    if (b == EOF) {
+                        socket.shutdownOutput();
+                        synchronized (this) {
+                            gotEof = true;
+                        }
+                        maybeDone();
+                        return;
+                    }
+                    out.write(b);
+                    written += b.length;
+                    bytesDown.add(b.length);
+                    if (written >= window / 4 || toLocal.isEmpty()) {
+                        out.flush();
+                        ch.publish(Transport.INPUT, Map.of("sid", sid, "credit", written));
+                        written = 0;
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                abort(true);
+            }
+        }
+
+        void maybeDone() {
+            synchronized (this) {
+                if (!sentEof || !gotEof || closed) return;
+                closed = true;
+            }
+            conns.remove(sid);
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+
+        void abort(boolean tellServer) {
+            synchronized (this) {
+                if (closed && !conns.containsKey(sid)) return;
+                closed = true;
+                notifyAll();
+            }
+            if (conns.remove(sid) == null) return;
+            toLocal.offer(EOF);
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+            if (tellServer) ch.publish(Transport.INPUT, Map.of("sid", sid, "op", "close"));
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("open", conns.size());
+        s.put("accepted", accepted.sum());
+        s.put("failed", failed.sum());
+        s.put("bytesUp", bytesUp.sum());
+        s.put("bytesDown", bytesDown.sum());
+        return s;
+    }
+}
@@ -0,0 +1,270 @@
+package com.jay.jconnect;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Server side of the "tcp" feature: raw TCP streams multiplexed over one session.
+ * JCli (TcpForwarder) accepts local connections, JServ dials localhost:<port> for each.
+ *
+ * Frames, both directions, keyed by stream id (sid, chosen by the client):
+ *   {sid, op: "open", port, window}    client -> server, window = bytes the client will buffer
+ *   {sid, op: "opened", window}        server -> client once connected
+ *   {sid, data[, enc]}                 payload
+ *   {sid, credit: n}                   n more payload bytes may be sent (receiver wrote them out)
+ *   {sid, op: "eof"}                   sender's socket reached EOF (half close)
+ *   {sid, op: "close"[, error]}        stream aborted / connect failed
+ * A stream is done once both sides sent eof and everything was written.
+ *
+ * All sockets live on one selector thread; frames from the transport are handed over as tasks.
+ * A stream is only read while the client has credit left for it, so a slow consumer on
+ * one stream does not pile up data for it here, and the other streams keep flowing.
+ *
+ * Options: -tcpWindow=262144 -tcpFrameBytes=65536
+ */
+class TcpRelay {
+    final Transport.Channel ch;
+    final FrameCodec codec;
+    final int window;
+    final ByteBuffer readBuf;
+    final Selector selector;
+    final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    final Map<String, Stream> streams = new HashMap<>(); // selector thread only
+
+    final LongAdder opened = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder bytesUp = new LongAdder();    // client -> upstream
+    final LongAdder bytesDown = new LongAdder();  // upstream -> client
+    final LongAdder creditStalls = new LongAdder();
+    volatile int open;
+    volatile boolean closed;
+
+    TcpRelay(Transport.Channel ch, FrameCodec codec, int window, int frameBytes) throws IOException {
+        this.ch = ch;
+        this.codec = codec;
+        this.window = window;
+        this.readBuf = ByteBuffer.allocate(frameBytes);
+        this.selector = Selector.open();
+    }
+
+    static TcpRelay fromOptions(Transport.Channel ch, Options opts) throws IOException {
+        return fromOptions(ch, FrameCodec.fromOptions("server", opts), opts);
+    }
+
+    // Sharing a session's codec, e.g. the http feature's for upgraded (WebSocket) exchanges
+    static TcpRelay fromOptions(Transport.Channel ch, FrameCodec codec, Options opts) throws IOException {
+        return new TcpRelay(ch, codec, opts.getInt("tcpWindow", 256 * 1024), opts.getInt("tcpFrameBytes", 64 * 1024));
+    }
+
+    void start() {
+        Thread t = new Thread(this::run, "tcp-relay");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Called on the transport thread
+    void onFrame(Map<String, Object> val) {
+        tasks.add(() -> handle(val));
+        selector.wakeup();
+    }
+
+    static class Stream {
+        final String sid;
+        final SocketChannel sc;
+        SelectionKey key;
+        long credit;             // payload bytes we may still send to the client
+        final ArrayDeque<ByteBuffer> toUpstream = new ArrayDeque<>();
+        long written;            // written upstream since the last credit we granted
+        boolean connected, peerEof, localEof;
+
+        Stream(String sid, SocketChannel sc, long credit) {
+            this.sid = sid;
+            this.sc = sc;
+            this.credit = credit;
+        }
+    }
+
+    void run() {
+        while (!closed) {
+            try {
+                selector.select();
+                Runnable r;
+                while ((r = tasks.poll()) != null) r.run();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey k = it.next();
+                    it.remove();
+                    Stream s = (Stream) k.attachment();
+                    try {
+                        if (k.isValid() && k.isConnectable()) onConnect(s);
+                        if (k.isValid() && k.isReadable()) onReadable(s);
+                        if (k.isValid() && k.isWritable()) onWritable(s);
+                    } catch (IOException e) {
+                        abort(s, e.getMessage(), true);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        for (Stream s : new ArrayList<>(streams.values())) abort(s, "Session stopped", true);
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    // Aborts every stream and ends the selector thread
+    void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    void handle(Map<String, Object> val) {
+        String sid = String.valueOf(val.get("sid"));
+        Stream s = streams.get(sid);
+        Object op = val.get("op");
+        try {
+            if ("open".equals(op)) {
+                if (s != null) return;
+                int port = ((Number) val.get("port")).intValue();
+                long credit = val.get("window") instanceof Number n ? n.longValue() : window;
+                SocketChannel sc = SocketChannel.open();
+                sc.configureBlocking(false);
+                s = new Stream(sid, sc, credit);
+                streams.put(sid, s);
+                open = streams.size();
+                s.key = sc.register(selector, SelectionKey.OP_CONNECT, s);
+                if (sc.connect(new InetSocketAddress("localhost", port))) onConnect(s);
+                return;
+            }
+            if (s == null) return; // late frame for a stream already gone
+            if (val.containsKey("data")) {
+                byte[] b = codec.get(val, "data");
+                s.toUpstream.add(ByteBuffer.wrap(b));
+                if (s.connected) interest(s, SelectionKey.OP_WRITE, true);
+            } else if (val.get("credit") instanceof Number n) {
+                s.credit += n.longValue();
+                if (s.connected && !s.localEof) interest(s, SelectionKey.OP_READ, true);
+            } else if ("eof".equals(op)) {
+                s.peerEof = true;
+                if (s.connected && s.toUpstream.isEmpty()) {
+                    s.sc.shutdownOutput();
+                    maybeDone(s);
+                }
+            } else if ("close".equals(op)) {
+                abort(s, null, false);
+            }
+        } catch (IOException e) {
+            if (s != null) abort(s, e.getMessage(), true);
+        }
+    }
+
+    void onConnect(Stream s) throws IOException {
+        try {
+            if (!s.sc.finishConnect()) return;
+        } catch (IOException e) {
+            failed.increment();
+            abort(s, "Connect failed: " + e.getMessage(), true);
+            return;
+        }
+        s.connected = true;
+        opened.increment();
+        s.key.interestOps((s.credit > 0 ? SelectionKey.OP_READ : 0) | (s.toUpstream.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        ch.publish(Transport.OUTPUT, Map.of("sid", s.sid, "op", "opened", "window", window));
+        if (s.peerEof && s.toUpstream.isEmpty()) s.sc.shutdownOutput();
+    }
+
+    void onReadable(Stream s) throws IOException {
+        readBuf.clear();
+        readBuf.limit((int) Math.min(readBuf.capacity(), s.credit));
+        int n = s.sc.read(readBuf);
+        if (n < 0) {
+            s.localEof = true;
+            interest(s, SelectionKey.OP_READ, false);
+            ch.publish(Transport.OUTPUT, Map.of("sid", s.sid, "op", "eof"));
+            maybeDone(s);
+            return;
+        }
+        if (n == 0) return;
+        Map<String, Object> f = new HashMap<>();
+        f.put("sid", s.sid);
+        codec.put(f, "data", readBuf.array(), 0, n, true);
+        ch.publish(Transport.OUTPUT, f);
+        bytesDown.add(n);
+        s.credit -= n;
+        if (s.credit <= 0) {
+            creditStalls.increment();
+            interest(s, SelectionKey.OP_READ, false);
+        }
+    }
+
+    void onWritable(Stream s) throws IOException {
+        while (!s.toUpstream.isEmpty()) {
+            ByteBuffer b = s.toUpstream.peek();
+            int n = s.sc.write(b);
+            s.written += n;
+            bytesUp.add(n);
+            if (b.hasRemaining()) break; // socket buffer full, wait for the next OP_WRITE
+            s.toUpstream.poll();
+        }
+        // grant in batches, but always once drained so the client never waits on a small remainder
+        if (s.written > 0 && (s.written >= window / 4 || s.toUpstream.isEmpty())) {
+            ch.publish(Transport.OUTPUT, Map.of("sid", s.sid, "credit", s.written));
+            s.written = 0;
+        }
+        if (s.toUpstream.isEmpty()) {
+            interest(s, SelectionKey.OP_WRITE, false);
+            if (s.peerEof) {
+                s.sc.shutdownOutput();
+                maybeDone(s);
+            }
+        }
+    }
+
+    void interest(Stream s, int op, boolean on) {
+        if (!s.key.isValid()) return;
+        int ops = s.key.interestOps();
+        s.key.interestOps(on ? ops | op : ops & ~op);
+    }
+
+    void maybeDone(Stream s) throws IOException {
+        if (s.localEof && s.peerEof && s.toUpstream.isEmpty()) {
+            streams.remove(s.sid);
+            open = streams.size();
+            s.key.cancel();
+            s.sc.close();
+        }
+    }
+
+    void abort(Stream s, String error, boolean tellClient) {
+        streams.remove(s.sid);
+        open = streams.size();
+        if (s.key != null) s.key.cancel();
+        try {
+            s.sc.close();
+        } catch (IOException ignored) {}
+        if (tellClient) {
+            Map<String, Object> f = new HashMap<>();
+            f.put("sid", s.sid);
+            f.put("op", "close");
+            if (error != null) f.put("error", error);
+            ch.publish(Transport.OUTPUT, f);
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("open", open);
+        s.put("opened", opened.sum());
+        s.put("failed", failed.sum());
+        s.put("bytesUp", bytesUp.sum());
+        s.put("bytesDown", bytesDown.sum());
+        s.put("creditStalls", creditStalls.sum());
+        return s;
+    }
+}
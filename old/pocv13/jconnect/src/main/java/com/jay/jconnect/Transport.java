@@ -0,0 +1,102 @@
+package com.jay.jconnect;
+
+/*
+ * Transport SPI used by JServ and JCli.
+ *
+ * A session lives under a prefix such as "sessions/<id>/ssh" and owns two ordered
+ * frame streams ("input": client -> server, "output": server -> client) plus a
+ * "state" node. Frames are plain maps of RTDB-compatible values
+ * (String, Number, Boolean, Map, List), exactly what used to be written with
+ * push().setValueAsync(...).
+ *
+ * Implementations:
+ *  - FirebaseTransport : Firebase RTDB (default, production)
+ *  - MemoryTransport   : in-process queues, one JVM (benchmarks)
+ *  - LoopbackTransport : local TCP hub, JServ and JCli as separate processes without RTDB
+ */
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+public interface Transport extends AutoCloseable {
+    String INPUT = "input";
+    String OUTPUT = "output";
+
+    /** Frame streams and state node of one session, e.g. channel("sessions/42/http"). */
+    Channel channel(String prefix);
+
+    @Override
+    void close();
+
+    interface Channel {
+        String prefix();
+
+        /** Appends one frame to the stream; completes when the store has accepted the write. */
+        CompletableFuture<Void> publish(String stream, Map<String, Object> frame);
+
+        /** Appends several frames in order with a single store write where the store allows it. */
+        CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames);
+
+        /** Delivers existing and future frames of the stream in order, one callback thread per transport. */
+        Subscription subscribe(String stream, FrameListener listener);
+
+        /** Replaces the whole state node. */
+        CompletableFuture<Void> setState(Map<String, Object> state);
+
+        /** Merges the given fields into the state node. */
+        CompletableFuture<Void> updateState(Map<String, Object> fields);
+
+        /** Calls back with the current state (empty map if none) and on every change. */
+        Subscription watchState(Consumer<Map<String, Object>> listener);
+
+        /**
+         * Sets one state field to value (null deletes it) only if it currently equals expected
+         * (null = absent), atomically in the store; completes with whether it did.
+         */
+        CompletableFuture<Boolean> compareAndSetState(String field, Object expected, Object value);
+
+        /** Releases what the channel itself holds (a decorator's sockets and timers); the transport stays open. */
+        default void close() {}
+    }
+
+    interface FrameListener {
+        void onFrame(Frame frame);
+    }
+
+    interface Subscription {
+        void cancel();
+    }
+
+    final class Frame {
+        final String key;
+        final Map<String, Object> data;
+        private final Runnable acker;
+
+        Frame(String key, Map<String, Object> data, Runnable acker) {
+            this.key = key; this.data = data; this.acker = acker;
+        }
+
+        /** Marks the frame consumed so it is not delivered again. */
+        void ack() {
+            acker.run();
+        }
+    }
+
+    // ---- Factory ----
+    // spec: "firebase" (default), "memory", or "tcp://host:port" for a JServ hub
+    static Transport open(String spec) throws IOException {
+        if (spec == null || spec.isEmpty() || spec.equals("firebase")) {
+            return FirebaseTransport.initialize();
+        }
+        if (spec.equals("memory")) {
+            return MemoryTransport.shared();
+        }
+        if (spec.startsWith("tcp://")) {
+            String[] hp = spec.substring("tcp://".length()).split(":");
+            return LoopbackTransport.connect(hp[0], Integer.parseInt(hp[1]));
+        }
+        throw new IOException("Unknown transport: " + spec);
+    }
+}
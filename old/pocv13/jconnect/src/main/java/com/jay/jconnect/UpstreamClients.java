@@ -0,0 +1,118 @@
+package com.jay.jconnect;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Long-lived upstream HttpClients for the HTTP worker, one per target port, so
+ * proxied calls to localhost:<port> reuse kept-alive connections instead of
+ * building a client (selector thread + pool) per request.
+ *
+ * Options:
+ *   -upstreamPool=N          max idle connections kept per client pool (0 = unbounded)
+ *   -upstreamKeepAlive=SECS  idle keep-alive timeout
+ *                            These two are JVM system properties (jdk.httpclient.*), read once
+ *                            for the whole process: they apply to every HttpClient in it, are
+ *                            set only if not already set (e.g. by -D), and only before the first
+ *                            client is built.
+ *   -h2c                     talk HTTP/2 to upstreams (cleartext h2c upgrade, falls back to HTTP/1.1)
+ *   -connectTimeout=MS -readTimeout=MS            defaults for every port
+ *   -portTimeouts=PORT:CONNECT/READ[,PORT:...]    per-port overrides, e.g. 8080:1000/120000
+ */
+class UpstreamClients {
+    static final Set<String> RESTRICTED = Set.of(
+            "host", "content-length", "transfer-encoding", "connection", "expect", "upgrade"
+    );
+
+    final HttpClient.Version version;
+    final Duration connectTimeout;
+    final Duration readTimeout;
+    final Map<Integer, Duration[]> portTimeouts = new HashMap<>();
+    final Map<Integer, HttpClient> clients = new ConcurrentHashMap<>();
+    final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "upstream-http");
+        t.setDaemon(true);
+        return t;
+    });
+
+    UpstreamClients(HttpClient.Version version, Duration connectTimeout, Duration readTimeout) {
+        this.version = version;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    // Process-wide: only when asked for, and never over a value someone else set
+    static void setDefault(String property, Options opts, String option) {
+        if (opts.has(option) && System.getProperty(property) == null)
+            System.setProperty(property, opts.get(option, ""));
+    }
+
+    static UpstreamClients fromOptions(Options opts) {
+        // java.net.http reads its pool settings once, from system properties, when the first client is built
+        setDefault("jdk.httpclient.connectionPoolSize", opts, "upstreamPool");
+        setDefault("jdk.httpclient.keepalive.timeout", opts, "upstreamKeepAlive");
+
+        UpstreamClients u = new UpstreamClients(
+                opts.has("h2c") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1,
+                Duration.ofMillis(opts.getLong("connectTimeout", 5000)),
+                Duration.ofMillis(opts.getLong("readTimeout", 30000)));
+        for (String spec : opts.get("portTimeouts", "").split(",")) {
+            if (spec.isBlank()) continue;
+            String[] portAndTimes = spec.split(":");
+            String[] times = portAndTimes[1].split("/");
+            u.portTimeouts.put(Integer.parseInt(portAndTimes[0].trim()), new Duration[]{
+                    Duration.ofMillis(Long.parseLong(times[0].trim())),
+                    Duration.ofMillis(Long.parseLong(times[1].trim()))
+            });
+        }
+        return u;
+    }
+
+    Duration connectTimeout(int port) {
+        Duration[] t = portTimeouts.get(port);
+        return t != null ? t[0] : connectTimeout;
+    }
+
+    Duration readTimeout(int port) {
+        Duration[] t = portTimeouts.get(port);
+        return t != null ? t[1] : readTimeout;
+    }
+
+    HttpClient client(int port) {
+        return clients.computeIfAbsent(port, p -> HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout(p))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor)
+                .build());
+    }
+
+    // Request to localhost:<port><uri> with the tunnelled headers minus the ones java.net.http owns
+    HttpRequest.Builder request(int port, String method, String uri, Map<String, Object> headers,
+                                HttpRequest.BodyPublisher body) {
+        HttpRequest.Builder b = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + port + uri))
+                .timeout(readTimeout(port))
+                .method(method.toUpperCase(), body);
+        headers.forEach((k, v) -> {
+            if (v == null || RESTRICTED.contains(k.toLowerCase())) return;
+            if (v instanceof List<?> list) {
+                for (Object x : list) if (x != null) b.header(k, String.valueOf(x));
+            } else {
+                b.header(k, String.valueOf(v));
+            }
+        });
+        return b;
+    }
+
+    // Drops pooled connections and their selector threads (session stopped inside a shared JVM)
+    void close() {
+        clients.values().forEach(HttpClient::shutdownNow);
+        clients.clear();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,260 @@
+package com.jay.jconnect;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Pre-started JServ processes for the manager's -isolate mode, so starting a session does not
+ * wait for JVM boot, class loading and transport login.
+ *
+ * Each worker runs "JServ worker -control=PORT -controlToken=T [session options]". It opens the
+ * transport, loads the session classes, dials the manager's loopback control port and sends
+ * {token, pid}. Then it waits for {feature, sessionId} and answers {started: true} or {error}
+ * once the session is up. The process is the session from then on, and stopping it stays
+ * Process.destroy(); the control socket stays open and carries {metrics, latency} every 5s.
+ *
+ * The manager keeps `size` workers idle. When none is idle, a new process is started and gets
+ * its assignment as soon as it connects. Either way the start latency is measured up to the
+ * worker's answer.
+ *
+ * Options (manage): -prewarm=2 (idle workers, 0 = off) -cds=PATH (AppCDS archive for workers)
+ */
+class WorkerPool {
+    static final long ASSIGN_TIMEOUT_MS = 60000;
+
+    // A worker handed a session: its process, when the session came up (ms after the start request)
+    // and the last metrics snapshot and latency summary it sent
+    static class Lease {
+        final Process proc;
+        final boolean warm;
+        final CompletableFuture<Long> started = new CompletableFuture<>();
+        volatile Map<String, Object> metrics;
+        volatile Map<String, Object> latency;
+
+        Lease(Process proc, boolean warm) {
+            this.proc = proc;
+            this.warm = warm;
+        }
+    }
+
+    static class Worker {
+        final Process proc;
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+
+        Worker(Process proc, Socket socket) throws IOException {
+            this.proc = proc;
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        void send(Map<String, Object> msg) throws IOException {
+            out.write(LoopbackTransport.gson.toJson(msg));
+            out.write('\n');
+            out.flush();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // Started for an assignment, not yet connected
+    record Pending(String feature, String sessionId, long requestedAt, Lease lease) {}
+
+    final int size;
+    final List<String> workerArgs;
+    final String cdsArchive;
+    final ServerSocket control;
+    final String token;
+    final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    final Map<Long, Process> spawned = new ConcurrentHashMap<>();   // pid -> process, until it connects
+    final Map<Long, Pending> pending = new ConcurrentHashMap<>();  // pid -> assignment waiting for it
+
+    final LongAdder warmStarts = new LongAdder();
+    final LongAdder coldStarts = new LongAdder();
+    final LongAdder failures = new LongAdder();
+
+    WorkerPool(int size, List<String> workerArgs, String cdsArchive) throws IOException {
+        this.size = size;
+        this.workerArgs = workerArgs;
+        this.cdsArchive = cdsArchive;
+        this.control = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        byte[] t = new byte[16];
+        new SecureRandom().nextBytes(t);
+        this.token = HexFormat.of().formatHex(t);
+    }
+
+    static WorkerPool fromOptions(Options opts, List<String> workerArgs) throws IOException {
+        return new WorkerPool(opts.getInt("prewarm", 2), workerArgs, opts.get("cds", null));
+    }
+
+    void start() {
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket s = control.accept();
+                    Thread.ofVirtual().start(() -> accept(s));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "worker-pool-accept");
+        t.setDaemon(true);
+        t.start();
+        Workers.every(5000, this::refill);
+        refill();
+    }
+
+    // Hands the session to an idle worker, or to a fresh process when there is none
+    Lease assign(String feature, String sessionId) throws IOException {
+        long requestedAt = System.nanoTime();
+        Worker w;
+        while ((w = idle.poll()) != null) {
+            if (!w.proc.isAlive()) {
+                w.close();
+                continue;
+            }
+            Lease lease = new Lease(w.proc, true);
+            warmStarts.increment();
+            Worker worker = w;
+            Thread.ofVirtual().start(() -> handOver(worker, feature, sessionId, requestedAt, lease));
+            Workers.scheduler.execute(this::refill);
+            return lease;
+        }
+        Process proc = launch();
+        Lease lease = new Lease(proc, false);
+        coldStarts.increment();
+        // the assignment first: accept() only takes processes in spawned, and must find it
+        pending.put(proc.pid(), new Pending(feature, sessionId, requestedAt, lease));
+        spawned.put(proc.pid(), proc);
+        return lease;
+    }
+
+    synchronized void refill() {
+        idle.removeIf(w -> {
+            if (w.proc.isAlive()) return false;
+            w.close();
+            return true;
+        });
+        spawned.values().removeIf(p -> {
+            if (p.isAlive()) return false;
+            Pending gone = pending.remove(p.pid());
+            if (gone != null) {
+                failures.increment();
+                gone.lease().started.completeExceptionally(new IOException("Worker exited before connecting"));
+            }
+            return true;
+        });
+        int starting = (int) spawned.keySet().stream().filter(pid -> !pending.containsKey(pid)).count();
+        for (int i = idle.size() + starting; i < size; i++) {
+            try {
+                spawn();
+            } catch (IOException e) {
+                failures.increment();
+                System.err.println("[manage] Could not start worker: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // An idle worker: connects and waits in the pool
+    Process spawn() throws IOException {
+        Process proc = launch();
+        spawned.put(proc.pid(), proc);
+        return proc;
+    }
+
+    Process launch() throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(System.getProperty("java.home") + "/bin/java");
+        if (cdsArchive != null) cmd.add("-XX:SharedArchiveFile=" + cdsArchive);
+        cmd.add("-Duser.dir=" + System.getProperty("user.dir"));
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(JServ.class.getName());
+        cmd.add("worker");
+        cmd.add("-control=" + control.getLocalPort());
+        cmd.add("-controlToken=" + token);
+        cmd.addAll(workerArgs);
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        return pb.start();
+    }
+
+    void accept(Socket s) {
+        try {
+            s.setSoTimeout((int) ASSIGN_TIMEOUT_MS);
+            Map<String, Object> hello = readLine(new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)));
+            long pid = hello != null && hello.get("pid") instanceof Number n ? n.longValue() : -1;
+            Process proc = spawned.remove(pid);
+            if (hello == null || proc == null || !token.equals(hello.get("token"))) {
+                s.close();
+                return;
+            }
+            s.setSoTimeout(0);
+            Worker w = new Worker(proc, s);
+            Pending p = pending.remove(pid);
+            if (p != null) handOver(w, p.feature(), p.sessionId(), p.requestedAt(), p.lease());
+            else idle.offer(w);
+        } catch (IOException e) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    void handOver(Worker w, String feature, String sessionId, long requestedAt, Lease lease) {
+        try {
+            w.send(Map.of("feature", feature, "sessionId", sessionId));
+            w.socket.setSoTimeout((int) ASSIGN_TIMEOUT_MS);
+            Map<String, Object> reply = readLine(w.in);
+            if (reply == null) throw new IOException("Worker exited before the session started");
+            if (reply.get("error") != null) throw new IOException(String.valueOf(reply.get("error")));
+            lease.started.complete(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestedAt));
+            w.socket.setSoTimeout(0);
+            Map<String, Object> msg;
+            while ((msg = readLine(w.in)) != null) {
+                if (msg.get("metrics") instanceof Map<?, ?> m) lease.metrics = (Map<String, Object>) m;
+                if (msg.get("latency") instanceof Map<?, ?> l) lease.latency = (Map<String, Object>) l;
+            }
+        } catch (IOException e) {
+            if (!lease.started.isDone()) {
+                failures.increment();
+                lease.started.completeExceptionally(e);
+                w.proc.destroy();
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    // One JSON object per line, as on the loopback transport
+    static Map<String, Object> readLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        return line == null ? null : (Map<String, Object>) MemoryTransport.normalize(
+                LoopbackTransport.gson.fromJson(line, LoopbackTransport.MAP_TYPE));
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("size", size);
+        s.put("idle", idle.size());
+        s.put("starting", spawned.size());
+        s.put("warmStarts", warmStarts.sum());
+        s.put("coldStarts", coldStarts.sum());
+        s.put("failures", failures.sum());
+        return s;
+    }
+}
@@ -0,0 +1,24 @@
+package com.jay.jconnect;
+
+import java.util.concurrent.*;
+
+// Shared background threads for timers and periodic state reports.
+final class Workers {
+    static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, r -> {
+        Thread t = new Thread(r, "jconnect-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Workers() {}
+
+    static ScheduledFuture<?> every(long millis, Runnable task) {
+        return scheduler.scheduleAtFixedRate(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,109 @@
+package com.jay.jconnect;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Store writes of a stream that have been handed to the transport and not yet accepted by it,
+ * counted from the futures publish / publishAll return (RTDB: the update's ApiFuture).
+ *
+ * A producer that can wait (PTY reader, stdin) calls await() between reads. Once the backlog
+ * reaches the high watermark, in encoded payload bytes or in frames, await() blocks until it
+ * is back under both low watermarks; the data meanwhile stays in the kernel (PTY buffer,
+ * terminal), which stops the shell, instead of queueing inside the store client. A write that
+ * fails counts as done: the transport has let go of it either way.
+ *
+ * Options: -backlogBytes=4194304 -backlogLowBytes=1048576 -backlogFrames=1024
+ *          -backlogLowFrames=256 -nobacklog
+ */
+class WriteBacklog {
+    final long highBytes, lowBytes;
+    final long highFrames, lowFrames;
+    final boolean enabled;
+
+    long bytes, frames;     // guarded by this
+    long peakBytes, peakFrames;
+    boolean paused, closed;
+    long pausedSince;
+
+    final LongAdder writes = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder pauses = new LongAdder();
+    final LongAdder pausedNanos = new LongAdder();
+
+    WriteBacklog(long highBytes, long lowBytes, long highFrames, long lowFrames, boolean enabled) {
+        this.highBytes = highBytes;
+        this.lowBytes = Math.min(lowBytes, highBytes);
+        this.highFrames = highFrames;
+        this.lowFrames = Math.min(lowFrames, highFrames);
+        this.enabled = enabled;
+    }
+
+    static WriteBacklog fromOptions(Options opts) {
+        return new WriteBacklog(
+                opts.getLong("backlogBytes", 4 * 1024 * 1024),
+                opts.getLong("backlogLowBytes", 1024 * 1024),
+                opts.getLong("backlogFrames", 1024),
+                opts.getLong("backlogLowFrames", 256),
+                !opts.has("nobacklog"));
+    }
+
+    // Counts the write until its future completes; returns that future
+    CompletableFuture<Void> track(CompletableFuture<Void> write, int n, long size) {
+        synchronized (this) {
+            writes.increment();
+            frames += n;
+            bytes += size;
+            peakBytes = Math.max(peakBytes, bytes);
+            peakFrames = Math.max(peakFrames, frames);
+            if (enabled && !paused && (bytes >= highBytes || frames >= highFrames)) {
+                paused = true;
+                pausedSince = System.nanoTime();
+                pauses.increment();
+            }
+        }
+        write.whenComplete((v, e) -> done(n, size, e != null));
+        return write;
+    }
+
+    synchronized void done(int n, long size, boolean error) {
+        if (error) failed.increment();
+        frames -= n;
+        bytes -= size;
+        if (paused && bytes <= lowBytes && frames <= lowFrames) resume();
+    }
+
+    void resume() {
+        paused = false;
+        pausedNanos.add(System.nanoTime() - pausedSince);
+        notifyAll();
+    }
+
+    // Blocks while over the watermark; returns at once when under it or closed
+    synchronized void await() throws InterruptedException {
+        while (paused && !closed) wait();
+    }
+
+    // Lets a blocked producer go, e.g. when the session stops
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("bytes", bytes);
+        s.put("frames", frames);
+        s.put("paused", paused);
+        s.put("peakBytes", peakBytes);
+        s.put("peakFrames", peakFrames);
+        s.put("writes", writes.sum());
+        s.put("failed", failed.sum());
+        s.put("pauses", pauses.sum());
+        s.put("pausedMs", TimeUnit.NANOSECONDS.toMillis(pausedNanos.sum()
+                + (paused ? System.nanoTime() - pausedSince : 0)));
+        return s;
+    }
+}
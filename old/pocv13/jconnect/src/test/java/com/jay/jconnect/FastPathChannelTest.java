@@ -0,0 +1,143 @@
+package com.jay.jconnect;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastPathChannelTest {
+    static final long RELAY_DELAY_MS = 300;
+
+    final List<Transport.Channel> opened = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        opened.forEach(Transport.Channel::close);
+    }
+
+    // Frames published on the relay before the link came up are delivered once, in order,
+    // even when the socket overtakes them
+    @Test
+    void relayFramesBeforeTheLinkAreNotLost() throws Exception {
+        MemoryTransport store = new MemoryTransport();
+        Options opts = Options.parse(new String[]{"-fastpath", "-fastPathHost=127.0.0.1"});
+        FastPathChannel server = (FastPathChannel) open(FastPathChannel.wrap(
+                new DelayedChannel(store.channel("sessions/t/ssh"), RELAY_DELAY_MS), "server", opts));
+        for (int i = 0; i < 3; i++) server.publish(Transport.OUTPUT, Map.of("n", (long) i));
+
+        FastPathChannel client = (FastPathChannel) open(FastPathChannel.wrap(
+                new DelayedChannel(store.channel("sessions/t/ssh"), RELAY_DELAY_MS), "client", opts));
+        List<Long> got = Collections.synchronizedList(new ArrayList<>());
+        client.subscribe(Transport.OUTPUT, f -> {
+            got.add(((Number) f.data.get("n")).longValue());
+            f.ack();
+        });
+        await(() -> server.link != null && client.link != null, "link up");
+        server.publish(Transport.OUTPUT, Map.of("n", 3L));
+
+        await(() -> got.size() >= 4, "all frames");
+        Thread.sleep(2 * RELAY_DELAY_MS); // the relay copies arrive after the socket's
+        assertEquals(List.of(0L, 1L, 2L, 3L), got);
+        assertEquals(3, client.duplicates.sum());
+    }
+
+    // Once a stream is under way a missing frame is waited for, however late it is
+    @Test
+    void gapsAreWaitedForNotSkipped() {
+        FastPathChannel ch = open(new FastPathChannel(new MemoryTransport().channel("sessions/t/tcp"), "client"));
+        List<Long> got = new ArrayList<>();
+        ch.subscribe(Transport.INPUT, f -> got.add(((Number) f.data.get("fps")).longValue()));
+        FastPathChannel.Inbound in = ch.inbound(Transport.INPUT);
+        in.accept(frame(0));
+        in.accept(frame(2));
+        in.gapSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(10 * FastPathChannel.GAP_TIMEOUT_MS);
+        ch.checkGaps();
+        assertEquals(List.of(0L), got);
+        in.accept(frame(1));
+        assertEquals(List.of(0L, 1L, 2L), got);
+        assertEquals(0, ch.duplicates.sum());
+    }
+
+    static Transport.Frame frame(long seq) {
+        return new Transport.Frame(null, Map.of("fpe", "peer", "fps", seq), () -> {});
+    }
+
+    <T extends Transport.Channel> T open(T ch) {
+        opened.add(ch);
+        return ch;
+    }
+
+    static void await(BooleanSupplier cond, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!cond.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out waiting for " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    // A relay whose frames take delayMs to be stored, in publish order; state is immediate
+    static class DelayedChannel implements Transport.Channel {
+        final Transport.Channel inner;
+        final long delayMs;
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "delayed-relay");
+            t.setDaemon(true);
+            return t;
+        });
+
+        DelayedChannel(Transport.Channel inner, long delayMs) {
+            this.inner = inner;
+            this.delayMs = delayMs;
+        }
+
+        @Override public String prefix() { return inner.prefix(); }
+
+        @Override
+        public CompletableFuture<Void> publish(String stream, Map<String, Object> frame) {
+            return publishAll(stream, List.of(frame));
+        }
+
+        @Override
+        public CompletableFuture<Void> publishAll(String stream, List<Map<String, Object>> frames) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            timer.schedule(() -> inner.publishAll(stream, frames).whenComplete((v, e) -> done.complete(null)),
+                    delayMs, TimeUnit.MILLISECONDS);
+            return done;
+        }
+
+        @Override
+        public Transport.Subscription subscribe(String stream, Transport.FrameListener listener) {
+            return inner.subscribe(stream, listener);
+        }
+
+        @Override
+        public CompletableFuture<Void> setState(Map<String, Object> state) {
+            return inner.setState(state);
+        }
+
+        @Override
+        public CompletableFuture<Void> updateState(Map<String, Object> fields) {
+            return inner.updateState(fields);
+        }
+
+        @Override
+        public Transport.Subscription watchState(Consumer<Map<String, Object>> listener) {
+            return inner.watchState(listener);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> compareAndSetState(String field, Object expected, Object value) {
+            return inner.compareAndSetState(field, expected, value);
+        }
+
+        @Override
+        public void close() {
+            timer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.jay.jconnect;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ManagerJournalTest {
+    final Path dir;
+
+    ManagerJournalTest() throws IOException {
+        dir = Files.createTempDirectory("journal");
+    }
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : files.toList()) Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+
+    // A record cut short by a crash is dropped on reopen, and the next append is a line of its own
+    @Test
+    void tornTailIsCutOffBeforeAppending() throws IOException {
+        Path path = dir.resolve("manage.journal");
+        ManagerJournal j = open(path);
+        j.append(record("a"), List::of);
+        j.append(record("b"), List::of);
+        j.buf.put("{\"op\":\"start\",\"feat".getBytes(StandardCharsets.UTF_8));
+
+        j = open(path);
+        assertEquals(List.of(record("a"), record("b")), j.replay());
+        j.append(record("c"), List::of);
+
+        j = open(path);
+        assertEquals(List.of(record("a"), record("b"), record("c")), j.replay());
+    }
+
+    static ManagerJournal open(Path path) throws IOException {
+        ManagerJournal j = new ManagerJournal(path, 4096);
+        j.map();
+        return j;
+    }
+
+    static Map<String, Object> record(String key) {
+        return Map.of("op", "start", "feature", "ssh", "key", key);
+    }
+}